@@ -404,10 +404,16 @@ class MainActivity : AppCompatActivity() {
     /**
      * Load default languages from JSON configuration
      *
+     * Grammars are only registered here and parsed when first used. Grammars we are
+     * likely to open soon are warmed up on a background thread.
+     *
      * @see loadDefaultLanguagesWithDSL Load by Kotlin DSL
      */
     private /*suspend*/ fun loadDefaultTextMateLanguages() /*= withContext(Dispatchers.Main)*/ {
-        GrammarRegistry.getInstance().loadGrammars("textmate/languages.json")
+        GrammarRegistry.getInstance().apply {
+            registerGrammars("textmate/languages.json")
+            warmUpGrammars(listOf("source.java", "source.kotlin"), 2)
+        }
     }
 
     /**
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.os.Debug
+import android.view.View
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import io.github.rosemoe.sora.widget.rendering.TextAdvancesCache
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Count allocations of drawing frames while scrolling through a document. Redrawing an unchanged
+ * frame must validate measure caches by their stamps only, without rebuilding them, and allocate
+ * at most [MAX_REDRAW_ALLOCATIONS] objects per frame. Allocations of scrolled frames are reported.
+ *
+ * Run with `./gradlew :editor:connectedDebugAndroidTest`.
+ */
+@RunWith(AndroidJUnit4::class)
+class ScrollAllocationBenchmark {
+
+    companion object {
+        const val WIDTH = 1080
+        const val HEIGHT = 1920
+        const val FRAMES = 300
+        const val MAX_REDRAW_ALLOCATIONS = 256
+
+        /**
+         * Written to the unused end of advance caches. Rebuilding a cache computes the value again.
+         */
+        const val POISON = -12345f
+    }
+
+    private fun createText() = buildString {
+        repeat(5000) {
+            append("    private static final int VALUE_$it = compute(\"item\", $it) * 31; // constant\n")
+            append("\tif (value != null && value.length() > $it) {\n")
+            append("\t\treturn items.get(index + $it);\n")
+            append("\t}\n")
+        }
+    }
+
+    private fun drawAt(editor: CodeEditor, canvas: Canvas, y: Int) {
+        editor.scroller.startScroll(0, y, 0, 0, 0)
+        editor.scroller.abortAnimation()
+        editor.draw(canvas)
+    }
+
+    @Suppress("DEPRECATION")
+    private fun countAllocations(editor: CodeEditor, canvas: Canvas, rowsPerFrame: Int): Int {
+        val step = editor.rowHeight * rowsPerFrame
+        // Scroll back to top first, so that every round draws the same frames
+        drawAt(editor, canvas, 0)
+        Debug.resetThreadAllocCount()
+        Debug.startAllocCounting()
+        for (frame in 0 until FRAMES) {
+            drawAt(editor, canvas, (frame * step).coerceAtMost(editor.scrollMaxY))
+        }
+        Debug.stopAllocCounting()
+        return Debug.getThreadAllocCount()
+    }
+
+    /**
+     * Write [POISON] to the end of advance caches of visible lines, which is beyond the line text
+     * and not used for drawing
+     */
+    private fun poisonVisibleCaches(editor: CodeEditor): List<TextAdvancesCache> {
+        val renderCache = editor.renderContext.cache
+        val result = ArrayList<TextAdvancesCache>()
+        for (line in editor.firstVisibleLine..editor.lastVisibleLine) {
+            val widths = renderCache.queryMeasureCache(line)?.widths ?: continue
+            widths.setAdvanceAt(widths.size, POISON)
+            result.add(widths)
+        }
+        return result
+    }
+
+    @Test
+    fun countAllocationsWhileScrolling() {
+        val instrumentation = InstrumentationRegistry.getInstrumentation()
+        instrumentation.runOnMainSync {
+            val editor = CodeEditor(instrumentation.targetContext)
+            editor.setText(createText())
+            editor.measure(
+                View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+            )
+            editor.layout(0, 0, WIDTH, HEIGHT)
+            val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+            val canvas = Canvas(bitmap)
+            // Warm up
+            countAllocations(editor, canvas, 1)
+            countAllocations(editor, canvas, 20)
+
+            drawAt(editor, canvas, 0)
+            val poisoned = poisonVisibleCaches(editor)
+            assertTrue("no measure cache for visible lines", poisoned.isNotEmpty())
+            val redraw = countAllocations(editor, canvas, 0)
+            for (widths in poisoned) {
+                assertEquals("measure cache rebuilt when redrawing", POISON, widths.getAdvancesSum(0, widths.size), 0f)
+            }
+            assertTrue(
+                "Redrawing an unchanged frame allocates ${redraw / FRAMES} objects per frame",
+                redraw / FRAMES <= MAX_REDRAW_ALLOCATIONS
+            )
+
+            val slow = countAllocations(editor, canvas, 1)
+            val fling = countAllocations(editor, canvas, 20)
+            println(
+                "Scroll allocations: ${redraw / FRAMES} per frame when redrawing, ${slow / FRAMES} per frame " +
+                        "when scrolling by row, ${fling / FRAMES} per frame when flinging"
+            )
+            bitmap.recycle()
+        }
+    }
+
+}
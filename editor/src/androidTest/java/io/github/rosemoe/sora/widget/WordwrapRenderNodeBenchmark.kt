@@ -0,0 +1,112 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget
+
+import android.graphics.RenderNode
+import android.os.Build
+import android.view.View
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measure frame time of flinging through a wrapped document, with and without
+ * [RenderNode] caching of rows. Only recording on the CPU is timed, and results are
+ * reported without assertions, as timings vary on emulators and shared devices.
+ *
+ * Run with `./gradlew :editor:connectedDebugAndroidTest`.
+ */
+@RunWith(AndroidJUnit4::class)
+class WordwrapRenderNodeBenchmark {
+
+    companion object {
+        const val WIDTH = 1080
+        const val HEIGHT = 1920
+        const val LINES = 10000
+        const val FRAMES = 600
+    }
+
+    private fun createText() = buildString {
+        repeat(LINES) {
+            append("Log entry $it: request to /api/v1/items/$it finished with status 200 after ${it % 97} ms, ")
+            append("payload size ${it * 31 % 4096} bytes, cache hit ratio 0.${it % 100}\n")
+        }
+    }
+
+    /**
+     * Scroll with a decelerating velocity, like a fling, and return the average frame time in nanoseconds
+     */
+    private fun measureFling(editor: CodeEditor, node: RenderNode): Long {
+        var y = 0f
+        var velocity = editor.rowHeight * 12f
+        var time = 0L
+        for (frame in 0 until FRAMES) {
+            y = (y + velocity).coerceAtMost(editor.scrollMaxY.toFloat())
+            velocity = (velocity * 0.995f).coerceAtLeast(editor.rowHeight / 2f)
+            editor.scroller.startScroll(0, y.toInt(), 0, 0, 0)
+            editor.scroller.abortAnimation()
+            val canvas = node.beginRecording(WIDTH, HEIGHT)
+            val start = System.nanoTime()
+            editor.draw(canvas)
+            time += System.nanoTime() - start
+            node.endRecording()
+        }
+        return time / FRAMES
+    }
+
+    @Test
+    fun measureFlingFrameTime() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        val instrumentation = InstrumentationRegistry.getInstrumentation()
+        instrumentation.runOnMainSync {
+            val editor = CodeEditor(instrumentation.targetContext)
+            editor.setText(createText())
+            editor.isWordwrap = true
+            editor.measure(
+                View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+            )
+            editor.layout(0, 0, WIDTH, HEIGHT)
+            val node = RenderNode("benchmark")
+
+            editor.isHardwareAcceleratedDrawAllowed = false
+            // Warm up
+            measureFling(editor, node)
+            val software = measureFling(editor, node)
+
+            editor.isHardwareAcceleratedDrawAllowed = true
+            measureFling(editor, node)
+            val cached = measureFling(editor, node)
+            node.discardDisplayList()
+            println(
+                "Wordwrap fling frame time: ${software / 1000} us without RenderNode, " +
+                        "${cached / 1000} us with RenderNode"
+            )
+        }
+    }
+
+}
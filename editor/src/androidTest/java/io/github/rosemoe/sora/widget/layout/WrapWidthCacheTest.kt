@@ -0,0 +1,139 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget.layout
+
+import android.view.View
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import io.github.rosemoe.sora.graphics.inlayHint.TextInlayHintRenderer
+import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHintsContainer
+import io.github.rosemoe.sora.lang.styling.inlayHint.TextInlayHint
+import io.github.rosemoe.sora.widget.CodeEditor
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Rows reused from [WrapWidthCache] when switching back to a previous width must be the same as
+ * rows broken for that width again.
+ */
+@RunWith(AndroidJUnit4::class)
+class WrapWidthCacheTest {
+
+    companion object {
+        const val WIDE = 1080
+        const val NARROW = 720
+        const val HEIGHT = 1920
+        const val TIMEOUT_MILLIS = 10000L
+    }
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+
+    private fun createText() = buildString {
+        repeat(300) {
+            append("    val value$it = compute(items[$it], \"some text of the line\") + offset * $it\n")
+        }
+    }
+
+    private fun createInlayHints() = InlayHintsContainer().also {
+        for (line in 0 until 300 step 3) {
+            it.add(TextInlayHint(line, 8, "parameterHintOfSomeLength"))
+        }
+    }
+
+    private fun createEditor(): CodeEditor {
+        lateinit var editor: CodeEditor
+        instrumentation.runOnMainSync {
+            editor = CodeEditor(instrumentation.targetContext)
+            editor.registerInlayHintRenderers(TextInlayHintRenderer.DefaultInstance)
+            editor.setText(createText())
+            editor.isWordwrap = true
+        }
+        return editor
+    }
+
+    /**
+     * Lay out the editor with the given width, and wait for lines to be broken
+     */
+    private fun layout(editor: CodeEditor, width: Int) {
+        instrumentation.runOnMainSync {
+            editor.measure(
+                View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+            )
+            editor.layout(0, 0, width, HEIGHT)
+        }
+        val deadline = System.currentTimeMillis() + TIMEOUT_MILLIS
+        while (true) {
+            instrumentation.waitForIdleSync()
+            var done = false
+            instrumentation.runOnMainSync { done = editor.isEditable }
+            if (done) {
+                break
+            }
+            assertTrue("lines are not broken in time", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+    }
+
+    private fun rowCounts(editor: CodeEditor): List<Int> {
+        lateinit var result: List<Int>
+        instrumentation.runOnMainSync {
+            result = (0 until editor.text.lineCount).map { editor.layout.getRowCountForLine(it) }
+        }
+        return result
+    }
+
+    @Test
+    fun inlayHintsChangedBeforeSwitchingBack() {
+        val editor = createEditor()
+        layout(editor, WIDE)
+        val rowsWithoutHints = rowCounts(editor)
+        // Rows for the wide width are cached
+        layout(editor, NARROW)
+        instrumentation.runOnMainSync {
+            editor.inlayHints = createInlayHints()
+        }
+        layout(editor, WIDE)
+        val rows = rowCounts(editor)
+
+        val expectedEditor = createEditor()
+        instrumentation.runOnMainSync {
+            expectedEditor.inlayHints = createInlayHints()
+        }
+        layout(expectedEditor, WIDE)
+        val expectedRows = rowCounts(expectedEditor)
+
+        assertNotEquals("inlay hints do not change rows", rowsWithoutHints, expectedRows)
+        assertEquals(expectedRows, rows)
+        instrumentation.runOnMainSync {
+            editor.release()
+            expectedEditor.release()
+        }
+    }
+
+}
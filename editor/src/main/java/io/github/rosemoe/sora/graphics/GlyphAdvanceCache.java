@@ -0,0 +1,253 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.graphics;
+
+import android.graphics.Typeface;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of single glyph advances, shared by all measurers using the same font configuration.
+ * <p>
+ * A cache is keyed by typeface, text size, scale, skew, letter spacing, font features, font
+ * variations and paint flags. Advances of BMP characters are stored in a flat array, while
+ * supplementary code points and short clusters (such as emoji sequences) are stored in maps.
+ * All methods are thread-safe. Only a few font configurations are retained, so that zooming text
+ * does not keep caches of every intermediate text size.
+ *
+ * @author Rosemoe
+ */
+public final class GlyphAdvanceCache {
+
+    private final static int MAX_CACHE_COUNT = 8;
+    private final static int MAX_CLUSTER_COUNT = 4096;
+
+    private final static Map<FontKey, GlyphAdvanceCache> caches = new LinkedHashMap<>(MAX_CACHE_COUNT + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<FontKey, GlyphAdvanceCache> eldest) {
+            return size() > MAX_CACHE_COUNT;
+        }
+    };
+
+    private static volatile GlyphAdvanceCache lastCache;
+
+    private final FontKey key;
+    private final float[] charAdvances = new float[65536];
+    private final Map<Integer, Float> codePointAdvances = new ConcurrentHashMap<>();
+    private final Map<String, Float> clusterAdvances = new ConcurrentHashMap<>();
+    private volatile float asciiMonospaceAdvance = Float.NaN;
+
+    private GlyphAdvanceCache(@NonNull FontKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the shared cache for the current font configuration of the given paint
+     */
+    @NonNull
+    public static GlyphAdvanceCache forPaint(@NonNull android.graphics.Paint paint) {
+        // Most lookups come from the same paint in a row
+        var last = lastCache;
+        if (last != null && last.matches(paint)) {
+            return last;
+        }
+        var key = new FontKey(paint);
+        synchronized (caches) {
+            var cache = caches.get(key);
+            if (cache == null) {
+                cache = new GlyphAdvanceCache(key);
+                caches.put(key, cache);
+            }
+            lastCache = cache;
+            return cache;
+        }
+    }
+
+    /**
+     * Clear all shared caches
+     */
+    public static void clearAll() {
+        synchronized (caches) {
+            caches.clear();
+            lastCache = null;
+        }
+    }
+
+    /**
+     * Check whether this cache is for the current font configuration of the given paint
+     */
+    public boolean matches(@NonNull android.graphics.Paint paint) {
+        return key.matches(paint);
+    }
+
+    /**
+     * Get the advance of a BMP character. The paint must match this cache.
+     */
+    public float getCharAdvance(char ch, @NonNull android.graphics.Paint paint) {
+        float advance = charAdvances[ch];
+        if (advance == 0) {
+            advance = paint.measureText(new char[]{ch}, 0, 1);
+            // Racing writes store the same value
+            charAdvances[ch] = advance;
+        }
+        return advance;
+    }
+
+    /**
+     * Get the common advance of printable ASCII characters, if all of them have the same advance.
+     * The paint must match this cache.
+     *
+     * @return the advance, or -1 if the font is not monospaced for ASCII characters
+     */
+    public float getAsciiMonospaceAdvance(@NonNull android.graphics.Paint paint) {
+        float advance = asciiMonospaceAdvance;
+        if (Float.isNaN(advance)) {
+            advance = getCharAdvance(' ', paint);
+            for (char ch = 0x21; ch < 0x7f; ch++) {
+                if (getCharAdvance(ch, paint) != advance) {
+                    advance = -1f;
+                    break;
+                }
+            }
+            if (advance <= 0) {
+                advance = -1f;
+            }
+            asciiMonospaceAdvance = advance;
+        }
+        return advance;
+    }
+
+    /**
+     * Get the advance of a code point. The paint must match this cache.
+     */
+    public float getCodePointAdvance(int codePoint, @NonNull android.graphics.Paint paint) {
+        if (codePoint <= 0xFFFF) {
+            return getCharAdvance((char) codePoint, paint);
+        }
+        var advance = codePointAdvances.get(codePoint);
+        if (advance == null) {
+            var chars = Character.toChars(codePoint);
+            advance = paint.measureText(chars, 0, chars.length);
+            codePointAdvances.put(codePoint, advance);
+        }
+        return advance;
+    }
+
+    /**
+     * Get the advance of a short cluster, such as an emoji sequence, if the cluster is shaped into
+     * a single glyph whose advance is carried by its first char. The paint must match this cache.
+     *
+     * @return the advance, or -1 if the text is not shaped as a single cluster
+     */
+    public float getClusterAdvance(@NonNull CharSequence text, int start, int end, @NonNull android.graphics.Paint paint) {
+        var cluster = text.subSequence(start, end).toString();
+        var advance = clusterAdvances.get(cluster);
+        if (advance == null) {
+            var widths = new float[end - start];
+            paint.getTextWidths(cluster, widths);
+            advance = widths[0] > 0 ? widths[0] : -1f;
+            for (int i = 1; i < widths.length; i++) {
+                if (widths[i] != 0) {
+                    advance = -1f;
+                    break;
+                }
+            }
+            if (clusterAdvances.size() < MAX_CLUSTER_COUNT) {
+                clusterAdvances.put(cluster, advance);
+            }
+        }
+        return advance;
+    }
+
+    /**
+     * Font configuration affecting glyph advances
+     */
+    private static final class FontKey {
+
+        private final Typeface typeface;
+        private final float textSize;
+        private final float textScaleX;
+        private final float textSkewX;
+        private final float letterSpacing;
+        private final String fontFeatureSettings;
+        private final String fontVariationSettings;
+        private final int flags;
+
+        FontKey(@NonNull android.graphics.Paint paint) {
+            typeface = paint.getTypeface();
+            textSize = paint.getTextSize();
+            textScaleX = paint.getTextScaleX();
+            textSkewX = paint.getTextSkewX();
+            letterSpacing = paint.getLetterSpacing();
+            fontFeatureSettings = paint.getFontFeatureSettings();
+            fontVariationSettings = getFontVariationSettings(paint);
+            flags = paint.getFlags();
+        }
+
+        @Nullable
+        private static String getFontVariationSettings(@NonNull android.graphics.Paint paint) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                return paint.getFontVariationSettings();
+            }
+            return null;
+        }
+
+        boolean matches(@NonNull android.graphics.Paint paint) {
+            return typeface == paint.getTypeface() && textSize == paint.getTextSize()
+                    && textScaleX == paint.getTextScaleX() && textSkewX == paint.getTextSkewX()
+                    && letterSpacing == paint.getLetterSpacing() && flags == paint.getFlags()
+                    && Objects.equals(fontFeatureSettings, paint.getFontFeatureSettings())
+                    && Objects.equals(fontVariationSettings, getFontVariationSettings(paint));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            FontKey fontKey = (FontKey) o;
+            return Float.compare(textSize, fontKey.textSize) == 0 && Float.compare(textScaleX, fontKey.textScaleX) == 0
+                    && Float.compare(textSkewX, fontKey.textSkewX) == 0 && Float.compare(letterSpacing, fontKey.letterSpacing) == 0
+                    && flags == fontKey.flags && Objects.equals(typeface, fontKey.typeface)
+                    && Objects.equals(fontFeatureSettings, fontKey.fontFeatureSettings)
+                    && Objects.equals(fontVariationSettings, fontKey.fontVariationSettings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(typeface, textSize, textScaleX, textSkewX, letterSpacing, fontFeatureSettings, fontVariationSettings, flags);
+        }
+    }
+
+}
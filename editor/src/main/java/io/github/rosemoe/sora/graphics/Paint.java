@@ -37,6 +37,7 @@ public class Paint extends android.graphics.Paint {
 
     private float spaceWidth;
     private boolean renderFunctionCharacters;
+    private int attributeVersion;
 
     public Paint() {
         this(false);
@@ -49,7 +50,10 @@ public class Paint extends android.graphics.Paint {
     }
 
     public void setRenderFunctionCharacters(boolean renderFunctionCharacters) {
-        this.renderFunctionCharacters = renderFunctionCharacters;
+        if (this.renderFunctionCharacters != renderFunctionCharacters) {
+            this.renderFunctionCharacters = renderFunctionCharacters;
+            attributeVersion++;
+        }
     }
 
     public boolean isRenderFunctionCharacters() {
@@ -58,6 +62,17 @@ public class Paint extends android.graphics.Paint {
 
     public void onAttributeUpdate() {
         spaceWidth = measureText(" ");
+        attributeVersion++;
+    }
+
+    /**
+     * Get the version of attributes affecting text advances, which is increased on each update
+     * of typeface, text size, scale, letter spacing, font features and function character rendering.
+     * Text style changes made by {@link #setFakeBoldText(boolean)} and {@link #setTextSkewX(float)}
+     * are not tracked.
+     */
+    public int getAttributeVersion() {
+        return attributeVersion;
     }
 
     public float getSpaceWidth() {
@@ -85,6 +100,12 @@ public class Paint extends android.graphics.Paint {
         onAttributeUpdate();
     }
 
+    @Override
+    public void setTextScaleX(float scaleX) {
+        super.setTextScaleX(scaleX);
+        onAttributeUpdate();
+    }
+
     @SuppressLint("NewApi")
     public float myGetTextRunAdvances(@NonNull char[] chars, int index, int count, int contextIndex, int contextCount, boolean isRtl, @Nullable float[] advances, int advancesIndex) {
         float advance = getTextRunAdvances(chars, index, count, contextIndex, contextCount, isRtl, advances, advancesIndex);
@@ -27,11 +27,13 @@ import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 
-import java.util.Arrays;
-
 import io.github.rosemoe.sora.text.CharArrayWrapper;
 import io.github.rosemoe.sora.text.FunctionCharacters;
 
+/**
+ * Measure text by summing advances of single characters. Advances are stored in {@link GlyphAdvanceCache},
+ * which is shared by all instances using the same font configuration.
+ */
 public class SingleCharacterWidths {
 
     /**
@@ -41,14 +43,17 @@ public class SingleCharacterWidths {
      */
     private final static long PRECISION = 1000L;
     public final float[] widths;
+    /**
+     * @deprecated Code point advances are stored in {@link GlyphAdvanceCache}
+     */
+    @Deprecated
     public final SparseArray<Float> codePointWidths;
     public final char[] buffer;
-    private final float[] cache;
     private final int tabWidth;
     private boolean handleFunctionCharacters;
+    private GlyphAdvanceCache advances;
 
     public SingleCharacterWidths(int tabWidth) {
-        cache = new float[65536];
         buffer = new char[10];
         widths = new float[10];
         codePointWidths = new SparseArray<>();
@@ -71,26 +76,36 @@ public class SingleCharacterWidths {
      * Clear caches of font
      */
     public void clearCache() {
-        Arrays.fill(cache, 0);
-        codePointWidths.clear();
+        advances = null;
+    }
+
+    /**
+     * Get the shared advance cache for current font configuration of the paint
+     */
+    @NonNull
+    private GlyphAdvanceCache obtainAdvances(@NonNull Paint p) {
+        var cache = advances;
+        if (cache == null || !cache.matches(p)) {
+            cache = GlyphAdvanceCache.forPaint(p);
+            advances = cache;
+        }
+        return cache;
     }
 
     /**
      * Measure a single character
      */
     public float measureChar(char ch, @NonNull Paint p) {
+        return measureChar(ch, p, obtainAdvances(p));
+    }
+
+    private float measureChar(char ch, @NonNull Paint p, @NonNull GlyphAdvanceCache cache) {
         var rate = 1;
         if (ch == '\t') {
             ch = ' ';
             rate = tabWidth;
         }
-        float width = cache[ch];
-        if (width == 0) {
-            buffer[0] = ch;
-            width = p.measureText(buffer, 0, 1);
-            cache[ch] = width;
-        }
-        return width * rate;
+        return cache.getCharAdvance(ch, p) * rate;
     }
 
     /**
@@ -101,13 +116,7 @@ public class SingleCharacterWidths {
         if (cp <= 65535) {
             return measureChar((char) cp, p);
         }
-        var width = codePointWidths.get(cp);
-        if (width == null) {
-            var count = Character.toChars(cp, buffer, 0);
-            width = p.measureText(buffer, 0, count);
-            codePointWidths.put(cp, width);
-        }
-        return width;
+        return obtainAdvances(p).getCodePointAdvance(cp, p);
     }
 
     /*
@@ -126,31 +135,31 @@ public class SingleCharacterWidths {
      */
     public float measureText(@NonNull CharSequence str, int start, int end, @NonNull Paint p) {
         long width = 0;
+        var cache = obtainAdvances(p);
         for (int i = start; i < end; i++) {
             char ch = str.charAt(i);
             if (isEmoji(ch)) {
                 if (i + 4 <= end) {
-                    p.getTextWidths(str, i, i + 4, widths);
-                    if (widths[0] > 0 && widths[1] == 0 && widths[2] == 0 && widths[3] == 0) {
+                    float clusterWidth = cache.getClusterAdvance(str, i, i + 4, p);
+                    if (clusterWidth > 0) {
                         i += 3;
-                        width += (long) Math.ceil(widths[0] * PRECISION);
+                        width += (long) Math.ceil(clusterWidth * PRECISION);
                         continue;
                     }
                 }
-                int commitEnd = Math.min(end, i + 2);
-                int len = commitEnd - i;
-                for (int j = 0; j < len; j++) {
-                    buffer[j] = str.charAt(i + j);
+                if (i + 1 < end && Character.isSurrogatePair(ch, str.charAt(i + 1))) {
+                    width += (long) Math.ceil(cache.getCodePointAdvance(Character.toCodePoint(ch, str.charAt(i + 1)), p) * PRECISION);
+                    i++;
+                } else {
+                    width += (long) Math.ceil(cache.getCharAdvance(ch, p) * PRECISION);
                 }
-                width += (long) Math.ceil(p.measureText(buffer, 0, len) * PRECISION);
-                i += len - 1;
             } else if(isHandleFunctionCharacters() && FunctionCharacters.isEditorFunctionChar(ch)) {
                 var name = FunctionCharacters.getNameForFunctionCharacter(ch);
                 for (int j = 0;j < name.length();j++) {
-                    width += (long) Math.ceil(measureChar(name.charAt(j), p) * PRECISION);
+                    width += (long) Math.ceil(measureChar(name.charAt(j), p, cache) * PRECISION);
                 }
             } else {
-                width += (long) Math.ceil(measureChar(ch, p) * PRECISION);
+                width += (long) Math.ceil(measureChar(ch, p, cache) * PRECISION);
             }
         }
         return (float) width / PRECISION;
@@ -107,6 +107,7 @@ public class TextRow {
     private InlayHintRenderParams inlayHintRenderParams;
     private Paint paint;
     private TextAdvancesCache measureCache;
+    private float monospaceAdvance = Float.NaN;
     private int selectedStart = -1;
     private int selectedEnd = -1;
 
@@ -125,9 +126,14 @@ public class TextRow {
         this.inlineElements = inlineElements;
         this.directions = directions;
         this.paint = paint;
-        this.params = params;
         this.measureCache = measureCache;
-        this.inlayHintRenderParams = params.toInlayHintRenderParams();
+        if (this.params != params || inlayHintRenderParams == null) {
+            this.inlayHintRenderParams = params.toInlayHintRenderParams();
+        }
+        this.params = params;
+        monospaceAdvance = Float.NaN;
+        selectedStart = -1;
+        selectedEnd = -1;
     }
 
     /**
@@ -136,6 +142,7 @@ public class TextRow {
     public void setRange(int start, int end) {
         this.textStart = start;
         this.textEnd = end;
+        monospaceAdvance = Float.NaN;
     }
 
     public int getTextStart() {
@@ -151,6 +158,62 @@ public class TextRow {
         this.selectedEnd = end;
     }
 
+    /**
+     * Get the common advance of characters in the given text range, if the range can be measured
+     * arithmetically. This requires a left-to-right, ASCII-only line without inlay hints or bold
+     * text in the range, rendered in a font whose printable ASCII characters share the same advance.
+     * Tabs are not included in the returned advance.
+     *
+     * @return the advance, or -1 if the text should be measured by text runs
+     */
+    public static float computeMonospaceAdvance(@NonNull ContentLine text, int start, int end,
+                                                @Nullable List<Span> spans, @Nullable List<InlayHint> inlayHints,
+                                                @NonNull Paint paint) {
+        if (text.mayNeedBidi() || !text.isAsciiOnly() || (inlayHints != null && !inlayHints.isEmpty())) {
+            return -1f;
+        }
+        if (spans != null) {
+            int spanCount = spans.size();
+            for (int i = 0; i < spanCount; i++) {
+                var span = spans.get(i);
+                if (i > 0 && span.getColumn() >= end) {
+                    break;
+                }
+                if (TextStyle.isBold(span.getStyleBits()) && (i + 1 == spanCount || spans.get(i + 1).getColumn() > start)) {
+                    return -1f;
+                }
+            }
+        }
+        // Measure without style, as non-bold text runs are measured
+        boolean fakeBold = paint.isFakeBoldText();
+        float skewX = paint.getTextSkewX();
+        if (fakeBold || skewX != 0) {
+            paint.setFakeBoldText(false);
+            paint.setTextSkewX(0);
+        }
+        float advance = GlyphAdvanceCache.forPaint(paint).getAsciiMonospaceAdvance(paint);
+        if (fakeBold || skewX != 0) {
+            paint.setFakeBoldText(fakeBold);
+            paint.setTextSkewX(skewX);
+        }
+        return advance;
+    }
+
+    /**
+     * Get the common character advance of this row
+     *
+     * @return the advance, or -1 if the row should be measured by text runs
+     * @see #computeMonospaceAdvance(ContentLine, int, int, List, List, Paint)
+     */
+    private float getMonospaceAdvance() {
+        float advance = monospaceAdvance;
+        if (Float.isNaN(advance)) {
+            advance = computeMonospaceAdvance(text, textStart, textEnd, spans, inlineElements, paint);
+            monospaceAdvance = advance;
+        }
+        return advance;
+    }
+
     /**
      * Get character advances for text breaking, in a single run
      */
@@ -188,6 +251,13 @@ public class TextRow {
             }
             return measureCache.getAdvancesSum(index, index + count);
         }
+        float monoAdvance = getMonospaceAdvance();
+        if (monoAdvance > 0) {
+            if (advances != null) {
+                Arrays.fill(advances, advancesIndex, advancesIndex + count, monoAdvance);
+            }
+            return count * monoAdvance;
+        }
         return paint.myGetTextRunAdvances(text.getBackingCharArray(), index, count, contextIndex, contextCount, isRtl, advances, advancesIndex);
     }
 
@@ -199,6 +269,10 @@ public class TextRow {
         if (measureCache != null) {
             return measureCache.getAdvancesSum(start, offset);
         }
+        float monoAdvance = getMonospaceAdvance();
+        if (monoAdvance > 0) {
+            return (offset - start) * monoAdvance;
+        }
         return GraphicsCompat.getRunAdvance(paint, text.getBackingCharArray(), start, end, contextStart, contextEnd, isRtl, offset);
     }
 
@@ -232,6 +306,11 @@ public class TextRow {
             left = Math.max(start, Math.min(end, left));
             return left;
         }
+        float monoAdvance = getMonospaceAdvance();
+        if (monoAdvance > 0) {
+            // Same rounding as the measure cache
+            return start + (int) Math.max(0, Math.min(end - start, Math.floor(advance / monoAdvance)));
+        }
         return paint.findOffsetByRunAdvance(text, start, end, contextStart, contextEnd, isRtl, advance);
     }
 
@@ -622,7 +701,7 @@ public class TextRow {
      */
     private void commitTextRunAutoTruncated(int paintStart, int paintEnd, int contextStart, int contextEnd, boolean isRtl,
                                             Canvas canvas, float offset, float width, IteratingContext ctx) {
-        if (paintEnd - paintStart < MIN_AUTO_TRUNCATE_LENGTH || measureCache == null) {
+        if (paintEnd - paintStart < MIN_AUTO_TRUNCATE_LENGTH || (measureCache == null && getMonospaceAdvance() <= 0)) {
             if (ctx.drawTextConsumer != null) {
                 commitTextRunToConsumer(paintStart, paintEnd, contextStart, contextEnd, isRtl, canvas, offset, width, ctx);
             } else {
@@ -1109,6 +1188,13 @@ public class TextRow {
      * Get the horizontal offset of cursor at the given index
      */
     public float getCursorOffsetForIndex(int index) {
+        float monoAdvance = measureCache == null ? getMonospaceAdvance() : -1f;
+        if (monoAdvance > 0) {
+            if (index < textStart || index > textEnd) {
+                return 0f;
+            }
+            return measureMonospaceText(textStart, index, monoAdvance);
+        }
         var ctx = new IteratingContext();
         ctx.targetCharOffset = index;
         class CursorOffsetHandler implements RunElementsConsumer {
@@ -1133,6 +1219,10 @@ public class TextRow {
      */
     @NonNull
     public ElementPosition getElementPositionForCursorOffset(float offset) {
+        float monoAdvance = measureCache == null ? getMonospaceAdvance() : -1f;
+        if (monoAdvance > 0) {
+            return getMonospaceElementPosition(offset, monoAdvance);
+        }
         var ctx = new IteratingContext();
         ctx.targetHorizontalOffset = offset;
         ctx.maxOffset = offset;
@@ -1141,6 +1231,49 @@ public class TextRow {
         return new ElementPosition(ctx.resultElement, ctx.isInElementBounds, charOffset);
     }
 
+    /**
+     * Measure text in [start, end) with the given common character advance
+     */
+    private float measureMonospaceText(int start, int end, float monoAdvance) {
+        var chars = text.getBackingCharArray();
+        int tabCount = 0;
+        for (int i = start; i < end; i++) {
+            if (chars[i] == '\t') {
+                tabCount++;
+            }
+        }
+        return (end - start - tabCount) * monoAdvance + tabCount * (params.getTabWidth() * paint.getSpaceWidth());
+    }
+
+    /**
+     * Find the text position by horizontal offset with the given common character advance.
+     * Characters are selected by floor, and tabs are rounded to the nearest side, which is the
+     * same as iterating the row with measure cache.
+     */
+    @NonNull
+    private ElementPosition getMonospaceElementPosition(float offset, float monoAdvance) {
+        if (textStart >= textEnd) {
+            return new ElementPosition(null, false, textStart);
+        }
+        var element = new RowElement();
+        element.type = RowElementTypes.TEXT;
+        element.startColumn = textStart;
+        element.endColumn = textEnd;
+        var chars = text.getBackingCharArray();
+        float tabWidth = params.getTabWidth() * paint.getSpaceWidth();
+        float left = 0f;
+        for (int i = textStart; i < textEnd; i++) {
+            boolean isTab = chars[i] == '\t';
+            float width = isTab ? tabWidth : monoAdvance;
+            if (offset < left + width) {
+                int index = isTab && offset - left > tabWidth / 2f ? i + 1 : i;
+                return new ElementPosition(element, offset >= 0, index);
+            }
+            left += width;
+        }
+        return new ElementPosition(element, offset == left, textEnd);
+    }
+
     /**
      * Iterate over background regions. Visually consequent regions are merged into a single region.
      *
@@ -1184,6 +1317,10 @@ public class TextRow {
      * Compute row width
      */
     public float computeRowWidth() {
+        float monoAdvance = measureCache == null ? getMonospaceAdvance() : -1f;
+        if (monoAdvance > 0) {
+            return measureMonospaceText(textStart, textEnd, monoAdvance);
+        }
         var ctx = new IteratingContext();
         var handler = new MaxOffsetIterationConsumer(ctx);
         iterateRuns(handler, true);
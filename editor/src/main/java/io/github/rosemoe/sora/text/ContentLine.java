@@ -41,6 +41,7 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
     private int length;
 
     private int rtlAffectingCount;
+    private int nonAsciiCount;
     private LineSeparator lineSeparator;
     private AtomicInteger refCount;
 
@@ -57,6 +58,7 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         this(src.length + 16);
         length = src.length;
         rtlAffectingCount = src.rtlAffectingCount;
+        nonAsciiCount = src.nonAsciiCount;
         lineSeparator = src.lineSeparator;
         System.arraycopy(src.value, 0, value, 0, length);
     }
@@ -181,6 +183,9 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
             if (TextBidi.couldAffectRtl(ch)) {
                 rtlAffectingCount++;
             }
+            if (!isPrintableAscii(ch)) {
+                nonAsciiCount++;
+            }
         }
         length += len;
         return this;
@@ -195,6 +200,9 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         if (TextBidi.couldAffectRtl(c)) {
             rtlAffectingCount++;
         }
+        if (!isPrintableAscii(c)) {
+            nonAsciiCount++;
+        }
         value[offset] = c;
         length += 1;
         return this;
@@ -228,6 +236,9 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
                 if (TextBidi.couldAffectRtl(value[i])) {
                     rtlAffectingCount--;
                 }
+                if (!isPrintableAscii(value[i])) {
+                    nonAsciiCount--;
+                }
             }
             System.arraycopy(value, start + len, value, start, length - end);
             length -= len;
@@ -242,6 +253,19 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         return rtlAffectingCount > 0;
     }
 
+    /**
+     * Check if the text only consists of printable ASCII characters and tabs.
+     * Such text has no function characters, surrogate pairs or combining marks, so
+     * every character is a single glyph.
+     */
+    public boolean isAsciiOnly() {
+        return nonAsciiCount == 0;
+    }
+
+    private static boolean isPrintableAscii(char ch) {
+        return (ch >= 0x20 && ch < 0x7f) || ch == '\t';
+    }
+
     /**
      * Append the given text
      *
@@ -294,6 +318,13 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
                 }
             }
         }
+        if (nonAsciiCount > 0) {
+            for (int i = 0; i < res.length; i++) {
+                if (!isPrintableAscii(newValue[i])) {
+                    res.nonAsciiCount++;
+                }
+            }
+        }
         return res;
     }
 
@@ -365,6 +396,7 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         clone.value = new char[value.length];
         System.arraycopy(value, 0, clone.value, 0, length);
         clone.rtlAffectingCount = rtlAffectingCount;
+        clone.nonAsciiCount = nonAsciiCount;
         clone.lineSeparator = lineSeparator;
         return clone;
     }
@@ -0,0 +1,204 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+
+/**
+ * Allocation-free keyword lookup for hand-written tokenizers.
+ * <p>
+ * Keywords are placed into a perfect hash table: a seed is searched when building so that no two
+ * keywords share a slot. A lookup hashes the region once and compares at most one keyword, without
+ * walking nodes per character as {@link TrieTree} does. Both {@link CharSequence} and {@code char[]}
+ * regions are supported.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @param <T> Type of values
+ * @author Rosemoe
+ */
+public final class KeywordMatcher<T> {
+
+    private final char[][] keys;
+    private final Object[] values;
+    private final int seed;
+    private final int mask;
+    private final int minLength;
+    private final int maxLength;
+
+    /**
+     * Create matcher for the given keywords
+     *
+     * @param keywords Keywords, must be distinct and non-empty
+     * @param values   Values for keywords at the same index
+     */
+    public KeywordMatcher(@NonNull String[] keywords, @NonNull T[] values) {
+        if (keywords.length != values.length) {
+            throw new IllegalArgumentException("keywords and values must have the same length");
+        }
+        int min = Integer.MAX_VALUE, max = 0;
+        var distinct = new HashSet<String>();
+        for (var keyword : keywords) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("empty keyword");
+            }
+            if (!distinct.add(keyword)) {
+                throw new IllegalArgumentException("duplicate keyword: " + keyword);
+            }
+            min = Math.min(min, keyword.length());
+            max = Math.max(max, keyword.length());
+        }
+        minLength = keywords.length == 0 ? 1 : min;
+        maxLength = max;
+        int capacity = Integer.highestOneBit(Math.max(1, keywords.length) * 2 - 1) << 1;
+        int foundSeed;
+        while ((foundSeed = findSeed(keywords, capacity - 1)) == -1) {
+            capacity <<= 1;
+        }
+        seed = foundSeed;
+        mask = capacity - 1;
+        keys = new char[capacity][];
+        this.values = new Object[capacity];
+        for (int i = 0; i < keywords.length; i++) {
+            var chars = keywords[i].toCharArray();
+            int slot = hash(chars, 0, chars.length, seed) & mask;
+            keys[slot] = chars;
+            this.values[slot] = values[i];
+        }
+    }
+
+    /**
+     * Find a seed that maps all keywords into distinct slots
+     *
+     * @return the seed, or -1 if no seed is found for this capacity
+     */
+    private static int findSeed(String[] keywords, int mask) {
+        var used = new boolean[mask + 1];
+        var slots = new int[keywords.length];
+        for (int seed = 0; seed < MAX_SEED_ATTEMPTS; seed++) {
+            int count = 0;
+            for (; count < keywords.length; count++) {
+                var chars = keywords[count].toCharArray();
+                int slot = hash(chars, 0, chars.length, seed) & mask;
+                if (used[slot]) {
+                    break;
+                }
+                used[slot] = true;
+                slots[count] = slot;
+            }
+            if (count == keywords.length) {
+                return seed;
+            }
+            for (int i = 0; i < count; i++) {
+                used[slots[i]] = false;
+            }
+        }
+        return -1;
+    }
+
+    private static int mix(int h, int seed, int len) {
+        h ^= len + seed;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static int hash(char[] s, int offset, int len, int seed) {
+        int h = seed * 0x9E3779B9;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            h = (h ^ s[i]) * 0x01000193;
+        }
+        return mix(h, seed, len);
+    }
+
+    private static int hash(CharSequence s, int offset, int len, int seed) {
+        int h = seed * 0x9E3779B9;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        }
+        return mix(h, seed, len);
+    }
+
+    /**
+     * Get value for the given region
+     *
+     * @return the value, or null if the region is not a keyword
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(@NonNull CharSequence s, int offset, int len) {
+        if (len < minLength || len > maxLength) {
+            return null;
+        }
+        int slot = hash(s, offset, len, seed) & mask;
+        var key = keys[slot];
+        if (key == null || key.length != len) {
+            return null;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key[i] != s.charAt(offset + i)) {
+                return null;
+            }
+        }
+        return (T) values[slot];
+    }
+
+    /**
+     * Get value for the given region
+     *
+     * @return the value, or null if the region is not a keyword
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(@NonNull char[] s, int offset, int len) {
+        if (len < minLength || len > maxLength) {
+            return null;
+        }
+        int slot = hash(s, offset, len, seed) & mask;
+        var key = keys[slot];
+        if (key == null || key.length != len) {
+            return null;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key[i] != s[offset + i]) {
+                return null;
+            }
+        }
+        return (T) values[slot];
+    }
+
+    /**
+     * Get the max length of keywords. Longer regions never match.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    private final static int MAX_SEED_ATTEMPTS = 4096;
+
+}
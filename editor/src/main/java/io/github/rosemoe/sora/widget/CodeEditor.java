@@ -968,6 +968,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         styleDelegate.reset();
         this.editorLanguage = lang;
         this.textStyles = null;
+        renderContext.getCache().invalidateAllLines();
 
         if (this.diagnostics != null) {
             this.diagnostics.detachEditor();
@@ -1429,7 +1430,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      */
     public void setHardwareAcceleratedDrawAllowed(boolean acceleratedDraw) {
         hardwareAccAllowed = acceleratedDraw;
-        if (acceleratedDraw && !isWordwrap()) {
+        if (acceleratedDraw) {
             renderContext.invalidateRenderNodes();
         }
     }
@@ -1713,6 +1714,10 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * Create layout for text
      */
     protected void createLayout(boolean clearWordwrapCache) {
+        if (wordwrap) {
+            // Text is shaped by rows, so measure cache is affected by row changes
+            renderContext.getCache().invalidateAllLines();
+        }
         if (layout != null) {
             if (layout instanceof LineBreakLayout && !wordwrap) {
                 ((LineBreakLayout) layout).reuse(text);
@@ -4251,7 +4256,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         if (highlightCurrentBlock) {
             cursorPosition = findCursorBlock();
         }
-        renderContext.invalidateRenderNodes();
+        renderContext.invalidateStyles();
         renderer.updateTimestamp();
         invalidate();
     }
@@ -4305,6 +4310,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         } else {
             createLayout();
         }
+        renderContext.getCache().invalidateLines(range);
         renderContext.invalidateRenderNodes();
     }
 
@@ -4343,6 +4349,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         } else {
             createLayout();
         }
+        renderContext.getCache().invalidateLines(range);
         renderContext.invalidateRenderNodes();
         invalidate();
     }
@@ -5088,7 +5095,8 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         getVerticalEdgeEffect().finish();
         getHorizontalEdgeEffect().finish();
         if (layout == null || (isWordwrap() && w != oldWidth)) {
-            createLayout();
+            // Text style is unchanged, so wordwrap results for other widths can be reused
+            createLayout(false);
         } else {
             touchHandler.scrollBy(getOffsetX() > getScrollMaxX() ? getScrollMaxX() - getOffsetX() : 0, getOffsetY() > getScrollMaxY() ? getScrollMaxY() - getOffsetY() : 0);
         }
@@ -53,7 +53,6 @@ import androidx.collection.MutableLongObjectMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 
 import io.github.rosemoe.sora.R;
 import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
@@ -122,6 +121,11 @@ public class EditorRenderer {
     private final SparseArray<Directions> preloadedDirections = new SparseArray<>();
     private final CodeEditor editor;
     private final List<DiagnosticRegion> collectedDiagnostics = new ArrayList<>();
+    /**
+     * Text rows reused when drawing rows and building measure cache
+     */
+    private final TextRow drawingTextRow = new TextRow();
+    private final TextRow measureTextRow = new TextRow();
     protected List<CodeBlock> lastStuckLines;
     Paint.FontMetricsInt metricsText;
     @Nullable
@@ -378,6 +382,18 @@ public class EditorRenderer {
         }
     }
 
+    @RequiresApi(29)
+    public void updateRowDisplayList(RenderNode renderNode, Row row, Spans.Reader spans) {
+        float widthRow = drawSingleTextRow(null, row.lineIndex, row.startColumn, row.endColumn, row.inlayHints, 0f, 0f, spans, false);
+        renderNode.setPosition(0, 0, (int) (widthRow + 0.5f), editor.getRowHeight());
+        var canvas = renderNode.beginRecording();
+        try {
+            drawSingleTextRow(canvas, row.lineIndex, row.startColumn, row.endColumn, row.inlayHints, 0f, 0f, spans, false);
+        } finally {
+            renderNode.endRecording();
+        }
+    }
+
     @UnsupportedUserUsage
     public TextRow createTextRow(int rowIndex) {
         var styles = editor.getStyles();
@@ -408,18 +424,21 @@ public class EditorRenderer {
     }
 
     protected float drawSingleTextLine(Canvas canvas, int line, float offsetX, float offsetY, Spans.Reader spans, boolean visibleOnly) {
+        var inlayHints = editor.getInlayHints();
+        List<InlayHint> lineInlays = inlayHints == null ? Collections.emptyList() : inlayHints.getForLine(line);
+        return drawSingleTextRow(canvas, line, 0, getColumnCount(line), lineInlays, offsetX, offsetY, spans, visibleOnly);
+    }
+
+    protected float drawSingleTextRow(Canvas canvas, int line, int startColumn, int endColumn, List<InlayHint> inlays, float offsetX, float offsetY, Spans.Reader spans, boolean visibleOnly) {
         prepareLine(line);
-        int columnCount = getColumnCount(line);
         if (spans == null || spans.getSpanCount() <= 0) {
             spans = EmptyReader.getInstance();
         }
         TextRow tr = new TextRow();
-        var inlayHints = editor.getInlayHints();
-        List<InlayHint> lineInlays = inlayHints == null ? Collections.emptyList() : inlayHints.getForLine(line);
         var cache = editor.getRenderContext().getCache().queryMeasureCache(line);
         var widths = cache != null && cache.getUpdateTimestamp() >= displayTimestamp ? cache.getWidths() : null;
         widths = widths != null && widths.getSize() > lineBuf.length() ? widths : null;
-        tr.set(lineBuf, 0, columnCount, spans.getSpansOnLine(line), lineInlays, getLineDirections(line), paintGeneral, widths, createTextRowParams());
+        tr.set(lineBuf, startColumn, endColumn, spans.getSpansOnLine(line), inlays, getLineDirections(line), paintGeneral, widths, createTextRowParams());
         applySelectedTextRange(tr, line);
         if (canvas != null) {
             canvas.save();
@@ -487,6 +506,7 @@ public class EditorRenderer {
         forcedRecreateLayout = false;
 
         prepareLines(editor.getFirstVisibleLine(), editor.getLastVisibleLine());
+        editor.getRenderContext().getCache().updateViewport(editor.getLastVisibleLine() - editor.getFirstVisibleLine() + 1);
         buildMeasureCacheForLines(editor.getFirstVisibleLine(), editor.getLastVisibleLine(), displayTimestamp, true);
         var stuckLines = getStuckCodeBlocks();
 
@@ -1160,12 +1180,14 @@ public class EditorRenderer {
         var composingPosition = editor.inputConnection.composingText.isComposing() && editor.inputConnection.composingText.startIndex >= 0 && editor.inputConnection.composingText.startIndex < content.length() ? content.getIndexer().getCharPosition(editor.inputConnection.composingText.startIndex) : null;
         var composingLength = editor.inputConnection.composingText.endIndex - editor.inputConnection.composingText.startIndex;
         var draggingSelection = editor.getEventHandler().draggingSelection;
+        var textRowParams = createTextRowParams();
         if (editor.shouldInitializeNonPrintable()) {
             float spaceWidth = paintGeneral.getSpaceWidth();
             circleRadius = Math.min(editor.getRowHeight(), spaceWidth) * RenderingConstants.NON_PRINTABLE_CIRCLE_RADIUS_FACTOR;
         }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && !editor.isWordwrap() && canvas.isHardwareAccelerated() && editor.isHardwareAcceleratedDrawAllowed()) {
-            editor.getRenderContext().getRenderNodeHolder().keepCurrentInDisplay(firstVis, editor.getLastVisibleRow());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated() && editor.isHardwareAcceleratedDrawAllowed()) {
+            // Nodes are kept by lines, which are the same as rows in non-wordwrap mode
+            editor.getRenderContext().getRenderNodeHolder().keepCurrentInDisplay(editor.getFirstVisibleLine(), editor.getLastVisibleLine());
         }
         float offset2 = editor.getOffsetX() - editor.measureTextRegionOffset();
 
@@ -1400,12 +1422,12 @@ public class EditorRenderer {
             // Draw text here
             if (!editor.isHardwareAcceleratedDrawAllowed()
                     || editor.getEventHandler().isScaling ||
-                    !canvas.isHardwareAccelerated() || editor.isWordwrap() ||
+                    !canvas.isHardwareAccelerated() ||
                     Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
                     || (rowInf.endColumn - rowInf.startColumn > 128 && !editor.getProps().cacheRenderNodeForLongLines) /* Save memory */) {
                 // Draw without hardware acceleration
-                TextRow tr = new TextRow();
-                tr.set(lineBuf, rowInf.startColumn, rowInf.endColumn, reader.getSpansOnLine(line), rowInf.inlayHints, getLineDirections(line), paintGeneral, lineCache, createTextRowParams());
+                TextRow tr = drawingTextRow;
+                tr.set(lineBuf, rowInf.startColumn, rowInf.endColumn, reader.getSpansOnLine(line), rowInf.inlayHints, getLineDirections(line), paintGeneral, lineCache, textRowParams);
                 applySelectedTextRange(tr, line);
 
                 canvas.save();
@@ -1429,6 +1451,15 @@ public class EditorRenderer {
                 } else if (!rowInf.isTrailingRow && editor.isWordwrap() && (nonPrintableFlags & CodeEditor.FLAG_DRAW_SOFT_WRAP) != 0) {
                     drawMiniGraph(canvas, paintingOffset, row, softwrapRightGraph);
                 }
+            } else if (editor.isWordwrap()) {
+                // Rows are recorded separately, translated as the software path does
+                paintingOffset += editor.getRenderContext().getRenderNodeHolder().drawRowHardwareAccelerated(canvas, rowInf, -offsetCopy, editor.getRowTop(row) - editor.getOffsetY());
+                // Draw hard wrap & soft wrap
+                if (rowInf.isTrailingRow && (nonPrintableFlags & CodeEditor.FLAG_DRAW_LINE_SEPARATOR) != 0) {
+                    drawMiniGraph(canvas, paintingOffset, row, lineBreakGraph);
+                } else if (!rowInf.isTrailingRow && (nonPrintableFlags & CodeEditor.FLAG_DRAW_SOFT_WRAP) != 0) {
+                    drawMiniGraph(canvas, paintingOffset, row, softwrapRightGraph);
+                }
             } else {
                 paintingOffset = offset + editor.getRenderContext().getRenderNodeHolder().drawLineHardwareAccelerated(canvas, line, offset, editor.getRowTop(row) - editor.getOffsetY());
                 // Draw hard wrap
@@ -1442,8 +1473,8 @@ public class EditorRenderer {
 
             // Draw non-printable characters
             if (circleRadius != 0f && (leadingWhitespaceEnd != columnCount || (nonPrintableFlags & CodeEditor.FLAG_DRAW_WHITESPACE_FOR_EMPTY_LINE) != 0)) {
-                TextRow tr = new TextRow();
-                tr.set(lineBuf, rowInf.startColumn, rowInf.endColumn, reader.getSpansOnLine(line), rowInf.inlayHints, getLineDirections(line), paintGeneral, lineCache, createTextRowParams());
+                TextRow tr = drawingTextRow;
+                tr.set(lineBuf, rowInf.startColumn, rowInf.endColumn, reader.getSpansOnLine(line), rowInf.inlayHints, getLineDirections(line), paintGeneral, lineCache, textRowParams);
                 canvas.save();
                 canvas.translate(paintingOffset, editor.getRowTopOfText(row) - editor.getOffsetY());
                 bufferedDrawPoints.setOffsets(paintingOffset, editor.getRowTopOfText(row) - editor.getOffsetY());
@@ -1501,8 +1532,8 @@ public class EditorRenderer {
                 int paintEnd = Math.min(Math.max(composingEnd, rowInf.startColumn), rowInf.endColumn);
 
                 if (paintStart < paintEnd) {
-                    TextRow tr = new TextRow();
-                    tr.set(lineBuf, rowInf.startColumn, rowInf.endColumn, reader.getSpansOnLine(line), rowInf.inlayHints, content.getLineDirections(line), paintGeneral, lineCache, createTextRowParams());
+                    TextRow tr = drawingTextRow;
+                    tr.set(lineBuf, rowInf.startColumn, rowInf.endColumn, reader.getSpansOnLine(line), rowInf.inlayHints, content.getLineDirections(line), paintGeneral, lineCache, textRowParams);
                     tmpRect.top = editor.getRowBottom(row) - editor.getOffsetY();
                     tmpRect.bottom = tmpRect.top + editor.getRowHeight() * 0.06f;
                     var finalOffset = paintingOffset;
@@ -2454,46 +2485,58 @@ public class EditorRenderer {
      */
     protected void buildMeasureCacheForLines(int startLine, int endLine, long timestamp, boolean useCachedContent) {
         var text = content;
-        var context = editor.getRenderContext();
+        var renderCache = editor.getRenderContext().getCache();
+        long configStamp = IntPair.pack(paintGeneral.getAttributeVersion(), editor.getTabWidth());
+        TextRowParams params = null;
         while (startLine <= endLine && startLine < text.getLineCount()) {
-            var line = useCachedContent ? getLine(startLine) : getLineDirect(startLine);
-            var cache = editor.getRenderContext().getCache().getOrCreateMeasureCache(startLine);
+            var cache = renderCache.getOrCreateMeasureCache(startLine);
             if (cache.getUpdateTimestamp() < timestamp) {
-                var forced = false;
-                if (cache.getWidths() == null || cache.getWidths().getSize() < line.length()) {
-                    cache.setWidths(new TextAdvancesCache(Math.max(line.length() + 8, 90)));
-                    forced = true;
+                long lineStamp = renderCache.getLineStamp(startLine);
+                if (cache.getLineStamp() == lineStamp && cache.getConfigStamp() == configStamp) {
+                    // Neither the line nor measuring configuration is changed
+                    cache.setUpdateTimestamp(timestamp);
+                    startLine++;
+                    continue;
                 }
+                cache.setLineStamp(lineStamp);
+                cache.setConfigStamp(configStamp);
+                var line = useCachedContent ? getLine(startLine) : getLineDirect(startLine);
                 var spans = editor.getSpansForLine(startLine);
-                var hash = Objects.hash(spans, line.length(), editor.getTabWidth(),
-                        paintGeneral.getFlags(), paintGeneral.getTextSize(), paintGeneral.getTextScaleX(),
-                        paintGeneral.getLetterSpacing(), paintGeneral.getFontFeatureSettings(), paintGeneral.getTypeface().hashCode());
-                if (context.getCache().getStyleHash(startLine) != hash || forced) {
-                    context.getCache().setStyleHash(startLine, hash);
-                    // Build cache here
-                    var beginRowIndex = editor.layout.getRowIndexForPosition(text.getCharIndex(startLine, 0));
-                    var itr = editor.layout.obtainRowIterator(beginRowIndex);
-                    var tr = new TextRow();
-                    var lineText = text.getLine(startLine);
-                    var directions = text.getLineDirections(startLine);
-                    int requiredSize = lineText.length() + 10;
-                    var widths = cache.getWidths();
-                    if (widths == null || widths.getSize() < requiredSize) {
-                        widths = new TextAdvancesCache(requiredSize);
-                        cache.setWidths(widths);
-                    }
-                    while (itr.hasNext()) {
-                        var row = itr.next();
-                        if (row.lineIndex != startLine) {
-                            break;
-                        }
-                        tr.set(lineText, row.startColumn, row.endColumn, spans, row.inlayHints, directions, paintGeneral, null, createTextRowParams());
-                        tr.buildMeasureCacheStep(widths);
-                    }
-                    tr.setRange(0, lineText.length());
-                    tr.buildMeasureCacheTailor(widths);
+                var inlayHints = editor.getInlayHints();
+                var lineInlays = inlayHints == null ? null : inlayHints.getForLine(startLine);
+                if (TextRow.computeMonospaceAdvance(line, 0, line.length(), spans, lineInlays, paintGeneral) > 0) {
+                    // TextRow measures such lines arithmetically, so no advance cache is required
+                    cache.setWidths(null);
                     cache.setUpdateTimestamp(timestamp);
+                    startLine++;
+                    continue;
+                }
+                // Build cache here
+                if (params == null) {
+                    params = createTextRowParams();
+                }
+                var beginRowIndex = editor.layout.getRowIndexForPosition(text.getCharIndex(startLine, 0));
+                var itr = editor.layout.obtainRowIterator(beginRowIndex);
+                var tr = measureTextRow;
+                var lineText = text.getLine(startLine);
+                var directions = text.getLineDirections(startLine);
+                int requiredSize = lineText.length() + 10;
+                var widths = cache.getWidths();
+                if (widths == null || widths.getSize() < requiredSize) {
+                    widths = new TextAdvancesCache(Math.max(requiredSize, 90));
+                    cache.setWidths(widths);
+                }
+                while (itr.hasNext()) {
+                    var row = itr.next();
+                    if (row.lineIndex != startLine) {
+                        break;
+                    }
+                    tr.set(lineText, row.startColumn, row.endColumn, spans, row.inlayHints, directions, paintGeneral, null, params);
+                    tr.buildMeasureCacheStep(widths);
                 }
+                tr.setRange(0, lineText.length());
+                tr.buildMeasureCacheTailor(widths);
+                cache.setUpdateTimestamp(timestamp);
             }
             startLine++;
         }
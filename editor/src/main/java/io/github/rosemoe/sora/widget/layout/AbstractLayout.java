@@ -28,9 +28,6 @@ import androidx.collection.ObjectFloatMap;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHint;
@@ -48,13 +45,6 @@ public abstract class AbstractLayout implements Layout {
 
     protected static final int SUBTASK_COUNT = 8;
     protected static final int MIN_LINE_COUNT_FOR_SUBTASK = 3000;
-    private static final ThreadPoolExecutor executor;
-
-    static {
-        int maximumPoolSize = Math.max(2, Runtime.getRuntime().availableProcessors()); // available processor count changes during runtime
-        final int corePoolSize = 2;
-        executor = new ThreadPoolExecutor(corePoolSize, maximumPoolSize, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(128));
-    }
 
     protected CodeEditor editor;
     protected Content text;
@@ -90,12 +80,20 @@ public abstract class AbstractLayout implements Layout {
 
     @Override
     public void destroyLayout() {
+        cancelTasks();
         editor = null;
         text = null;
     }
 
     protected void submitTask(@NonNull LayoutTask<?> task) {
-        executor.submit(task);
+        LayoutScheduler.getInstance().submit(this, task.getPriority(), task, task::cancel);
+    }
+
+    /**
+     * Cancel queued tasks of this layout
+     */
+    protected void cancelTasks() {
+        LayoutScheduler.getInstance().cancel(this);
     }
 
     protected static class TaskMonitor {
@@ -132,15 +130,39 @@ public abstract class AbstractLayout implements Layout {
 
     protected abstract class LayoutTask<T> implements Runnable {
         private final TaskMonitor monitor;
+        private final boolean visibleRegion;
 
         protected LayoutTask(@NonNull TaskMonitor monitor) {
+            this(monitor, false);
+        }
+
+        /**
+         * @param visibleRegion Whether the task works on lines in viewport
+         */
+        protected LayoutTask(@NonNull TaskMonitor monitor, boolean visibleRegion) {
             this.monitor = monitor;
+            this.visibleRegion = visibleRegion;
         }
 
         protected boolean shouldRun() {
             return editor != null;
         }
 
+        /**
+         * Get priority of the task in {@link LayoutScheduler}
+         */
+        protected int getPriority() {
+            final var editor = AbstractLayout.this.editor;
+            if (editor != null && editor.hasFocus()) {
+                return visibleRegion ? LayoutScheduler.PRIORITY_FOCUSED_VISIBLE : LayoutScheduler.PRIORITY_FOCUSED;
+            }
+            return visibleRegion ? LayoutScheduler.PRIORITY_VISIBLE : LayoutScheduler.PRIORITY_BACKGROUND;
+        }
+
+        void cancel() {
+            monitor.reportCancelled();
+        }
+
         @Override
         public void run() {
             if (shouldRun()) {
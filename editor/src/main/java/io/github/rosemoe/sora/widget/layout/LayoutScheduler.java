@@ -0,0 +1,258 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.rosemoe.sora.util.Logger;
+
+/**
+ * Scheduler for background layout tasks of all editors.
+ * <p>
+ * Tasks are ordered by priority and then by submission order, so the visible lines of the focused
+ * editor are laid out before the work of other editors. All workers take tasks from the same
+ * queue, so idle cores always pick up the most important pending task. Queued tasks of a layout
+ * are cancelled when it is destroyed.
+ *
+ * @author Rosemoe
+ */
+public final class LayoutScheduler {
+
+    /**
+     * Lines out of viewport, in editors without focus
+     */
+    public final static int PRIORITY_BACKGROUND = 0;
+    /**
+     * Lines in viewport, in editors without focus
+     */
+    public final static int PRIORITY_VISIBLE = 1;
+    /**
+     * Lines out of viewport, in the focused editor
+     */
+    public final static int PRIORITY_FOCUSED = 2;
+    /**
+     * Lines in viewport, in the focused editor
+     */
+    public final static int PRIORITY_FOCUSED_VISIBLE = 3;
+
+    private final static Logger logger = Logger.instance("LayoutScheduler");
+    private static LayoutScheduler INSTANCE;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+    private final LongAdder totalWaitTime = new LongAdder();
+    private final LongAdder totalRunTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLong maxRunTime = new AtomicLong();
+
+    private LayoutScheduler() {
+        // available processor count changes during runtime
+        int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 1, TimeUnit.MINUTES, new PriorityBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "LayoutWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized LayoutScheduler getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new LayoutScheduler();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Submit a task
+     *
+     * @param owner    Owner of the task, for cancellation
+     * @param priority Priority of the task
+     * @param task     The task to run
+     * @param onCancel Invoked if the task is cancelled before it is executed
+     */
+    void submit(@NonNull Object owner, int priority, @NonNull Runnable task, @NonNull Runnable onCancel) {
+        executor.execute(new ScheduledTask(owner, priority, sequence.getAndIncrement(), task, onCancel));
+    }
+
+    /**
+     * Cancel queued tasks of the given owner. Running tasks are not interrupted.
+     */
+    void cancel(@NonNull Object owner) {
+        List<ScheduledTask> removed = new ArrayList<>();
+        executor.getQueue().removeIf(runnable -> {
+            var task = (ScheduledTask) runnable;
+            if (task.owner == owner) {
+                removed.add(task);
+                return true;
+            }
+            return false;
+        });
+        for (var task : removed) {
+            cancelledCount.increment();
+            task.onCancel.run();
+        }
+    }
+
+    /**
+     * Get a snapshot of the statistics of executed tasks
+     */
+    @NonNull
+    public Metrics getMetrics() {
+        return new Metrics(executor.getQueue().size(), completedCount.sum(), cancelledCount.sum(),
+                totalWaitTime.sum(), maxWaitTime.get(), totalRunTime.sum(), maxRunTime.get());
+    }
+
+    /**
+     * Reset statistics of executed tasks
+     */
+    public void resetMetrics() {
+        completedCount.reset();
+        cancelledCount.reset();
+        totalWaitTime.reset();
+        totalRunTime.reset();
+        maxWaitTime.set(0);
+        maxRunTime.set(0);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Statistics of layout tasks. Times are in nanoseconds.
+     */
+    public static final class Metrics {
+
+        /**
+         * Count of tasks waiting in queue
+         */
+        public final int queuedTaskCount;
+        public final long completedTaskCount;
+        /**
+         * Count of tasks cancelled before execution
+         */
+        public final long cancelledTaskCount;
+        /**
+         * Total time that completed tasks spent in queue
+         */
+        public final long totalWaitTime;
+        public final long maxWaitTime;
+        /**
+         * Total time that completed tasks spent in execution
+         */
+        public final long totalRunTime;
+        public final long maxRunTime;
+
+        Metrics(int queuedTaskCount, long completedTaskCount, long cancelledTaskCount, long totalWaitTime,
+                long maxWaitTime, long totalRunTime, long maxRunTime) {
+            this.queuedTaskCount = queuedTaskCount;
+            this.completedTaskCount = completedTaskCount;
+            this.cancelledTaskCount = cancelledTaskCount;
+            this.totalWaitTime = totalWaitTime;
+            this.maxWaitTime = maxWaitTime;
+            this.totalRunTime = totalRunTime;
+            this.maxRunTime = maxRunTime;
+        }
+
+        public long getAverageWaitTime() {
+            return completedTaskCount == 0 ? 0 : totalWaitTime / completedTaskCount;
+        }
+
+        public long getAverageRunTime() {
+            return completedTaskCount == 0 ? 0 : totalRunTime / completedTaskCount;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "queuedTaskCount=" + queuedTaskCount +
+                    ", completedTaskCount=" + completedTaskCount +
+                    ", cancelledTaskCount=" + cancelledTaskCount +
+                    ", averageWaitTime=" + getAverageWaitTime() +
+                    ", maxWaitTime=" + maxWaitTime +
+                    ", averageRunTime=" + getAverageRunTime() +
+                    ", maxRunTime=" + maxRunTime +
+                    '}';
+        }
+    }
+
+    private class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+
+        final Object owner;
+        final int priority;
+        final long sequence;
+        final Runnable task;
+        final Runnable onCancel;
+        final long submitTime;
+
+        ScheduledTask(Object owner, int priority, long sequence, Runnable task, Runnable onCancel) {
+            this.owner = owner;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+            this.onCancel = onCancel;
+            submitTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.w("layout task failed", e);
+            }
+            long endTime = System.nanoTime();
+            completedCount.increment();
+            totalWaitTime.add(startTime - submitTime);
+            totalRunTime.add(endTime - startTime);
+            updateMax(maxWaitTime, startTime - submitTime);
+            updateMax(maxRunTime, endTime - startTime);
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
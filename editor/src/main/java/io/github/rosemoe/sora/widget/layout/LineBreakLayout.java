@@ -28,9 +28,9 @@ import android.util.SparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.rosemoe.sora.graphics.Paint;
@@ -39,7 +39,6 @@ import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
 import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHint;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
-import io.github.rosemoe.sora.util.BlockIntList;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.widget.CodeEditor;
 
@@ -51,72 +50,131 @@ import io.github.rosemoe.sora.widget.CodeEditor;
  */
 public class LineBreakLayout extends AbstractLayout {
 
+    /**
+     * Max count of background tasks for measuring estimated lines
+     */
+    private final static int MAX_MEASURE_TASK_COUNT = 64;
+
     private final AtomicInteger reuseCount = new AtomicInteger(0);
-    private BlockIntList widthMaintainer;
-    private BlockIntList inlineElementsWidths;
+    private LineWidthTable widthTable;
     private SingleCharacterWidths measurer;
+    /**
+     * Modification count for line insertions and deletions, to drop stale background results
+     */
+    private int lineModCount;
+    private boolean measureAgain;
 
     public LineBreakLayout(CodeEditor editor, Content text) {
         super(editor, text);
         measurer = new SingleCharacterWidths(editor.getTabWidth());
         measurer.setHandleFunctionCharacters(editor.isRenderFunctionCharacters());
-        widthMaintainer = new BlockIntList();
-        inlineElementsWidths = new BlockIntList();
-        measureAllLines(widthMaintainer, inlineElementsWidths);
+        measureLines();
     }
 
-    private void measureAllLines(BlockIntList widthMaintainer, BlockIntList inlineElementsWidths) {
+    /**
+     * Measure visible lines immediately, and estimate widths of other lines by their column counts.
+     * Estimated lines are measured in background, nearest lines first.
+     */
+    private void measureLines() {
+        widthTable = new LineWidthTable();
+        measureAgain = false;
         if (text == null) {
             return;
         }
-        var shadowPaint = new Paint(editor.isRenderFunctionCharacters());
-        shadowPaint.set(editor.getTextPaint());
-        shadowPaint.onAttributeUpdate();
+        final var editor = this.editor;
+        var paint = editor.getTextPaint();
+        float charWidth = paint.measureText("a");
+        int lineCount = text.getLineCount();
+        int anchorLine = editor.getLayout() == null ? 0 : Math.max(0, Math.min(lineCount - 1, editor.getFirstVisibleLine()));
+        int visibleLineCount = Math.max(1, editor.getHeight() / Math.max(1, editor.getRowHeight()));
+        int endLine = Math.min(lineCount - 1, anchorLine + visibleLineCount);
+        for (int i = 0; i < lineCount; i++) {
+            if (i >= anchorLine && i <= endLine) {
+                var inlayWidth = measureInlayHints(getInlayHints(i), paint);
+                widthTable.add(measureTextRegion(i, 0, text.getColumnCount(i)) + inlayWidth, inlayWidth, false);
+            } else {
+                widthTable.add((int) (text.getColumnCount(i) * charWidth), 0, true);
+            }
+        }
         var reuseCountLocal = reuseCount.get();
-        var measurerLocal = measurer;
-        final var monitor = new TaskMonitor(1, (results, cancelledCount) -> {
-            final var editor = this.editor;
-            if (editor == null || cancelledCount > 0) {
+        editor.setLayoutBusy(true);
+        editor.postInLifecycle(() -> {
+            if (LineBreakLayout.this.editor != editor || reuseCountLocal != reuseCount.get()) {
+                // This layout could have been abandoned when waiting for Runnable execution
+                // See #307
                 return;
             }
-            editor.postInLifecycle(() -> {
-                if (LineBreakLayout.this.editor != editor || reuseCountLocal != reuseCount.get()) {
-                    // This layout could have been abandoned when waiting for Runnable execution
-                    // See #307
-                    return;
-                }
-                editor.setLayoutBusy(false);
-                editor.getEventHandler().scrollBy(0, 0);
-            });
+            editor.setLayoutBusy(false);
+            editor.getEventHandler().scrollBy(0, 0);
         });
-        var task = new LayoutTask<Void>(monitor) {
-            @Override
-            protected Void compute() {
-                widthMaintainer.lock.lock();
-                try {
-                    text.runReadActionsOnLines(0, text.getLineCount() - 1, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
-                        var width = (int) measurerLocal.measureText(line, 0, line.length(), shadowPaint);
-                        var inlineElementsWidth = measureInlayHints(getInlayHints(index), shadowPaint);
-                        if (shouldRun()) {
-                            widthMaintainer.add(width + inlineElementsWidth);
-                            inlineElementsWidths.add(inlineElementsWidth);
-                        } else {
-                            abortFlag.set = true;
-                        }
-                    });
-                } finally {
-                    widthMaintainer.lock.unlock();
-                }
-                return null;
+        measureEstimatedLines(anchorLine);
+    }
+
+    /**
+     * Submit background tasks to measure estimated lines
+     */
+    private void measureEstimatedLines(int anchorLine) {
+        if (widthTable.getEstimatedCount() == 0) {
+            return;
+        }
+        int lineCount = widthTable.size();
+        int chunkSize = Math.max(MIN_LINE_COUNT_FOR_SUBTASK, lineCount / MAX_MEASURE_TASK_COUNT + 1);
+        var chunks = new ArrayList<Long>();
+        int chunkStart = -1;
+        for (int i = 0; i <= lineCount; i++) {
+            boolean estimated = i < lineCount && widthTable.isEstimated(i);
+            if (estimated && chunkStart == -1) {
+                chunkStart = i;
+            }
+            if (chunkStart != -1 && (!estimated || i - chunkStart == chunkSize)) {
+                chunks.add(IntPair.pack(chunkStart, i - 1));
+                chunkStart = estimated ? i : -1;
             }
+        }
+        // Lines near the viewport first
+        chunks.sort((a, b) -> Integer.compare(distanceToLine(a, anchorLine), distanceToLine(b, anchorLine)));
+        final var editor = this.editor;
+        var reuseCountLocal = reuseCount.get();
+        var monitor = new TaskMonitor(chunks.size(), (results, cancelledCount) -> editor.postInLifecycle(() -> {
+            if (LineBreakLayout.this.editor != editor || reuseCountLocal != reuseCount.get() || !measureAgain) {
+                return;
+            }
+            measureAgain = false;
+            measureEstimatedLines(editor.getFirstVisibleLine());
+        }));
+        for (long chunk : chunks) {
+            submitTask(new MeasureTask(monitor, IntPair.getFirst(chunk), IntPair.getSecond(chunk), reuseCountLocal, lineModCount, distanceToLine(chunk, anchorLine) == 0));
+        }
+    }
+
+    private static int distanceToLine(long range, int line) {
+        int start = IntPair.getFirst(range), end = IntPair.getSecond(range);
+        return line < start ? start - line : (line > end ? line - end : 0);
+    }
 
-            @Override
-            protected boolean shouldRun() {
-                return super.shouldRun() && reuseCount.get() == reuseCountLocal;
+    /**
+     * Replace estimated widths with the measured ones
+     */
+    private void applyMeasuredLines(int startLine, int[] widths, int[] inlayWidths, int reuseCountLocal, int modCount) {
+        if (editor == null || widthTable == null || reuseCountLocal != reuseCount.get()) {
+            return;
+        }
+        if (modCount != lineModCount) {
+            // Lines are shifted, measure them again later
+            measureAgain = true;
+            return;
+        }
+        int oldMax = widthTable.getMax();
+        for (int i = 0; i < widths.length; i++) {
+            int line = startLine + i;
+            // Lines modified in the meantime are already measured
+            if (widthTable.isEstimated(line)) {
+                widthTable.set(line, widths[i], inlayWidths[i], false);
             }
-        };
-        editor.setLayoutBusy(true);
-        submitTask(task);
+        }
+        if (widthTable.getMax() != oldMax) {
+            editor.getEventHandler().scrollBy(0, 0);
+        }
     }
 
     private int measureInlayHints(List<InlayHint> inlayHints, Paint paint) {
@@ -132,19 +190,19 @@ public class LineBreakLayout extends AbstractLayout {
         return (int) width;
     }
 
-    private int measureLineAndUpdateInlineWidths(int lineIndex) {
-        return measureLineAndUpdateInlineWidths(lineIndex, false);
-    }
-
-    private int measureLineAndUpdateInlineWidths(int lineIndex, boolean useAdd) {
-        ContentLine line = text.getLine(lineIndex);
+    /**
+     * Measure the whole line and store its width
+     *
+     * @param insert whether the line is newly inserted
+     */
+    private void updateLineWidth(int lineIndex, boolean insert) {
         var inlayHintsWidth = measureInlayHints(getInlayHints(lineIndex), editor.getTextPaint());
-        if (useAdd) {
-            inlineElementsWidths.add(lineIndex, inlayHintsWidth);
+        var width = measureTextRegion(lineIndex, 0, text.getColumnCount(lineIndex)) + inlayHintsWidth;
+        if (insert) {
+            widthTable.add(lineIndex, width, inlayHintsWidth, false);
         } else {
-            inlineElementsWidths.set(lineIndex, inlayHintsWidth);
+            widthTable.set(lineIndex, width, inlayHintsWidth, false);
         }
-        return (int) measurer.measureText(line, 0, line.length(), editor.getTextPaint()) + inlayHintsWidth;
     }
 
     private int measureTextRegion(int lineIndex, int start, int end) {
@@ -163,7 +221,7 @@ public class LineBreakLayout extends AbstractLayout {
         var itr = range.lineIndexIterator(text.getLineCount() - 1);
         while (itr.hasNext()) {
             var line = itr.nextInt();
-            widthMaintainer.set(line, measureLineAndUpdateInlineWidths(line));
+            updateLineWidth(line, false);
         }
     }
 
@@ -182,36 +240,37 @@ public class LineBreakLayout extends AbstractLayout {
         super.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
         for (int i = startLine; i <= endLine; i++) {
             if (i == startLine) {
-                if (endLine == startLine) {
-                    var oldInlayWidths = inlineElementsWidths.get(i);
+                if (endLine == startLine && !widthTable.isEstimated(i)) {
+                    var oldInlayWidths = widthTable.getInlayWidth(i);
                     var newInlayWidths = measureInlayHints(getInlayHints(i), editor.getTextPaint());
-                    inlineElementsWidths.set(i, newInlayWidths);
-                    widthMaintainer.set(i, widthMaintainer.get(i) + measureTextRegion(i, startColumn, endColumn) + (newInlayWidths - oldInlayWidths));
+                    widthTable.set(i, widthTable.getWidth(i) + measureTextRegion(i, startColumn, endColumn) + (newInlayWidths - oldInlayWidths), newInlayWidths, false);
                 } else {
-                    widthMaintainer.set(i, measureLineAndUpdateInlineWidths(i));
+                    updateLineWidth(i, false);
                 }
             } else {
-                widthMaintainer.add(i, measureLineAndUpdateInlineWidths(i, true));
+                updateLineWidth(i, true);
             }
         }
+        if (endLine > startLine) {
+            lineModCount++;
+        }
     }
 
     @Override
     public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
         super.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
         if (startLine < endLine) {
-            widthMaintainer.removeRange(startLine + 1, endLine + 1);
-            inlineElementsWidths.removeRange(startLine + 1, endLine + 1);
+            widthTable.removeRange(startLine + 1, endLine + 1);
+            lineModCount++;
         }
-        if (startLine == endLine) {
-            var oldInlayWidths = inlineElementsWidths.get(startLine);
+        if (startLine == endLine && !widthTable.isEstimated(startLine)) {
+            var oldInlayWidths = widthTable.getInlayWidth(startLine);
             var newInlayWidths = measureInlayHints(getInlayHints(startLine), editor.getTextPaint());
-            inlineElementsWidths.set(startLine, newInlayWidths);
-            widthMaintainer.set(startLine, widthMaintainer.get(startLine)
+            widthTable.set(startLine, widthTable.getWidth(startLine)
                     - (int) measurer.measureText(deletedContent, 0, endColumn - startColumn, editor.getTextPaint())
-                    + (newInlayWidths - oldInlayWidths));
+                    + (newInlayWidths - oldInlayWidths), newInlayWidths, false);
         } else {
-            widthMaintainer.set(startLine, measureLineAndUpdateInlineWidths(startLine));
+            updateLineWidth(startLine, false);
         }
     }
 
@@ -236,8 +295,7 @@ public class LineBreakLayout extends AbstractLayout {
     @Override
     public void destroyLayout() {
         super.destroyLayout();
-        widthMaintainer = null;
-        inlineElementsWidths = null;
+        widthTable = null;
     }
 
     @Override
@@ -247,7 +305,7 @@ public class LineBreakLayout extends AbstractLayout {
 
     @Override
     public int getLayoutWidth() {
-        return widthMaintainer.size() == 0 ? Integer.MAX_VALUE / 10 : widthMaintainer.getMax();
+        return widthTable.size() == 0 ? Integer.MAX_VALUE / 10 : widthTable.getMax();
     }
 
     @Override
@@ -311,19 +369,60 @@ public class LineBreakLayout extends AbstractLayout {
     public void reuse(Content text) {
         this.text = text;
         reuseCount.getAndIncrement();
+        cancelTasks();
         measurer = new SingleCharacterWidths(editor.getTabWidth());
         measurer.setHandleFunctionCharacters(editor.isRenderFunctionCharacters());
-        try {
-            if (widthMaintainer.lock.tryLock(5, TimeUnit.MILLISECONDS)) {
-                widthMaintainer.lock.unlock();
-                widthMaintainer.clear();
-                inlineElementsWidths.clear();
-                measureAllLines(widthMaintainer, inlineElementsWidths);
-            } else {
-                measureAllLines(widthMaintainer = new BlockIntList(), inlineElementsWidths = new BlockIntList());
+        measureLines();
+    }
+
+    private class MeasureTask extends LayoutTask<Void> {
+
+        private final int start, end, reuseCountLocal, modCount;
+        private final Paint paint;
+        private final SingleCharacterWidths measurerLocal;
+
+        MeasureTask(TaskMonitor monitor, int start, int end, int reuseCountLocal, int modCount, boolean visibleRegion) {
+            super(monitor, visibleRegion);
+            this.start = start;
+            this.end = end;
+            this.reuseCountLocal = reuseCountLocal;
+            this.modCount = modCount;
+            measurerLocal = measurer;
+            // Tasks run concurrently, and Paint objects are not thread-safe
+            paint = new Paint(editor.isRenderFunctionCharacters());
+            paint.set(editor.getTextPaint());
+            paint.onAttributeUpdate();
+        }
+
+        @Override
+        protected Void compute() {
+            var widths = new int[end - start + 1];
+            var inlayWidths = new int[end - start + 1];
+            var completed = new boolean[1];
+            text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
+                var inlayWidth = measureInlayHints(getInlayHints(index), paint);
+                widths[index - start] = (int) measurerLocal.measureText(line, 0, line.length(), paint) + inlayWidth;
+                inlayWidths[index - start] = inlayWidth;
+                if (!shouldRun()) {
+                    abortFlag.set = true;
+                } else if (index == end) {
+                    completed[0] = true;
+                }
+            });
+            final var editor = LineBreakLayout.this.editor;
+            if (editor != null && completed[0]) {
+                editor.postInLifecycle(() -> {
+                    if (LineBreakLayout.this.editor == editor) {
+                        applyMeasuredLines(start, widths, inlayWidths, reuseCountLocal, modCount);
+                    }
+                });
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Unable to wait for lock", e);
+            return null;
+        }
+
+        @Override
+        protected boolean shouldRun() {
+            return super.shouldRun() && reuseCount.get() == reuseCountLocal;
         }
     }
 
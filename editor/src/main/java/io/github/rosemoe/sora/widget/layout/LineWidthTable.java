@@ -0,0 +1,358 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line widths for {@link LineBreakLayout}.
+ * <p>
+ * Lines are stored in blocks. Line counts of blocks are summed in a Fenwick tree, and max widths of
+ * blocks are kept in a segment tree, so both locating a line and updating the max width after
+ * modifications are O(log n) besides the work in a single block. A width can be marked as estimated,
+ * which means the line is not measured yet.
+ *
+ * @author Rosemoe
+ */
+final class LineWidthTable {
+
+    private final static int BLOCK_CAPACITY = 512;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int[] lineTree = new int[1];
+    /**
+     * Max widths of blocks. Leaves start from {@link #treeBase}
+     */
+    private int[] maxTree = new int[2];
+    private int treeBase = 1;
+    private boolean treesValid = true;
+    private int lineCount;
+    private int estimatedCount;
+    private int foundOffset;
+
+    public int size() {
+        return lineCount;
+    }
+
+    /**
+     * Get the count of lines whose widths are estimated
+     */
+    public int getEstimatedCount() {
+        return estimatedCount;
+    }
+
+    public void clear() {
+        blocks.clear();
+        lineCount = estimatedCount = 0;
+        treesValid = false;
+    }
+
+    /**
+     * Append a line
+     */
+    public void add(int width, int inlayWidth, boolean estimated) {
+        var block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (block == null || block.size == BLOCK_CAPACITY) {
+            block = new Block();
+            blocks.add(block);
+        }
+        block.insert(block.size, width, inlayWidth, estimated);
+        lineCount++;
+        if (estimated) {
+            estimatedCount++;
+        }
+        treesValid = false;
+    }
+
+    /**
+     * Insert a line before the given line
+     */
+    public void add(int line, int width, int inlayWidth, boolean estimated) {
+        if (line == lineCount) {
+            add(width, inlayWidth, estimated);
+            return;
+        }
+        int index = findBlock(line);
+        var block = blocks.get(index);
+        if (block.size == BLOCK_CAPACITY) {
+            var next = block.split();
+            blocks.add(index + 1, next);
+            treesValid = false;
+            if (foundOffset > block.size) {
+                foundOffset -= block.size;
+                block = next;
+                index++;
+            }
+        }
+        block.insert(foundOffset, width, inlayWidth, estimated);
+        lineCount++;
+        if (estimated) {
+            estimatedCount++;
+        }
+        updateTrees(index, block, 1);
+    }
+
+    public void set(int line, int width, int inlayWidth, boolean estimated) {
+        int index = findBlock(line);
+        var block = blocks.get(index);
+        if (block.estimated[foundOffset] != estimated) {
+            estimatedCount += estimated ? 1 : -1;
+        }
+        block.set(foundOffset, width, inlayWidth, estimated);
+        updateTrees(index, block, 0);
+    }
+
+    /**
+     * Get the width of the given line, including its inlay hints
+     */
+    public int getWidth(int line) {
+        return blocks.get(findBlock(line)).widths[foundOffset];
+    }
+
+    /**
+     * Get the width of inlay hints on the given line
+     */
+    public int getInlayWidth(int line) {
+        return blocks.get(findBlock(line)).inlayWidths[foundOffset];
+    }
+
+    public boolean isEstimated(int line) {
+        return blocks.get(findBlock(line)).estimated[foundOffset];
+    }
+
+    /**
+     * Remove lines in [from, to)
+     */
+    public void removeRange(int from, int to) {
+        if (from < 0 || to > lineCount || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") out of bounds. line count = " + lineCount);
+        }
+        if (from == to) {
+            return;
+        }
+        int index = findBlock(from);
+        int firstIndex = index;
+        int offset = foundOffset;
+        int count = to - from;
+        while (count > 0) {
+            var block = blocks.get(index);
+            int n = Math.min(count, block.size - offset);
+            estimatedCount -= block.remove(offset, offset + n);
+            lineCount -= n;
+            count -= n;
+            if (block.size == 0) {
+                blocks.remove(index);
+                treesValid = false;
+            } else {
+                updateTrees(index, block, -n);
+                index++;
+            }
+            offset = 0;
+        }
+        mergeBlocks(Math.max(0, firstIndex - 1), Math.min(blocks.size() - 1, firstIndex + 1));
+    }
+
+    /**
+     * Get the max width of all lines
+     */
+    public int getMax() {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        ensureTrees();
+        return maxTree[1];
+    }
+
+    /**
+     * Merge small neighbor blocks in the given range of blocks
+     */
+    private void mergeBlocks(int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            var block = blocks.get(i);
+            var next = blocks.get(i + 1);
+            if (block.size + next.size <= BLOCK_CAPACITY / 2) {
+                block.append(next);
+                blocks.remove(i + 1);
+                treesValid = false;
+            }
+        }
+    }
+
+    private int findBlock(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("line " + line + " out of bounds. line count = " + lineCount);
+        }
+        ensureTrees();
+        int n = blocks.size();
+        int pos = 0;
+        int remaining = line;
+        for (int step = Integer.highestOneBit(Math.max(n, 1)); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= n && lineTree[next] <= remaining) {
+                pos = next;
+                remaining -= lineTree[next];
+            }
+        }
+        foundOffset = remaining;
+        return pos;
+    }
+
+    private void ensureTrees() {
+        if (treesValid) {
+            return;
+        }
+        int n = blocks.size();
+        if (lineTree.length < n + 1) {
+            lineTree = new int[n + 1];
+        }
+        for (int i = 1; i <= n; i++) {
+            lineTree[i] = blocks.get(i - 1).size;
+        }
+        for (int i = 1; i <= n; i++) {
+            int parent = i + (i & -i);
+            if (parent <= n) {
+                lineTree[parent] += lineTree[i];
+            }
+        }
+        int base = 1;
+        while (base < n) {
+            base <<= 1;
+        }
+        if (maxTree.length < base * 2) {
+            maxTree = new int[base * 2];
+        }
+        treeBase = base;
+        for (int i = 0; i < base; i++) {
+            maxTree[base + i] = i < n ? blocks.get(i).max : 0;
+        }
+        for (int i = base - 1; i > 0; i--) {
+            maxTree[i] = Math.max(maxTree[i * 2], maxTree[i * 2 + 1]);
+        }
+        treesValid = true;
+    }
+
+    /**
+     * Update trees after the given block is modified
+     */
+    private void updateTrees(int index, Block block, int lineDelta) {
+        if (!treesValid) {
+            return;
+        }
+        if (lineDelta != 0) {
+            int n = blocks.size();
+            for (int i = index + 1; i <= n; i += i & -i) {
+                lineTree[i] += lineDelta;
+            }
+        }
+        int node = treeBase + index;
+        maxTree[node] = block.max;
+        for (node >>= 1; node > 0; node >>= 1) {
+            maxTree[node] = Math.max(maxTree[node * 2], maxTree[node * 2 + 1]);
+        }
+    }
+
+    private static class Block {
+
+        final int[] widths = new int[BLOCK_CAPACITY];
+        final int[] inlayWidths = new int[BLOCK_CAPACITY];
+        final boolean[] estimated = new boolean[BLOCK_CAPACITY];
+        int size;
+        int max;
+
+        void insert(int offset, int width, int inlayWidth, boolean estimated) {
+            System.arraycopy(widths, offset, widths, offset + 1, size - offset);
+            System.arraycopy(inlayWidths, offset, inlayWidths, offset + 1, size - offset);
+            System.arraycopy(this.estimated, offset, this.estimated, offset + 1, size - offset);
+            widths[offset] = width;
+            inlayWidths[offset] = inlayWidth;
+            this.estimated[offset] = estimated;
+            size++;
+            max = Math.max(max, width);
+        }
+
+        void set(int offset, int width, int inlayWidth, boolean estimated) {
+            int old = widths[offset];
+            widths[offset] = width;
+            inlayWidths[offset] = inlayWidth;
+            this.estimated[offset] = estimated;
+            if (width >= max) {
+                max = width;
+            } else if (old == max) {
+                computeMax();
+            }
+        }
+
+        /**
+         * Remove lines in [start, end)
+         *
+         * @return count of removed estimated lines
+         */
+        int remove(int start, int end) {
+            int estimatedCount = 0;
+            for (int i = start; i < end; i++) {
+                if (estimated[i]) {
+                    estimatedCount++;
+                }
+            }
+            System.arraycopy(widths, end, widths, start, size - end);
+            System.arraycopy(inlayWidths, end, inlayWidths, start, size - end);
+            System.arraycopy(estimated, end, estimated, start, size - end);
+            size -= end - start;
+            computeMax();
+            return estimatedCount;
+        }
+
+        Block split() {
+            var next = new Block();
+            int half = size / 2;
+            next.size = size - half;
+            System.arraycopy(widths, half, next.widths, 0, next.size);
+            System.arraycopy(inlayWidths, half, next.inlayWidths, 0, next.size);
+            System.arraycopy(estimated, half, next.estimated, 0, next.size);
+            size = half;
+            computeMax();
+            next.computeMax();
+            return next;
+        }
+
+        void append(Block block) {
+            System.arraycopy(block.widths, 0, widths, size, block.size);
+            System.arraycopy(block.inlayWidths, 0, inlayWidths, size, block.size);
+            System.arraycopy(block.estimated, 0, estimated, size, block.size);
+            size += block.size;
+            max = Math.max(max, block.max);
+        }
+
+        void computeMax() {
+            int m = 0;
+            for (int i = 0; i < size; i++) {
+                m = Math.max(m, widths[i]);
+            }
+            max = m;
+        }
+
+    }
+
+}
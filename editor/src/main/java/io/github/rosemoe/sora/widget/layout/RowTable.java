@@ -0,0 +1,463 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHint;
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Row index for {@link WordwrapLayout}.
+ * <p>
+ * Rows are grouped by line, and lines are stored in blocks. Line numbers are not stored at all:
+ * the index of a line in the table is its line number, so inserting or deleting lines never
+ * renumbers the rows after it. Line counts and row counts of blocks are summed in Fenwick trees,
+ * so mapping between rows and lines is O(log n).
+ *
+ * @author Rosemoe
+ */
+final class RowTable {
+
+    private final static int BLOCK_CAPACITY = 512;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int[] lineTree = new int[1];
+    private int[] rowTree = new int[1];
+    private boolean treesValid = true;
+    private int lineCount;
+    private int rowCount;
+    private int foundOffset;
+
+    public boolean isEmpty() {
+        return lineCount == 0;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void clear() {
+        blocks.clear();
+        lineCount = rowCount = 0;
+        treesValid = false;
+    }
+
+    /**
+     * Replace all lines with the given rows
+     */
+    public void reset(@NonNull List<LineRows> lines) {
+        clear();
+        Block block = null;
+        for (var rows : lines) {
+            if (block == null || block.size == BLOCK_CAPACITY) {
+                block = new Block();
+                blocks.add(block);
+            }
+            block.lines[block.size++] = rows;
+            block.rowCount += rows.getRowCount();
+        }
+        lineCount = lines.size();
+        for (var b : blocks) {
+            rowCount += b.rowCount;
+        }
+    }
+
+    /**
+     * Get rows of all lines, in line order
+     */
+    @NonNull
+    public List<LineRows> toList() {
+        var list = new ArrayList<LineRows>(lineCount);
+        for (var block : blocks) {
+            for (int i = 0; i < block.size; i++) {
+                list.add(block.lines[i]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get rows of the given line
+     */
+    @NonNull
+    public LineRows getLine(int line) {
+        var block = blocks.get(findBlockForLine(line));
+        return block.lines[foundOffset];
+    }
+
+    /**
+     * Set rows of the given line
+     */
+    public void setLine(int line, @NonNull LineRows rows) {
+        int blockIndex = findBlockForLine(line);
+        var block = blocks.get(blockIndex);
+        int delta = rows.getRowCount() - block.lines[foundOffset].getRowCount();
+        block.lines[foundOffset] = rows;
+        if (delta != 0) {
+            block.rowCount += delta;
+            block.rowStartsValid = false;
+            rowCount += delta;
+            update(rowTree, blocks.size(), blockIndex, delta);
+        }
+    }
+
+    /**
+     * Insert lines with a single empty row before the given line
+     */
+    public void insertLines(int line, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+        int blockIndex;
+        int offset;
+        if (line == lineCount) {
+            blockIndex = blocks.size() - 1;
+            offset = blocks.get(blockIndex).size;
+        } else {
+            blockIndex = findBlockForLine(line);
+            offset = foundOffset;
+        }
+        var block = blocks.get(blockIndex);
+        // Move the lines after the insertion point to a new block
+        var tail = new Block();
+        System.arraycopy(block.lines, offset, tail.lines, 0, block.size - offset);
+        tail.size = block.size - offset;
+        for (int i = offset; i < block.size; i++) {
+            int rows = block.lines[i].getRowCount();
+            tail.rowCount += rows;
+            block.rowCount -= rows;
+            block.lines[i] = null;
+        }
+        block.size = offset;
+        block.rowStartsValid = false;
+        int insertIndex = blockIndex + 1;
+        while (count > 0) {
+            if (block.size == BLOCK_CAPACITY) {
+                block = new Block();
+                blocks.add(insertIndex++, block);
+            }
+            int n = Math.min(count, BLOCK_CAPACITY - block.size);
+            for (int i = 0; i < n; i++) {
+                block.lines[block.size++] = LineRows.EMPTY;
+            }
+            block.rowCount += n;
+            block.rowStartsValid = false;
+            lineCount += n;
+            rowCount += n;
+            count -= n;
+        }
+        if (tail.size > 0) {
+            if (block.size + tail.size <= BLOCK_CAPACITY) {
+                System.arraycopy(tail.lines, 0, block.lines, block.size, tail.size);
+                block.size += tail.size;
+                block.rowCount += tail.rowCount;
+            } else {
+                blocks.add(insertIndex++, tail);
+            }
+        }
+        normalizeBlocks(blockIndex, insertIndex);
+        treesValid = false;
+    }
+
+    /**
+     * Remove the given count of lines from the given line
+     */
+    public void removeLines(int line, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int blockIndex = findBlockForLine(line);
+        int startBlock = blockIndex;
+        int offset = foundOffset;
+        while (count > 0 && blockIndex < blocks.size()) {
+            var block = blocks.get(blockIndex);
+            int n = Math.min(count, block.size - offset);
+            int removedRows = 0;
+            for (int i = offset; i < offset + n; i++) {
+                removedRows += block.lines[i].getRowCount();
+            }
+            System.arraycopy(block.lines, offset + n, block.lines, offset, block.size - offset - n);
+            for (int i = block.size - n; i < block.size; i++) {
+                block.lines[i] = null;
+            }
+            block.size -= n;
+            block.rowCount -= removedRows;
+            block.rowStartsValid = false;
+            lineCount -= n;
+            rowCount -= removedRows;
+            count -= n;
+            blockIndex++;
+            offset = 0;
+        }
+        normalizeBlocks(startBlock, blockIndex);
+        treesValid = false;
+    }
+
+    /**
+     * Remove empty blocks and merge small neighbor blocks in the given range, so that
+     * the table does not degrade to many tiny blocks after edits
+     */
+    private void normalizeBlocks(int from, int to) {
+        from = Math.max(0, from - 1);
+        to = Math.min(blocks.size() - 1, to + 1);
+        for (int i = to; i >= from; i--) {
+            var block = blocks.get(i);
+            if (block.size == 0) {
+                blocks.remove(i);
+                continue;
+            }
+            if (i + 1 < blocks.size()) {
+                var next = blocks.get(i + 1);
+                if (block.size + next.size <= BLOCK_CAPACITY / 2) {
+                    System.arraycopy(next.lines, 0, block.lines, block.size, next.size);
+                    block.size += next.size;
+                    block.rowCount += next.rowCount;
+                    block.rowStartsValid = false;
+                    blocks.remove(i + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the index of the first row of the given line
+     */
+    public int getFirstRowOfLine(int line) {
+        int blockIndex = findBlockForLine(line);
+        var block = blocks.get(blockIndex);
+        return prefix(rowTree, blockIndex) + block.getRowStart(foundOffset);
+    }
+
+    /**
+     * Find the line of the given row
+     *
+     * @return packed value of line index and the index of the row in the line
+     * @see IntPair
+     */
+    public long getLineOfRow(int row) {
+        ensureTrees();
+        int blockIndex = search(rowTree, blocks.size(), row);
+        var block = blocks.get(blockIndex);
+        int rowInBlock = foundOffset;
+        // Binary search for the last line starting at or before the row
+        int left = 0, right = block.size - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (block.getRowStart(mid) <= rowInBlock) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return IntPair.pack(prefix(lineTree, blockIndex) + left, rowInBlock - block.getRowStart(left));
+    }
+
+    private int findBlockForLine(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("line " + line + " out of bounds. line count = " + lineCount);
+        }
+        ensureTrees();
+        return search(lineTree, blocks.size(), line);
+    }
+
+    private void ensureTrees() {
+        if (treesValid) {
+            return;
+        }
+        int n = blocks.size();
+        if (lineTree.length < n + 1) {
+            lineTree = new int[n + 1];
+            rowTree = new int[n + 1];
+        }
+        for (int i = 1; i <= n; i++) {
+            lineTree[i] = blocks.get(i - 1).size;
+            rowTree[i] = blocks.get(i - 1).rowCount;
+        }
+        for (int i = 1; i <= n; i++) {
+            int parent = i + (i & -i);
+            if (parent <= n) {
+                lineTree[parent] += lineTree[i];
+                rowTree[parent] += rowTree[i];
+            }
+        }
+        treesValid = true;
+    }
+
+    private void update(int[] tree, int n, int index, int delta) {
+        if (!treesValid) {
+            return;
+        }
+        for (int i = index + 1; i <= n; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Sum of the first given count of blocks
+     */
+    private int prefix(int[] tree, int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Find the block containing the given target, and store the offset of target in the block in {@link #foundOffset}
+     */
+    private int search(int[] tree, int n, int target) {
+        int pos = 0;
+        int remaining = target;
+        for (int step = Integer.highestOneBit(Math.max(n, 1)); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= n && tree[next] <= remaining) {
+                pos = next;
+                remaining -= tree[next];
+            }
+        }
+        if (pos >= n) {
+            throw new IndexOutOfBoundsException("target " + target + " out of bounds");
+        }
+        foundOffset = remaining;
+        return pos;
+    }
+
+    private static class Block {
+
+        final LineRows[] lines = new LineRows[BLOCK_CAPACITY];
+        final int[] rowStarts = new int[BLOCK_CAPACITY];
+        int size;
+        int rowCount;
+        boolean rowStartsValid;
+
+        int getRowStart(int offset) {
+            if (!rowStartsValid) {
+                int start = 0;
+                for (int i = 0; i < size; i++) {
+                    rowStarts[i] = start;
+                    start += lines[i].getRowCount();
+                }
+                rowStartsValid = true;
+            }
+            return rowStarts[offset];
+        }
+
+    }
+
+    /**
+     * Rows of a single line. Columns and widths of rows are packed into arrays.
+     */
+    static final class LineRows {
+
+        /**
+         * Placeholder for lines not broken yet
+         */
+        final static LineRows EMPTY = new LineRows(new int[]{0, 0}, new float[]{0f}, null, false, true);
+
+        /**
+         * Start and end columns of rows, two elements for each row
+         */
+        private final int[] columns;
+        private final float[] widths;
+        @Nullable
+        private final List<List<InlayHint>> inlayHints;
+        final boolean displayFromRight;
+        /**
+         * Whether the rows are estimated, rather than computed by breaking the text
+         */
+        final boolean estimated;
+
+        LineRows(@NonNull int[] columns, @NonNull float[] widths, @Nullable List<List<InlayHint>> inlayHints, boolean displayFromRight) {
+            this(columns, widths, inlayHints, displayFromRight, false);
+        }
+
+        private LineRows(@NonNull int[] columns, @NonNull float[] widths, @Nullable List<List<InlayHint>> inlayHints, boolean displayFromRight, boolean estimated) {
+            this.columns = columns;
+            this.widths = widths;
+            this.inlayHints = inlayHints;
+            this.displayFromRight = displayFromRight;
+            this.estimated = estimated;
+        }
+
+        /**
+         * Create estimated rows for a line not broken yet. Columns are split evenly into the rows.
+         */
+        @NonNull
+        static LineRows estimate(int columnCount, int rowCount) {
+            rowCount = Math.max(1, Math.min(rowCount, columnCount));
+            var columns = new int[rowCount * 2];
+            int step = (columnCount + rowCount - 1) / rowCount;
+            for (int i = 0; i < rowCount; i++) {
+                columns[i * 2] = Math.min(columnCount, i * step);
+                columns[i * 2 + 1] = i + 1 == rowCount ? columnCount : Math.min(columnCount, (i + 1) * step);
+            }
+            return new LineRows(columns, new float[rowCount], null, false, true);
+        }
+
+        int getRowCount() {
+            return widths.length;
+        }
+
+        int getStartColumn(int row) {
+            return columns[row * 2];
+        }
+
+        int getEndColumn(int row) {
+            return columns[row * 2 + 1];
+        }
+
+        float getRowWidth(int row) {
+            return widths[row];
+        }
+
+        @NonNull
+        List<InlayHint> getInlayHints(int row) {
+            if (inlayHints == null) {
+                return Collections.emptyList();
+            }
+            var hints = inlayHints.get(row);
+            return hints == null ? Collections.emptyList() : hints;
+        }
+
+        float getRenderTranslateX(int row, float layoutWidth) {
+            return displayFromRight && layoutWidth > widths[row] ? layoutWidth - widths[row] : 0f;
+        }
+
+    }
+
+}
@@ -35,6 +35,7 @@ import java.util.NoSuchElementException;
 
 import io.github.rosemoe.sora.graphics.Paint;
 import io.github.rosemoe.sora.graphics.TextRow;
+import io.github.rosemoe.sora.lang.analysis.SequenceUpdateRange;
 import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.SpanFactory;
@@ -64,6 +65,15 @@ public class WordwrapLayout extends AbstractLayout {
 
     private final static List<Span> sSpansForWordwrap = new ArrayList<>();
 
+    /**
+     * Documents with at least this count of lines are broken lazily
+     */
+    private final static int LAZY_BREAK_MIN_LINE_COUNT = 10000;
+    /**
+     * Max count of background tasks for breaking estimated lines
+     */
+    private final static int MAX_REFINE_TASK_COUNT = 64;
+
     static {
         sSpansForWordwrap.add(SpanFactory.obtainNoExt(0, TextStyle.makeStyle(0, 0, true, true, false)));
     }
@@ -72,23 +82,97 @@ public class WordwrapLayout extends AbstractLayout {
     private final float miniGraphWidth;
     private final boolean antiWordBreaking;
     private final boolean supportRtlRow;
-    private List<RowRegion> rowTable;
+    private RowTable rowTable;
+    /**
+     * Width that rows in {@link #rowTable} are computed with, or -1 if the rows are not ready
+     */
+    private int tableWidth = -1;
+    private final WrapWidthCache widthCache;
+    /**
+     * Rows of old layout, reused for lines that still fit in a single row
+     */
+    private final List<RowTable.LineRows> previousLines;
+    private final long previousDocumentVersion;
+    /**
+     * Modification count for line insertions and deletions, to drop stale background results
+     */
+    private int lineModCount;
+    private boolean refineAgain;
 
     public WordwrapLayout(@NonNull CodeEditor editor, @NonNull Content text, boolean antiWordBreaking, boolean supportRtlRow, @Nullable WordwrapLayout oldLayout, boolean clearCache) {
         super(editor, text);
         this.antiWordBreaking = antiWordBreaking;
         this.supportRtlRow = supportRtlRow;
-        rowTable = oldLayout != null ? oldLayout.rowTable : new ArrayList<>();
-        if (clearCache) {
-            rowTable.clear();
+        previousDocumentVersion = text.getDocumentVersion();
+        if (oldLayout != null && oldLayout.rowTable != null && !clearCache) {
+            // Only the width is changed, rows of old layout are still valid for their width
+            widthCache = oldLayout.widthCache;
+            var oldLines = oldLayout.rowTable.toList();
+            if (oldLayout.tableWidth != -1) {
+                widthCache.put(oldLayout.tableWidth, previousDocumentVersion, oldLines);
+            }
+            previousLines = oldLines.size() == text.getLineCount() ? oldLines : null;
+            // Display old rows until new rows are ready
+            rowTable = oldLayout.rowTable;
+        } else {
+            widthCache = new WrapWidthCache();
+            previousLines = null;
+            rowTable = new RowTable();
         }
         miniGraphWidth = (editor.getNonPrintablePaintingFlags() & CodeEditor.FLAG_DRAW_SOFT_WRAP) != 0 ?
                 editor.getRenderer().getMiniGraphWidth() : 0f;
         width = editor.getWidth() - (int) (editor.measureTextRegionOffset() + editor.getTextPaint().measureText("a")) - (int) miniGraphWidth * 2;
-        breakAllLines();
+        var cachedLines = widthCache.get(width, previousDocumentVersion);
+        if (cachedLines != null && cachedLines.size() == text.getLineCount()) {
+            useCachedLines(cachedLines);
+        } else {
+            breakAllLines();
+        }
+    }
+
+    /**
+     * Use rows computed for the same width before
+     */
+    private void useCachedLines(@NonNull List<RowTable.LineRows> lines) {
+        final var editor = this.editor;
+        rowTable = new RowTable();
+        rowTable.reset(lines);
+        tableWidth = width;
+        editor.setLayoutBusy(true);
+        editor.postInLifecycle(() -> {
+            if (WordwrapLayout.this.editor != editor) {
+                return;
+            }
+            editor.setLayoutBusy(false);
+            editor.getEventHandler().scrollBy(0, 0);
+        });
+        // Lines could be estimated when the rows were cached
+        refineEstimatedLines(editor.getLayout() == null ? 0 : Math.min(lines.size() - 1, editor.getFirstVisibleLine()));
+    }
+
+    /**
+     * Get rows of the given line from old layout, if they are also the result of breaking the line
+     * with current width. A line fitting in a single row keeps the same row for any wider width.
+     *
+     * @return the rows, or null if the line must be broken
+     */
+    @Nullable
+    private RowTable.LineRows reusePreviousRows(int line) {
+        if (previousLines == null || text.getDocumentVersion() != previousDocumentVersion) {
+            return null;
+        }
+        var rows = previousLines.get(line);
+        if (!rows.estimated && rows.getRowCount() == 1 && rows.getRowWidth(0) < width) {
+            return rows;
+        }
+        return null;
     }
 
     private void breakAllLines() {
+        if (text.getLineCount() >= LAZY_BREAK_MIN_LINE_COUNT) {
+            breakLinesLazily();
+            return;
+        }
         var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) text.getLineCount() / MIN_LINE_COUNT_FOR_SUBTASK));
         var sizeEachTask = text.getLineCount() / taskCount;
         var monitor = new TaskMonitor(taskCount, (results, cancelledCount) -> {
@@ -105,14 +189,20 @@ public class WordwrapLayout extends AbstractLayout {
                         // See #307
                         return;
                     }
-                    if (rowTable != null) {
-                        rowTable.clear();
-                    } else {
-                        rowTable = new ArrayList<>();
-                    }
+                    var lines = new ArrayList<RowTable.LineRows>();
                     for (WordwrapResult wordwrapResult : r2) {
-                        rowTable.addAll(wordwrapResult.regions);
+                        lines.addAll(wordwrapResult.lines);
+                    }
+                    if (lines.size() != text.getLineCount()) {
+                        // Text is modified while breaking lines
+                        breakAllLines();
+                        return;
+                    }
+                    if (rowTable == null) {
+                        rowTable = new RowTable();
                     }
+                    rowTable.reset(lines);
+                    tableWidth = width;
                     editor.setLayoutBusy(false);
                     editor.getEventHandler().scrollBy(0, 0);
                 });
@@ -126,69 +216,174 @@ public class WordwrapLayout extends AbstractLayout {
         }
     }
 
-    private int findRow(int line) {
-        int index;
-        // Binary find line
-        int left = 0, right = rowTable.size();
-        while (left <= right) {
-            var mid = (left + right) / 2;
-            if (mid < 0 || mid >= rowTable.size()) {
-                left = Math.max(0, Math.min(rowTable.size() - 1, mid));
-                break;
-            }
-            int value = rowTable.get(mid).line;
-            if (value < line) {
-                left = mid + 1;
-            } else if (value > line) {
-                right = mid - 1;
+    /**
+     * Break lines near the viewport immediately, and estimate row counts of other lines from the rows
+     * of old layout or their column counts. Estimated lines are broken in background, nearest lines first.
+     */
+    private void breakLinesLazily() {
+        final var editor = this.editor;
+        int lineCount = text.getLineCount();
+        int anchorLine = editor.getLayout() == null ? 0 : Math.min(lineCount - 1, editor.getFirstVisibleLine());
+        int visibleLineCount = Math.max(1, editor.getHeight() / Math.max(1, editor.getRowHeight()));
+        int startLine = Math.max(0, anchorLine - visibleLineCount);
+        int endLine = Math.min(lineCount - 1, anchorLine + visibleLineCount * 2);
+        boolean reuseOld = previousLines != null && text.getDocumentVersion() == previousDocumentVersion;
+        float charWidth = Math.max(1f, editor.getTextPaint().measureText("a"));
+        var paint = new Paint(editor.isRenderFunctionCharacters());
+        paint.set(editor.getTextPaint());
+        paint.onAttributeUpdate();
+        var lines = new ArrayList<RowTable.LineRows>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            var rows = reusePreviousRows(i);
+            if (rows != null) {
+                lines.add(rows);
+            } else if (i >= startLine && i <= endLine) {
+                lines.add(breakLine(i, text.getLine(i), paint));
             } else {
-                left = mid;
-                break;
+                int columnCount = text.getColumnCount(i);
+                int rowCount = reuseOld ? previousLines.get(i).getRowCount() :
+                        (int) Math.ceil(columnCount * charWidth / Math.max(1, width));
+                lines.add(RowTable.LineRows.estimate(columnCount, rowCount));
             }
         }
-        index = left;
-        while (index > 0 && rowTable.get(index).startColumn > 0) {
-            index--;
+        rowTable = new RowTable();
+        rowTable.reset(lines);
+        tableWidth = width;
+        editor.setLayoutBusy(true);
+        editor.postInLifecycle(() -> {
+            if (WordwrapLayout.this.editor != editor) {
+                return;
+            }
+            editor.setLayoutBusy(false);
+            editor.getEventHandler().scrollBy(0, 0);
+        });
+        refineEstimatedLines(anchorLine);
+    }
+
+    /**
+     * Submit background tasks to break estimated lines
+     */
+    private void refineEstimatedLines(int anchorLine) {
+        int lineCount = rowTable.getLineCount();
+        int chunkSize = Math.max(MIN_LINE_COUNT_FOR_SUBTASK, lineCount / MAX_REFINE_TASK_COUNT + 1);
+        var chunks = new ArrayList<Long>();
+        int chunkStart = -1;
+        for (int i = 0; i <= lineCount; i++) {
+            boolean estimated = i < lineCount && rowTable.getLine(i).estimated;
+            if (estimated && chunkStart == -1) {
+                chunkStart = i;
+            }
+            if (chunkStart != -1 && (!estimated || i - chunkStart == chunkSize)) {
+                chunks.add(IntPair.pack(chunkStart, i - 1));
+                chunkStart = estimated ? i : -1;
+            }
         }
-        return index;
+        if (chunks.isEmpty()) {
+            return;
+        }
+        // Lines near the viewport first
+        chunks.sort((a, b) -> Integer.compare(distanceToLine(a, anchorLine), distanceToLine(b, anchorLine)));
+        final var editor = this.editor;
+        var monitor = new TaskMonitor(chunks.size(), (results, cancelledCount) -> editor.postInLifecycle(() -> {
+            if (WordwrapLayout.this.editor != editor || !refineAgain) {
+                return;
+            }
+            refineAgain = false;
+            refineEstimatedLines(editor.getFirstVisibleLine());
+        }));
+        for (long chunk : chunks) {
+            submitTask(new WordwrapRefineTask(monitor, IntPair.getFirst(chunk), IntPair.getSecond(chunk), lineModCount, distanceToLine(chunk, anchorLine) == 0));
+        }
+    }
+
+    private static int distanceToLine(long range, int line) {
+        int start = IntPair.getFirst(range), end = IntPair.getSecond(range);
+        return line < start ? start - line : (line > end ? line - end : 0);
+    }
+
+    /**
+     * Replace estimated rows with the broken ones, and keep the first visible line at its place
+     */
+    private void applyRefinedLines(int startLine, List<RowTable.LineRows> lines, int modCount) {
+        if (editor == null || rowTable == null) {
+            return;
+        }
+        if (modCount != lineModCount) {
+            // Lines are shifted, break them again later
+            refineAgain = true;
+            return;
+        }
+        int anchorLine = editor.getFirstVisibleLine();
+        int delta = 0;
+        int firstChanged = -1, lastChanged = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            int line = startLine + i;
+            var old = rowTable.getLine(line);
+            if (!old.estimated) {
+                // Broken after modification
+                continue;
+            }
+            var rows = lines.get(i);
+            if (line < anchorLine) {
+                delta += rows.getRowCount() - old.getRowCount();
+            }
+            rowTable.setLine(line, rows);
+            if (firstChanged == -1) {
+                firstChanged = line;
+            }
+            lastChanged = line;
+        }
+        if (firstChanged != -1) {
+            // Measure cache and render nodes of these lines are built for the estimated rows
+            editor.getRenderContext().updateForRange(new SequenceUpdateRange(firstChanged, lastChanged));
+        }
+        if (delta != 0) {
+            editor.getEventHandler().scrollBy(0, delta * editor.getRowHeight());
+        } else {
+            editor.invalidate();
+        }
+    }
+
+    private int findRow(int line) {
+        return rowTable.getFirstRowOfLine(Math.max(0, Math.min(line, rowTable.getLineCount() - 1)));
     }
 
     public int findRow(int line, int column) {
+        line = Math.max(0, Math.min(line, rowTable.getLineCount() - 1));
         int row = findRow(line);
-        while (rowTable.get(row).endColumn <= column && row + 1 < rowTable.size() && rowTable.get(row + 1).line == line) {
-            row++;
+        var rows = rowTable.getLine(line);
+        int index = 0;
+        while (rows.getEndColumn(index) <= column && index + 1 < rows.getRowCount()) {
+            index++;
         }
-        return row;
+        return row + index;
     }
 
-    private void breakLines(int startLine, int endLine) {
-        int insertPosition = 0;
-        while (insertPosition < rowTable.size()) {
-            if (rowTable.get(insertPosition).line < startLine) {
-                insertPosition++;
-            } else {
-                break;
-            }
+    /**
+     * Find the index of row containing the given column in its line
+     */
+    private static int findRowInLine(RowTable.LineRows rows, int column) {
+        int index = 0;
+        while (index + 1 < rows.getRowCount() && rows.getStartColumn(index + 1) <= column) {
+            index++;
         }
-        while (insertPosition < rowTable.size()) {
-            int line = rowTable.get(insertPosition).line;
-            if (line >= startLine && line <= endLine) {
-                rowTable.remove(insertPosition);
-            } else {
-                break;
-            }
+        return index;
+    }
+
+    private void breakLines(int startLine, int endLine) {
+        if (rowTable.isEmpty()) {
+            // Lines are still being broken
+            return;
         }
-        List<RowRegion> newRegions = new ArrayList<>();
         for (int i = startLine; i <= endLine; i++) {
-            newRegions.addAll(breakLine(i, text.getLine(i), null));
+            rowTable.setLine(i, breakLine(i, text.getLine(i), null));
         }
-        rowTable.addAll(insertPosition, newRegions);
     }
 
     /**
      * Break a single line
      */
-    private List<RowRegion> breakLine(int line, ContentLine sequence, Paint paint) {
+    private RowTable.LineRows breakLine(int line, ContentLine sequence, Paint paint) {
         Paint p = paint;
         if (p == null) {
             p = new Paint(editor.isRenderFunctionCharacters());
@@ -210,11 +405,25 @@ public class WordwrapLayout extends AbstractLayout {
         }
 
         var rows = tr.breakText(width, antiWordBreaking);
-        var results = new ArrayList<RowRegion>();
-        for (var row : rows) {
-            results.add(new RowRegion(line, row.startColumn, row.endColumn, row.inlayHints, row.rowWidth, isRtlBased));
+        if (rows.isEmpty()) {
+            return RowTable.LineRows.EMPTY;
+        }
+        var columns = new int[rows.size() * 2];
+        var widths = new float[rows.size()];
+        List<List<InlayHint>> inlayHints = null;
+        for (int i = 0; i < rows.size(); i++) {
+            var row = rows.get(i);
+            columns[i * 2] = row.startColumn;
+            columns[i * 2 + 1] = row.endColumn;
+            widths[i] = row.rowWidth;
+            if (row.inlayHints != null && !row.inlayHints.isEmpty()) {
+                if (inlayHints == null) {
+                    inlayHints = new ArrayList<>(Collections.nCopies(rows.size(), null));
+                }
+                inlayHints.set(i, row.inlayHints);
+            }
         }
-        return results;
+        return new RowTable.LineRows(columns, widths, inlayHints, isRtlBased);
     }
 
     @Override
@@ -225,12 +434,10 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
         super.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
-        // Update line numbers
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            for (int row = findRow(startLine + 1); row < rowTable.size(); row++) {
-                rowTable.get(row).line += delta;
-            }
+        if (!rowTable.isEmpty() && endLine != startLine) {
+            // Following lines are shifted implicitly
+            rowTable.insertLines(startLine + 1, endLine - startLine);
+            lineModCount++;
         }
         // Re-break
         breakLines(startLine, endLine);
@@ -239,22 +446,9 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
         super.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            int startRow = findRow(startLine);
-            while (startRow < rowTable.size()) {
-                int line = rowTable.get(startRow).line;
-                if (line >= startLine && line <= endLine) {
-                    rowTable.remove(startRow);
-                } else {
-                    break;
-                }
-            }
-            for (int row = findRow(endLine + 1); row < rowTable.size(); row++) {
-                var region = rowTable.get(row);
-                if (region.line >= endLine)
-                    region.line -= delta;
-            }
+        if (!rowTable.isEmpty() && endLine != startLine) {
+            rowTable.removeLines(startLine + 1, endLine - startLine);
+            lineModCount++;
         }
         breakLines(startLine, startLine);
     }
@@ -278,10 +472,34 @@ public class WordwrapLayout extends AbstractLayout {
             r.inlayHints = getInlayHints(rowIndex);
             return r;
         }
-        var region = rowTable.get(rowIndex);
-        var isLeadingRow = rowIndex <= 0 || rowTable.get(rowIndex - 1).line != region.line;
-        var isTrailingRow = rowIndex + 1 >= rowTable.size() || rowTable.get(rowIndex + 1).line != region.line;
-        return rowTable.get(rowIndex).toRow(isLeadingRow, isTrailingRow, width);
+        var position = rowTable.getLineOfRow(rowIndex);
+        int line = IntPair.getFirst(position);
+        int index = IntPair.getSecond(position);
+        var rows = rowTable.getLine(line);
+        var row = new Row();
+        fillRow(row, line, rows, index);
+        return row;
+    }
+
+    private void fillRow(Row row, int line, RowTable.LineRows rows, int index) {
+        row.lineIndex = line;
+        row.startColumn = rows.getStartColumn(index);
+        row.endColumn = rows.getEndColumn(index);
+        row.inlayHints = rows.getInlayHints(index);
+        row.isLeadingRow = index == 0;
+        row.isTrailingRow = index + 1 == rows.getRowCount();
+        row.renderTranslateX = rows.getRenderTranslateX(index, width);
+    }
+
+    /**
+     * Get region of the given row
+     */
+    private RowRegion getRegion(int rowIndex) {
+        var position = rowTable.getLineOfRow(rowIndex);
+        int line = IntPair.getFirst(position);
+        int index = IntPair.getSecond(position);
+        var rows = rowTable.getLine(line);
+        return new RowRegion(line, rows.getStartColumn(index), rows.getEndColumn(index), rows.getRowWidth(index), rows.displayFromRight);
     }
 
     @Override
@@ -289,7 +507,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return Math.max(0, Math.min(row, text.getLineCount() - 1));
         }
-        return row >= rowTable.size() ? rowTable.get(rowTable.size() - 1).line : rowTable.get(row).line;
+        return row >= rowTable.getRowCount() ? rowTable.getLineCount() - 1 : IntPair.getFirst(rowTable.getLineOfRow(row));
     }
 
     @NonNull
@@ -312,8 +530,8 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = findRow(line, column);
         if (row > 0) {
-            var offset = column - rowTable.get(row).startColumn;
-            var lastRow = rowTable.get(row - 1);
+            var offset = column - getRegion(row).startColumn;
+            var lastRow = getRegion(row - 1);
             var max = lastRow.endColumn - lastRow.startColumn;
             offset = Math.min(offset, max);
             return IntPair.pack(lastRow.line, lastRow.startColumn + offset);
@@ -336,9 +554,9 @@ public class WordwrapLayout extends AbstractLayout {
             }
         }
         int row = findRow(line, column);
-        if (row + 1 < rowTable.size()) {
-            var offset = column - rowTable.get(row).startColumn;
-            var nextRow = rowTable.get(row + 1);
+        if (row + 1 < rowTable.getRowCount()) {
+            var offset = column - getRegion(row).startColumn;
+            var nextRow = getRegion(row + 1);
             var max = nextRow.endColumn - nextRow.startColumn;
             offset = Math.min(offset, max);
             return IntPair.pack(nextRow.line, nextRow.startColumn + offset);
@@ -357,7 +575,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return editor.getRowHeight() * text.getLineCount();
         }
-        return rowTable.size() * editor.getRowHeight();
+        return rowTable.getRowCount() * editor.getRowHeight();
     }
 
     @Override
@@ -367,28 +585,16 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return line;
         }
-        var column = pos.column;
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            var region = rowTable.get(row);
-            if (region.line != line) {
-                return 0;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
-                    row--;
-                    break;
-                }
-            }
-            return row;
+        if (line >= rowTable.getLineCount()) {
+            return 0;
         }
-        return 0;
+        return findRow(line) + findRowInLine(rowTable.getLine(line), pos.column);
     }
 
     @Override
     public void invalidateLines(StyleUpdateRange range) {
+        // Rows cached for other widths are computed with the old inlay hints and styles
+        widthCache.clear();
         var itr = range.lineIndexIterator(text.getLineCount() - 1);
         while (itr.hasNext()) {
             var line = itr.nextInt();
@@ -407,8 +613,8 @@ public class WordwrapLayout extends AbstractLayout {
             return new VisualLocation(line, pos.textOffset, pos.element, pos.isInElementBounds);
         }
         int row = (int) (offsetY / editor.getRowHeight());
-        row = Math.max(0, Math.min(row, rowTable.size() - 1));
-        RowRegion region = rowTable.get(row);
+        row = Math.max(0, Math.min(row, rowTable.getRowCount() - 1));
+        RowRegion region = getRegion(row);
         if (region.startColumn != 0) {
             offsetX -= miniGraphWidth;
         }
@@ -430,22 +636,11 @@ public class WordwrapLayout extends AbstractLayout {
             dest[1] = tr.getCursorOffsetForIndex(column);
             return dest;
         }
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            RowRegion region = rowTable.get(row);
-            if (region.line != line) {
-                dest[0] = dest[1] = 0;
-                return dest;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
-                    row--;
-                    region = rowTable.get(row);
-                    break;
-                }
-            }
+        if (line < rowTable.getLineCount()) {
+            var rows = rowTable.getLine(line);
+            int index = findRowInLine(rows, column);
+            int row = findRow(line) + index;
+            var region = new RowRegion(line, rows.getStartColumn(index), rows.getEndColumn(index), rows.getRowWidth(index), rows.displayFromRight);
             dest[0] = editor.getRowBottom(row);
             var tr = editor.getRenderer().createTextRow(row);
             dest[1] = tr.getCursorOffsetForIndex(column);
@@ -461,33 +656,26 @@ public class WordwrapLayout extends AbstractLayout {
 
     @Override
     public int getRowCountForLine(int line) {
-        if (rowTable.isEmpty()) {
+        if (rowTable.isEmpty() || line >= rowTable.getLineCount()) {
             return 1;
         }
-        int row = findRow(line);
-        int count = 0;
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            count++;
-            row++;
-        }
-        return count;
+        return rowTable.getLine(line).getRowCount();
     }
 
     /**
      * Get soft breaks on the given line
      */
     public List<Integer> getSoftBreaksForLine(int line) {
-        if (rowTable.isEmpty()) {
+        if (rowTable.isEmpty() || line >= rowTable.getLineCount()) {
             return Collections.emptyList();
         }
-        int row = findRow(line);
+        var rows = rowTable.getLine(line);
         var list = new ArrayList<Integer>();
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            var column = rowTable.get(row).startColumn;
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            var column = rows.getStartColumn(i);
             if (column != 0) {
                 list.add(column);
             }
-            row++;
         }
         return list;
     }
@@ -497,39 +685,28 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return text.getLineCount();
         }
-        return rowTable.size();
+        return rowTable.getRowCount();
     }
 
+    /**
+     * Region of a single row, created on demand from the row table
+     */
     static class RowRegion {
 
+        final int line;
         final int startColumn;
         final int endColumn;
-        List<InlayHint> inlayHints;
-        int line;
-        float rowWidth;
-        boolean displayFromRight;
+        final float rowWidth;
+        final boolean displayFromRight;
 
-        RowRegion(int line, int start, int end, List<InlayHint> inlayHints, float rowWidth, boolean displayFromRight) {
+        RowRegion(int line, int start, int end, float rowWidth, boolean displayFromRight) {
             this.line = line;
             startColumn = start;
             endColumn = end;
-            this.inlayHints = inlayHints;
             this.rowWidth = rowWidth;
             this.displayFromRight = displayFromRight;
         }
 
-        public Row toRow(boolean isLeadingRow, boolean isTrailingRow, float layoutWidth) {
-            var row = new Row();
-            row.isLeadingRow = isLeadingRow;
-            row.isTrailingRow = isTrailingRow;
-            row.startColumn = startColumn;
-            row.endColumn = endColumn;
-            row.lineIndex = line;
-            row.inlayHints = inlayHints == null ? Collections.emptyList() : inlayHints;
-            row.renderTranslateX = getRenderTranslateX(layoutWidth);
-            return row;
-        }
-
         public float getRenderTranslateX(float layoutWidth) {
             return displayFromRight && layoutWidth > rowWidth ? layoutWidth - rowWidth : 0f;
         }
@@ -548,11 +725,11 @@ public class WordwrapLayout extends AbstractLayout {
     private static class WordwrapResult implements Comparable<WordwrapResult> {
 
         int index;
-        List<RowRegion> regions;
+        List<RowTable.LineRows> lines;
 
-        public WordwrapResult(int idx, List<RowRegion> r) {
+        public WordwrapResult(int idx, List<RowTable.LineRows> r) {
             index = idx;
-            regions = r;
+            lines = r;
         }
 
         @Override
@@ -566,6 +743,9 @@ public class WordwrapLayout extends AbstractLayout {
         private final Row result;
         private final int initRow;
         private int currentRow;
+        private int line = -1;
+        private int indexInLine;
+        private RowTable.LineRows rows;
 
         WordwrapLayoutRowItr(int initialRow) {
             initRow = currentRow = initialRow;
@@ -578,26 +758,31 @@ public class WordwrapLayout extends AbstractLayout {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            RowRegion region = rowTable.get(currentRow);
-            result.lineIndex = region.line;
-            result.startColumn = region.startColumn;
-            result.endColumn = region.endColumn;
-            result.inlayHints = region.inlayHints == null ? Collections.emptyList() : region.inlayHints;
-            result.isLeadingRow = currentRow <= 0 || rowTable.get(currentRow - 1).line != region.line;
-            result.isTrailingRow = currentRow + 1 >= rowTable.size() || rowTable.get(currentRow + 1).line != region.line;
-            result.renderTranslateX = region.getRenderTranslateX(width);
+            if (rows == null) {
+                var position = rowTable.getLineOfRow(currentRow);
+                line = IntPair.getFirst(position);
+                indexInLine = IntPair.getSecond(position);
+                rows = rowTable.getLine(line);
+            } else if (indexInLine >= rows.getRowCount()) {
+                line++;
+                indexInLine = 0;
+                rows = rowTable.getLine(line);
+            }
+            fillRow(result, line, rows, indexInLine);
+            indexInLine++;
             currentRow++;
             return result;
         }
 
         @Override
         public boolean hasNext() {
-            return currentRow >= 0 && currentRow < rowTable.size();
+            return currentRow >= 0 && currentRow < rowTable.getRowCount();
         }
 
         @Override
         public void reset() {
             currentRow = initRow;
+            rows = null;
         }
     }
 
@@ -607,7 +792,8 @@ public class WordwrapLayout extends AbstractLayout {
         private final Paint paint;
 
         WordwrapAnalyzeTask(TaskMonitor monitor, int id, int start, int end) {
-            super(monitor);
+            // Nothing can be displayed before all lines are broken
+            super(monitor, true);
             this.start = start;
             this.id = id;
             this.end = end;
@@ -618,9 +804,10 @@ public class WordwrapLayout extends AbstractLayout {
 
         @Override
         protected WordwrapResult compute() {
-            var list = new ArrayList<RowRegion>();
+            var list = new ArrayList<RowTable.LineRows>();
             text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
-                list.addAll(breakLine(index, line, paint));
+                var rows = reusePreviousRows(index);
+                list.add(rows != null ? rows : breakLine(index, line, paint));
                 if (!shouldRun()) {
                     abortFlag.set = true;
                 }
@@ -629,4 +816,40 @@ public class WordwrapLayout extends AbstractLayout {
         }
     }
 
+    private class WordwrapRefineTask extends LayoutTask<Void> {
+
+        private final int start, end, modCount;
+        private final Paint paint;
+
+        WordwrapRefineTask(TaskMonitor monitor, int start, int end, int modCount, boolean visibleRegion) {
+            super(monitor, visibleRegion);
+            this.start = start;
+            this.end = end;
+            this.modCount = modCount;
+            paint = new Paint(editor.isRenderFunctionCharacters());
+            paint.set(editor.getTextPaint());
+            paint.onAttributeUpdate();
+        }
+
+        @Override
+        protected Void compute() {
+            var list = new ArrayList<RowTable.LineRows>(end - start + 1);
+            final var editor = WordwrapLayout.this.editor;
+            text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
+                list.add(breakLine(index, line, paint));
+                if (!shouldRun()) {
+                    abortFlag.set = true;
+                }
+            });
+            if (editor != null && list.size() == end - start + 1) {
+                editor.postInLifecycle(() -> {
+                    if (WordwrapLayout.this.editor == editor) {
+                        applyRefinedLines(start, list, modCount);
+                    }
+                });
+            }
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,99 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows of lines computed for recently used layout widths, so that switching back to a previous
+ * width (rotation, split-screen resize, IME showing and hiding) does not break lines again.
+ * <p>
+ * An entry is only valid for the document version it is computed with. Lines broken again for
+ * changed inlay hints or styles do not change the document version, so the cache is cleared by
+ * {@link WordwrapLayout#invalidateLines} instead. The cache is passed from old
+ * {@link WordwrapLayout} to new one, as long as the text style is unchanged.
+ *
+ * @author Rosemoe
+ */
+final class WrapWidthCache {
+
+    private final static int CAPACITY = 3;
+
+    private final Map<Integer, CachedRows> entries = new LinkedHashMap<>(CAPACITY + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedRows> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /**
+     * Store rows of all lines for the given width
+     */
+    public void put(int width, long documentVersion, @NonNull List<RowTable.LineRows> lines) {
+        entries.put(width, new CachedRows(documentVersion, lines));
+    }
+
+    /**
+     * Get rows of all lines for the given width
+     *
+     * @return the rows, or null if no valid rows are cached for the width
+     */
+    @Nullable
+    public List<RowTable.LineRows> get(int width, long documentVersion) {
+        var entry = entries.get(width);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.documentVersion != documentVersion) {
+            entries.remove(width);
+            return null;
+        }
+        return entry.lines;
+    }
+
+    /**
+     * Remove all cached rows
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private static class CachedRows {
+
+        final long documentVersion;
+        final List<RowTable.LineRows> lines;
+
+        CachedRows(long documentVersion, @NonNull List<RowTable.LineRows> lines) {
+            this.documentVersion = documentVersion;
+            this.lines = lines;
+        }
+
+    }
+
+}
@@ -32,4 +32,25 @@ package io.github.rosemoe.sora.widget.rendering
  * @property updateTimestamp Last updated timestamp of this cache
  * @author Rosemoe
  */
-class MeasureCacheItem(var line: Int, var widths: TextAdvancesCache?, var updateTimestamp: Long)
\ No newline at end of file
+class MeasureCacheItem(var line: Int, var widths: TextAdvancesCache?, var updateTimestamp: Long) {
+
+    /**
+     * Line stamp from [RenderCache.getLineStamp] when the cache is built
+     */
+    var lineStamp = -1L
+
+    /**
+     * Stamp of measuring configuration, such as paint attributes and tab width, when the cache is built
+     */
+    var configStamp = -1L
+
+    /**
+     * Key of this item in [RenderCache], which is the line before pending line shifts
+     */
+    internal var cacheKey = line
+
+    internal var previous: MeasureCacheItem? = null
+
+    internal var next: MeasureCacheItem? = null
+
+}
\ No newline at end of file
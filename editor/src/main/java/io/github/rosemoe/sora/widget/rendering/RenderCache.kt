@@ -21,50 +21,148 @@
  *     Please contact Rosemoe by email 2073412493@qq.com if you need
  *     additional information or have any questions
  ******************************************************************************/
-
 package io.github.rosemoe.sora.widget.rendering
 
 import androidx.collection.MutableIntList
-import java.util.concurrent.locks.ReentrantLock
-import kotlin.concurrent.withLock
+import androidx.collection.MutableIntObjectMap
+import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange
+import io.github.rosemoe.sora.util.IntPair
 
 /**
  * Cache for editor rendering, including line-based data and measure
  * cache for recently accessed lines.
  *
+ * Each line has a version, which is renewed when the text or styles of the line are changed.
+ * Together with a global version for changes affecting all lines, it forms the stamp of line
+ * content for validating measure cache.
+ *
+ * Measure cache items are indexed by line and kept in LRU order, so a query is O(1).
+ * Line shifts caused by text edits are recorded and applied to all items lazily, when
+ * too many shifts are pending or a new item is to be created.
+ *
  * This object is expected to be accessed from UI thread.
  *
  * @author Rosemoe
  */
 class RenderCache {
+
+    companion object {
+        /**
+         * Minimum count of cached lines
+         */
+        const val MIN_CACHE_COUNT = 75
+
+        /**
+         * Count of viewports whose lines are kept in cache, so that scrolling back and
+         * forth does not rebuild the measure cache
+         */
+        private const val CACHED_VIEWPORT_COUNT = 3
+
+        /**
+         * Max cached line count for each megabyte of memory class
+         */
+        private const val CACHE_COUNT_PER_MEMORY_MB = 4
+
+        /**
+         * Max count of pending line shifts
+         */
+        private const val MAX_PENDING_SHIFTS = 32
+    }
+
     private val lines = MutableIntList()
-    private val cache = mutableListOf<MeasureCacheItem>()
-    private var maxCacheCount = 75
+    private var nextLineVersion = 1
+    private var globalVersion = 0
+
+    /**
+     * Items keyed by their lines before pending shifts are applied
+     */
+    private val cache = MutableIntObjectMap<MeasureCacheItem>()
+
+    /**
+     * Pending line shifts. Each shift is stored as start line and changed line count, which
+     * is negative for deletions.
+     */
+    private val shifts = MutableIntList()
+    private var head: MeasureCacheItem? = null
+    private var tail: MeasureCacheItem? = null
+    private var maxCacheCount = MIN_CACHE_COUNT
+
+    /**
+     * Memory class of the application in megabytes, limiting the max cache count.
+     * Non-positive value for no limit.
+     */
+    var memoryClass = 0
+        set(value) {
+            field = value
+            updateViewport(0)
+        }
+
+    private var viewportLineCount = 0
+
+    /**
+     * Adjust cache capacity for current count of visible lines
+     */
+    fun updateViewport(visibleLineCount: Int) {
+        if (visibleLineCount > 0) {
+            viewportLineCount = visibleLineCount
+        }
+        var count = viewportLineCount * CACHED_VIEWPORT_COUNT
+        if (memoryClass > 0) {
+            count = count.coerceAtMost(memoryClass * CACHE_COUNT_PER_MEMORY_MB)
+        }
+        maxCacheCount = count.coerceAtLeast(MIN_CACHE_COUNT)
+        trimToSize()
+    }
 
     fun getOrCreateMeasureCache(line: Int): MeasureCacheItem {
         return queryMeasureCache(line) ?: run {
+            // New item must be keyed by its current line
+            applyShifts()
             MeasureCacheItem(line, null, 0L).also {
-                cache.add(it)
-                while (cache.size > maxCacheCount && cache.isNotEmpty()) {
-                    cache.removeAt(0)
-                }
+                cache[line] = it
+                linkFirst(it)
+                trimToSize()
             }
         }
     }
 
-    fun queryMeasureCache(line: Int) =
-        cache.firstOrNull { it.line == line }.also {
-            if (it != null) {
-                cache.remove(it)
-                cache.add(it)
-            }
+    fun queryMeasureCache(line: Int): MeasureCacheItem? {
+        val key = toKey(line)
+        if (key < 0) {
+            return null
         }
+        val item = cache[key] ?: return null
+        item.line = line
+        if (item !== head) {
+            unlink(item)
+            linkFirst(item)
+        }
+        return item
+    }
 
+    /**
+     * Get the stamp of text and styles of the given line
+     */
+    fun getLineStamp(line: Int) = IntPair.pack(lines[line], globalVersion)
 
-    fun getStyleHash(line: Int) = lines[line]
+    /**
+     * Mark lines in the given range as modified
+     */
+    fun invalidateLines(range: StyleUpdateRange) {
+        val itr = range.lineIndexIterator(lines.size - 1)
+        while (itr.hasNext()) {
+            val line = itr.nextInt()
+            if (line in lines.indices) {
+                lines[line] = nextLineVersion++
+            }
+        }
+    }
 
-    fun setStyleHash(line: Int, hash: Int) {
-        lines[line] = hash
+    /**
+     * Mark all lines as modified, such as when styles or rows of lines are replaced
+     */
+    fun invalidateAllLines() {
+        globalVersion++
     }
 
     fun updateForInsertion(startLine: Int, endLine: Int) {
@@ -74,24 +172,19 @@ class RenderCache {
             } else {
                 lines.addAll(startLine, IntArray(endLine - startLine))
             }
-            cache.forEach {
-                if (it.line > startLine) {
-                    it.line += endLine - startLine
-                }
-            }
+            addShift(startLine, endLine - startLine)
+        }
+        for (line in startLine..endLine) {
+            lines[line] = nextLineVersion++
         }
     }
 
     fun updateForDeletion(startLine: Int, endLine: Int) {
         if (startLine != endLine) {
             lines.removeRange(startLine, endLine)
-            cache.removeAll { it.line in startLine..endLine }
-            cache.forEach {
-                if (it.line > endLine) {
-                    it.line -= endLine - startLine
-                }
-            }
+            addShift(startLine, startLine - endLine)
         }
+        lines[startLine] = nextLineVersion++
     }
 
     fun reset(lineCount: Int) {
@@ -103,7 +196,132 @@ class RenderCache {
             }
         }
         lines.indices.forEach { lines[it] = 0 }
+        globalVersion++
         cache.clear()
+        shifts.clear()
+        head = null
+        tail = null
+    }
+
+    private fun addShift(startLine: Int, delta: Int) {
+        if (cache.isEmpty()) {
+            return
+        }
+        shifts.add(startLine)
+        shifts.add(delta)
+        if (shifts.size > MAX_PENDING_SHIFTS * 2) {
+            applyShifts()
+        }
+    }
+
+    /**
+     * Map current line to the key before pending shifts
+     *
+     * @return the key, or -1 if the line is created or modified by the shifts
+     */
+    private fun toKey(line: Int): Int {
+        var key = line
+        var i = shifts.size - 2
+        while (i >= 0) {
+            val start = shifts[i]
+            val delta = shifts[i + 1]
+            if (delta > 0) {
+                // Lines in (start, start + delta] are inserted
+                if (key > start + delta) {
+                    key -= delta
+                } else if (key > start) {
+                    return -1
+                }
+            } else {
+                // Lines in [start, start - delta] are removed, and the start line is rebuilt
+                if (key > start) {
+                    key -= delta
+                } else if (key == start) {
+                    return -1
+                }
+            }
+            i -= 2
+        }
+        return key
+    }
+
+    /**
+     * Map the line before the given shift to line after it
+     *
+     * @return the new line, or -1 if the line is removed
+     */
+    private fun shiftLine(line: Int, start: Int, delta: Int): Int {
+        if (delta > 0) {
+            return if (line > start) line + delta else line
+        }
+        return if (line > start - delta) {
+            line + delta
+        } else if (line >= start) {
+            -1
+        } else {
+            line
+        }
+    }
+
+    private fun applyShifts() {
+        if (shifts.isEmpty()) {
+            return
+        }
+        cache.clear()
+        var item = head
+        while (item != null) {
+            val next = item.next
+            var line = item.cacheKey
+            var i = 0
+            while (i < shifts.size && line >= 0) {
+                line = shiftLine(line, shifts[i], shifts[i + 1])
+                i += 2
+            }
+            if (line >= 0) {
+                item.line = line
+                item.cacheKey = line
+                cache[line] = item
+            } else {
+                unlink(item)
+            }
+            item = next
+        }
+        shifts.clear()
+    }
+
+    private fun trimToSize() {
+        while (cache.size > maxCacheCount) {
+            val eldest = tail ?: break
+            unlink(eldest)
+            cache.remove(eldest.cacheKey)
+        }
+    }
+
+    private fun linkFirst(item: MeasureCacheItem) {
+        item.previous = null
+        item.next = head
+        head?.previous = item
+        head = item
+        if (tail == null) {
+            tail = item
+        }
+    }
+
+    private fun unlink(item: MeasureCacheItem) {
+        val previous = item.previous
+        val next = item.next
+        if (previous == null) {
+            head = next
+        } else {
+            previous.next = next
+        }
+        if (next == null) {
+            tail = previous
+        } else {
+            next.previous = previous
+        }
+        item.previous = null
+        item.next = null
     }
 
-}
\ No newline at end of file
+}
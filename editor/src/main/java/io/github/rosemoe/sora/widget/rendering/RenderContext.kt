@@ -24,6 +24,8 @@
 
 package io.github.rosemoe.sora.widget.rendering
 
+import android.app.ActivityManager
+import android.content.Context
 import android.os.Build
 import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange
 import io.github.rosemoe.sora.widget.CodeEditor
@@ -35,7 +37,12 @@ import io.github.rosemoe.sora.widget.CodeEditor
  */
 class RenderContext(val editor: CodeEditor) {
 
-    val cache = RenderCache()
+    val cache = RenderCache().also {
+        val activityManager = editor.context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager?
+        if (activityManager != null) {
+            it.memoryClass = activityManager.memoryClass
+        }
+    }
 
     val renderNodeHolder: RenderNodeHolder? = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
         RenderNodeHolder(editor)
@@ -47,11 +54,20 @@ class RenderContext(val editor: CodeEditor) {
         get() = editor.tabWidth
 
     fun updateForRange(range: StyleUpdateRange) {
+        cache.invalidateLines(range)
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             renderNodeHolder?.invalidateInRegion(range)
         }
     }
 
+    /**
+     * Called when the styles of all lines are changed
+     */
+    fun invalidateStyles() {
+        cache.invalidateAllLines()
+        invalidateRenderNodes()
+    }
+
     fun invalidateRenderNodes() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             renderNodeHolder?.invalidate()
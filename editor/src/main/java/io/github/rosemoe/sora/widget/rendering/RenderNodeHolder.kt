@@ -29,7 +29,9 @@ import android.os.Build
 import androidx.annotation.RequiresApi
 import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange
 import io.github.rosemoe.sora.lang.styling.EmptyReader
+import io.github.rosemoe.sora.lang.styling.Spans
 import io.github.rosemoe.sora.widget.CodeEditor
+import io.github.rosemoe.sora.widget.layout.Row
 import java.util.Collections
 import java.util.Stack
 
@@ -37,6 +39,10 @@ import java.util.Stack
  * Hardware accelerated text render, which manages [RenderNode]
  * to speed up rendering.
  *
+ * Nodes are recorded for whole lines in non-wordwrap mode, and for single rows
+ * in wordwrap mode. In both cases, a node is identified by its line and column
+ * range, so edits and style updates of a line affect all of its nodes.
+ *
  * @author Rosemoe
  */
 @RequiresApi(Build.VERSION_CODES.Q)
@@ -45,7 +51,7 @@ class RenderNodeHolder(private val editor: CodeEditor) {
     private val pool = Stack<TextRenderNode>()
 
     fun shouldUpdateCache(): Boolean {
-        return !editor.isWordwrap && editor.isHardwareAcceleratedDrawAllowed
+        return editor.isHardwareAcceleratedDrawAllowed
     }
 
     fun invalidateInRegion(range: StyleUpdateRange): Boolean {
@@ -66,23 +72,37 @@ class RenderNodeHolder(private val editor: CodeEditor) {
     /**
      * Called by editor when text style changes.
      * Such as text size/typeface.
-     * Also called when wordwrap state changes from true to false
+     * Also called when wordwrap state changes from true to false.
+     * Row nodes need no invalidation on relayout, as their column ranges are checked when drawing
      */
     fun invalidate() {
         cache.forEach { it.isDirty = true }
     }
 
     fun getNode(line: Int): TextRenderNode {
+        return getNode(line, 0, editor.text.getColumnCount(line))
+    }
+
+    /**
+     * Get node for the given text region in line. Node is marked dirty if its end column changes.
+     */
+    fun getNode(line: Int, startColumn: Int, endColumn: Int): TextRenderNode {
         val size = cache.size
         for (i in 0 until size) {
             val node = cache[i]
-            if (node!!.line == line) {
+            if (node!!.line == line && node.startColumn == startColumn) {
                 Collections.swap(cache, 0, i)
+                if (node.endColumn != endColumn) {
+                    node.endColumn = endColumn
+                    node.isDirty = true
+                }
                 return node
             }
         }
         val node = if (pool.isEmpty()) TextRenderNode(line) else pool.pop()
         node.line = line
+        node.startColumn = startColumn
+        node.endColumn = endColumn
         node.isDirty = true
         cache.add(0, node)
         return node
@@ -95,6 +115,7 @@ class RenderNodeHolder(private val editor: CodeEditor) {
             if (node.line < start || node.line > end) {
                 itr.remove()
                 node.renderNode.discardDisplayList()
+                pool.push(node)
             }
         }
     }
@@ -108,25 +129,55 @@ class RenderNodeHolder(private val editor: CodeEditor) {
         if (!canvas.isHardwareAccelerated) {
             throw UnsupportedOperationException("Only hardware-accelerated canvas can be used")
         }
-        val styles = editor.styles
         // It's safe to use row directly because the mode is non-wordwrap
         val node = getNode(line)
         if (node.needsRecord()) {
-            val spans = styles?.spans
-            var reader = if (spans == null) EmptyReader.getInstance() else spans.read()
-            try {
-                reader.moveToLine(line)
-            } catch (e: Exception) {
-                reader = EmptyReader.getInstance()
+            recordNode(node) { reader ->
+                editor.renderer.updateLineDisplayList(node.renderNode, line, reader)
             }
-            editor.renderer.updateLineDisplayList(node.renderNode, line, reader)
-            try {
-                reader.moveToLine(-1)
-            } catch (e: Exception) {
-                e.printStackTrace()
+        }
+        return drawNode(canvas, node, offsetX, offsetY)
+    }
+
+    /**
+     * Draw the given row in wordwrap mode
+     */
+    fun drawRowHardwareAccelerated(
+        canvas: Canvas,
+        row: Row,
+        offsetX: Float,
+        offsetY: Float
+    ): Int {
+        if (!canvas.isHardwareAccelerated) {
+            throw UnsupportedOperationException("Only hardware-accelerated canvas can be used")
+        }
+        val node = getNode(row.lineIndex, row.startColumn, row.endColumn)
+        if (node.needsRecord()) {
+            recordNode(node) { reader ->
+                editor.renderer.updateRowDisplayList(node.renderNode, row, reader)
             }
-            node.isDirty = false
         }
+        return drawNode(canvas, node, offsetX, offsetY)
+    }
+
+    private inline fun recordNode(node: TextRenderNode, record: (Spans.Reader) -> Unit) {
+        val spans = editor.styles?.spans
+        var reader = if (spans == null) EmptyReader.getInstance() else spans.read()
+        try {
+            reader.moveToLine(node.line)
+        } catch (e: Exception) {
+            reader = EmptyReader.getInstance()
+        }
+        record(reader)
+        try {
+            reader.moveToLine(-1)
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        node.isDirty = false
+    }
+
+    private fun drawNode(canvas: Canvas, node: TextRenderNode, offsetX: Float, offsetY: Float): Int {
         canvas.save()
         canvas.translate(offsetX, offsetY)
         canvas.drawRenderNode(node.renderNode)
@@ -167,6 +218,16 @@ class RenderNodeHolder(private val editor: CodeEditor) {
          */
         var line: Int
     ) {
+        /**
+         * Start column of the recorded text region
+         */
+        var startColumn: Int = 0
+
+        /**
+         * End column of the recorded text region
+         */
+        var endColumn: Int = 0
+
         var renderNode: RenderNode = RenderNode("editorRenderNode")
         var isDirty: Boolean = true
 
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class ContentLineTest {
+
+    companion object {
+        const val CHARSET = "abc \t{}();é中\u0001"
+    }
+
+    private fun isAsciiOnly(text: CharSequence) = text.all { it == '\t' || it in ' '..'~' }
+
+    @Test
+    fun `test ascii flag on edits`() {
+        val random = Random(2024)
+        val line = ContentLine()
+        val model = StringBuilder()
+        repeat(5000) {
+            if (model.isEmpty() || random.nextInt(3) != 0) {
+                val offset = random.nextInt(model.length + 1)
+                val text = buildString {
+                    repeat(random.nextInt(1, 5)) {
+                        append(CHARSET[random.nextInt(CHARSET.length)])
+                    }
+                }
+                if (text.length == 1) {
+                    line.insert(offset, text[0])
+                } else {
+                    line.insert(offset, text)
+                }
+                model.insert(offset, text)
+            } else {
+                val start = random.nextInt(model.length)
+                val end = random.nextInt(start, model.length + 1)
+                line.delete(start, end)
+                model.delete(start, end)
+            }
+            assertThat(line.isAsciiOnly).isEqualTo(isAsciiOnly(model))
+        }
+    }
+
+    @Test
+    fun `test ascii flag on copies`() {
+        val line = ContentLine("int a = 0;\té")
+        assertThat(line.isAsciiOnly).isFalse()
+        assertThat(line.subSequence(0, 11).isAsciiOnly).isTrue()
+        assertThat(line.subSequence(5, 12).isAsciiOnly).isFalse()
+        assertThat(line.copy().isAsciiOnly).isFalse()
+        assertThat(ContentLine(line).isAsciiOnly).isFalse()
+        line.delete(11, 12)
+        assertThat(line.isAsciiOnly).isTrue()
+        assertThat(line.copy().isAsciiOnly).isTrue()
+    }
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.util
+
+import io.github.rosemoe.sora.util.KeywordMatcherTest.Companion.collectIdentifiers
+import io.github.rosemoe.sora.util.KeywordMatcherTest.Companion.keywords
+import io.github.rosemoe.sora.util.KeywordMatcherTest.Companion.values
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+/**
+ * Compare lookup time of [KeywordMatcher] and [TrieTree] for the identifiers in the Java sources of
+ * this module. Results are only reported, and [KeywordMatcherTest] checks that both find the same
+ * keywords.
+ *
+ * Run with `SORA_BENCHMARK=true ./gradlew :editor:testDebugUnitTest --tests '*KeywordMatcherBenchmark*'`.
+ * The benchmark is skipped unless `SORA_BENCHMARK` is `true`.
+ */
+class KeywordMatcherBenchmark {
+
+    companion object {
+        private const val ROUNDS = 50
+    }
+
+    /**
+     * Look up all identifier regions for [ROUNDS] times after warming up
+     *
+     * @return time in nanoseconds and count of found keywords
+     */
+    private inline fun measure(regions: IntArray, lookup: (Int, Int) -> Int?): Pair<Long, Int> {
+        var found = 0
+        repeat(ROUNDS / 10) {
+            for (i in regions.indices step 2) {
+                if (lookup(regions[i], regions[i + 1]) != null) found++
+            }
+        }
+        found = 0
+        val start = System.nanoTime()
+        repeat(ROUNDS) {
+            for (i in regions.indices step 2) {
+                if (lookup(regions[i], regions[i + 1]) != null) found++
+            }
+        }
+        return (System.nanoTime() - start) to found
+    }
+
+    @Test
+    fun `compare lookup time with TrieTree`() {
+        assumeTrue("benchmarks are not enabled", System.getenv("SORA_BENCHMARK") == "true")
+        val (text, regions) = collectIdentifiers()
+        val matcher = KeywordMatcher(keywords, values)
+        val tree = TrieTree<Int>()
+        keywords.forEachIndexed { index, keyword -> tree.put(keyword, index) }
+
+        val (treeTime, treeFound) = measure(regions) { offset, len -> tree.get(text, offset, len) }
+        val (matcherTime, matcherFound) = measure(regions) { offset, len -> matcher.get(text, offset, len) }
+        // Found counts are printed so that the lookups are not optimized away
+        println(
+            "${regions.size / 2} identifiers, TrieTree: ${treeTime / 1000000} ms ($treeFound found), " +
+                    "KeywordMatcher: ${matcherTime / 1000000} ms ($matcherFound found)"
+        )
+    }
+
+}
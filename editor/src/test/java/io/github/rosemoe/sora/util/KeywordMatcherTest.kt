@@ -0,0 +1,108 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.util
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.io.File
+
+class KeywordMatcherTest {
+
+    @Test
+    fun `test keyword lookup`() {
+        val matcher = KeywordMatcher(keywords, values)
+        keywords.forEachIndexed { index, keyword ->
+            assertThat(matcher.get(keyword, 0, keyword.length)).isEqualTo(index)
+            val chars = "($keyword)".toCharArray()
+            assertThat(matcher.get(chars, 1, keyword.length)).isEqualTo(index)
+        }
+        for (word in arrayOf("", "i", "Int", "ints", "whilee", "nul", "synchronize", "abstracts")) {
+            assertThat(matcher.get(word, 0, word.length)).isNull()
+        }
+    }
+
+    @Test
+    fun `test duplicate keywords rejected`() {
+        val result = runCatching { KeywordMatcher(arrayOf("if", "if"), arrayOf(1, 2)) }
+        assertThat(result.exceptionOrNull()).isInstanceOf(IllegalArgumentException::class.java)
+    }
+
+    @Test
+    fun `compare with TrieTree on java sources`() {
+        val (text, regions) = collectIdentifiers()
+        val matcher = KeywordMatcher(keywords, values)
+        val tree = TrieTree<Int>()
+        keywords.forEachIndexed { index, keyword -> tree.put(keyword, index) }
+
+        assertThat(regions).isNotEmpty()
+        for (i in regions.indices step 2) {
+            assertThat(matcher.get(text, regions[i], regions[i + 1]))
+                .isEqualTo(tree.get(text, regions[i], regions[i + 1]))
+        }
+    }
+
+    companion object {
+
+        val keywords = arrayOf(
+            "abstract", "assert", "boolean", "byte", "char", "class", "do",
+            "double", "final", "float", "for", "if", "int", "long", "new",
+            "public", "private", "protected", "package", "return", "static",
+            "short", "super", "switch", "else", "volatile", "synchronized", "strictfp",
+            "goto", "continue", "break", "transient", "void", "try", "catch",
+            "finally", "while", "case", "default", "const", "enum", "extends",
+            "implements", "import", "instanceof", "interface", "native",
+            "this", "throw", "throws", "true", "false", "null", "var", "sealed", "permits"
+        )
+
+        val values = Array(keywords.size) { it }
+
+        /**
+         * Identifier regions (offset, length) of the Java sources in this module
+         */
+        fun collectIdentifiers(): Pair<String, IntArray> {
+            val text = File("src/main/java").walk()
+                .filter { it.isFile && it.extension == "java" }
+                .sortedBy { it.path }
+                .joinToString("\n") { it.readText() }
+            val regions = ArrayList<Int>()
+            var i = 0
+            while (i < text.length) {
+                if (Character.isJavaIdentifierStart(text[i])) {
+                    val start = i
+                    while (i < text.length && Character.isJavaIdentifierPart(text[i])) {
+                        i++
+                    }
+                    regions.add(start)
+                    regions.add(i - start)
+                } else {
+                    i++
+                }
+            }
+            return text to regions.toIntArray()
+        }
+
+    }
+
+}
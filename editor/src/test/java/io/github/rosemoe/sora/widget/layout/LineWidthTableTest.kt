@@ -0,0 +1,80 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.widget.layout
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class LineWidthTableTest {
+
+    private fun check(table: LineWidthTable, widths: List<Int>, estimated: List<Boolean>, random: Random) {
+        assertThat(table.size()).isEqualTo(widths.size)
+        assertThat(table.max).isEqualTo(widths.maxOrNull() ?: 0)
+        assertThat(table.estimatedCount).isEqualTo(estimated.count { it })
+        repeat(minOf(20, widths.size)) {
+            val line = random.nextInt(widths.size)
+            assertThat(table.getWidth(line)).isEqualTo(widths[line])
+            assertThat(table.isEstimated(line)).isEqualTo(estimated[line])
+        }
+    }
+
+    @Test
+    fun `test line width table random modification`() {
+        repeat(30) { seed ->
+            val random = Random(seed)
+            val table = LineWidthTable()
+            val widths = MutableList(random.nextInt(3000) + 1) { random.nextInt(10000) }
+            val estimated = MutableList(widths.size) { random.nextBoolean() }
+            for (i in widths.indices) {
+                table.add(widths[i], 0, estimated[i])
+            }
+            repeat(2000) {
+                val cmd = random.nextInt(10)
+                if (cmd < 3) {
+                    val line = random.nextInt(widths.size + 1)
+                    val width = random.nextInt(20000)
+                    val isEstimated = random.nextBoolean()
+                    table.add(line, width, 0, isEstimated)
+                    widths.add(line, width)
+                    estimated.add(line, isEstimated)
+                } else if (cmd < 5 && widths.size > 1) {
+                    val from = random.nextInt(widths.size)
+                    val to = minOf(widths.size, from + random.nextInt(if (random.nextBoolean()) 3 else 1200))
+                    table.removeRange(from, to)
+                    widths.subList(from, to).clear()
+                    estimated.subList(from, to).clear()
+                } else if (widths.isNotEmpty()) {
+                    val line = random.nextInt(widths.size)
+                    val width = random.nextInt(20000)
+                    table.set(line, width, 0, false)
+                    widths[line] = width
+                    estimated[line] = false
+                }
+                check(table, widths, estimated, random)
+            }
+        }
+    }
+
+}
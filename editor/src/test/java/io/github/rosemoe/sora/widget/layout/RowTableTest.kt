@@ -0,0 +1,86 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget.layout
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.util.IntPair
+import org.junit.Test
+import kotlin.random.Random
+
+class RowTableTest {
+
+    private fun lineRows(count: Int) = RowTable.LineRows(
+        IntArray(count * 2) { (it / 2) * 10 + (it % 2) * 10 },
+        FloatArray(count),
+        null,
+        false
+    )
+
+    private fun check(table: RowTable, std: List<Int>, random: Random) {
+        assertThat(table.lineCount).isEqualTo(std.size)
+        assertThat(table.rowCount).isEqualTo(std.sum())
+        repeat(20) {
+            val line = random.nextInt(std.size)
+            val firstRow = std.subList(0, line).sum()
+            assertThat(table.getFirstRowOfLine(line)).isEqualTo(firstRow)
+            assertThat(table.getLine(line).rowCount).isEqualTo(std[line])
+            val offset = random.nextInt(std[line])
+            val position = table.getLineOfRow(firstRow + offset)
+            assertThat(IntPair.getFirst(position)).isEqualTo(line)
+            assertThat(IntPair.getSecond(position)).isEqualTo(offset)
+        }
+    }
+
+    @Test
+    fun `test row table random modification`() {
+        repeat(30) { seed ->
+            val random = Random(seed)
+            val table = RowTable()
+            val std = MutableList(random.nextInt(3000) + 1) { random.nextInt(4) + 1 }
+            table.reset(std.map { lineRows(it) })
+            repeat(2000) {
+                val cmd = random.nextInt(10)
+                if (cmd < 3) {
+                    val line = random.nextInt(std.size + 1)
+                    val count = random.nextInt(if (random.nextBoolean()) 3 else 1200)
+                    table.insertLines(line, count)
+                    repeat(count) { std.add(line, 1) }
+                } else if (cmd < 6 && std.size > 1) {
+                    val line = random.nextInt(std.size)
+                    val count = minOf(std.size - line, random.nextInt(if (random.nextBoolean()) 3 else 1200), std.size - 1)
+                    table.removeLines(line, count)
+                    repeat(count) { std.removeAt(line) }
+                } else {
+                    val line = random.nextInt(std.size)
+                    val rows = random.nextInt(5) + 1
+                    table.setLine(line, lineRows(rows))
+                    std[line] = rows
+                }
+                check(table, std, random)
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.widget.rendering
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.analysis.SequenceUpdateRange
+import org.junit.Test
+import kotlin.random.Random
+
+class RenderCacheTest {
+
+    /**
+     * Plain LRU list with eager line shifting
+     */
+    private class ModelCache(val capacity: Int) {
+        val items = mutableListOf<MeasureCacheItem>()
+
+        fun query(line: Int) = items.firstOrNull { it.line == line }?.also {
+            items.remove(it)
+            items.add(it)
+        }
+
+        fun insert(startLine: Int, endLine: Int) {
+            items.forEach {
+                if (it.line > startLine) {
+                    it.line += endLine - startLine
+                }
+            }
+        }
+
+        fun delete(startLine: Int, endLine: Int) {
+            if (startLine == endLine) {
+                return
+            }
+            items.removeAll { it.line in startLine..endLine }
+            items.forEach {
+                if (it.line > endLine) {
+                    it.line -= endLine - startLine
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `test measure cache random modification`() {
+        repeat(30) { seed ->
+            val random = Random(seed)
+            var lineCount = 500
+            val cache = RenderCache()
+            cache.reset(lineCount)
+            val model = ModelCache(RenderCache.MIN_CACHE_COUNT)
+            var timestamp = 1L
+            repeat(5000) {
+                val cmd = random.nextInt(10)
+                if (cmd < 6) {
+                    val line = random.nextInt(lineCount)
+                    val item = cache.getOrCreateMeasureCache(line)
+                    val expected = model.query(line)
+                    if (expected == null) {
+                        assertThat(item.updateTimestamp).isEqualTo(0L)
+                        item.updateTimestamp = timestamp++
+                        model.items.add(MeasureCacheItem(line, null, item.updateTimestamp))
+                        if (model.items.size > model.capacity) {
+                            model.items.removeAt(0)
+                        }
+                    } else {
+                        assertThat(item.updateTimestamp).isEqualTo(expected.updateTimestamp)
+                    }
+                    assertThat(item.line).isEqualTo(line)
+                } else if (cmd < 8) {
+                    val startLine = random.nextInt(lineCount)
+                    val endLine = startLine + random.nextInt(4)
+                    cache.updateForInsertion(startLine, endLine)
+                    model.insert(startLine, endLine)
+                    lineCount += endLine - startLine
+                } else if (lineCount > 10) {
+                    val startLine = random.nextInt(lineCount - 1)
+                    val endLine = minOf(lineCount - 1, startLine + random.nextInt(4))
+                    cache.updateForDeletion(startLine, endLine)
+                    model.delete(startLine, endLine)
+                    lineCount -= endLine - startLine
+                }
+            }
+            model.items.forEach {
+                assertThat(cache.queryMeasureCache(it.line)?.updateTimestamp).isEqualTo(it.updateTimestamp)
+            }
+        }
+    }
+
+    @Test
+    fun `test capacity follows viewport`() {
+        val cache = RenderCache()
+        cache.reset(1000)
+        cache.updateViewport(100)
+        repeat(300) {
+            cache.getOrCreateMeasureCache(it).updateTimestamp = 1L
+        }
+        assertThat(cache.queryMeasureCache(0)).isNotNull()
+        // Limited by memory class, but never below the minimum count
+        cache.memoryClass = 16
+        assertThat(cache.queryMeasureCache(0)).isNotNull()
+        assertThat(cache.queryMeasureCache(1)).isNull()
+        assertThat(cache.queryMeasureCache(299)).isNotNull()
+        assertThat(cache.queryMeasureCache(300 - RenderCache.MIN_CACHE_COUNT + 1)).isNotNull()
+        assertThat(cache.queryMeasureCache(300 - RenderCache.MIN_CACHE_COUNT)).isNull()
+    }
+
+    @Test
+    fun `test line stamps`() {
+        val cache = RenderCache()
+        cache.reset(10)
+        val stamps = LongArray(10) { cache.getLineStamp(it) }
+        // Edit in a single line
+        cache.updateForInsertion(2, 2)
+        assertThat(cache.getLineStamp(2)).isNotEqualTo(stamps[2])
+        assertThat(cache.getLineStamp(3)).isEqualTo(stamps[3])
+        stamps[2] = cache.getLineStamp(2)
+        // Lines after the edit keep their stamps
+        cache.updateForInsertion(4, 6)
+        assertThat(cache.getLineStamp(4)).isNotEqualTo(stamps[4])
+        assertThat(cache.getLineStamp(7)).isEqualTo(stamps[5])
+        assertThat(cache.getLineStamp(11)).isEqualTo(stamps[9])
+        cache.updateForDeletion(4, 6)
+        assertThat(cache.getLineStamp(4)).isNotEqualTo(stamps[4])
+        assertThat(cache.getLineStamp(5)).isEqualTo(stamps[5])
+        assertThat(cache.getLineStamp(2)).isEqualTo(stamps[2])
+        stamps[4] = cache.getLineStamp(4)
+
+        cache.invalidateLines(SequenceUpdateRange(7, 8))
+        assertThat(cache.getLineStamp(6)).isEqualTo(stamps[6])
+        assertThat(cache.getLineStamp(7)).isNotEqualTo(stamps[7])
+        assertThat(cache.getLineStamp(8)).isNotEqualTo(stamps[8])
+        assertThat(cache.getLineStamp(9)).isEqualTo(stamps[9])
+
+        cache.invalidateAllLines()
+        for (line in 0 until 10) {
+            assertThat(cache.getLineStamp(line)).isNotEqualTo(stamps[line])
+        }
+    }
+
+}
@@ -47,6 +47,7 @@ dependencies {
     compileOnly(projects.editor)
     api(libs.androidx.annotation)
 
+    testImplementation(projects.editor)
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
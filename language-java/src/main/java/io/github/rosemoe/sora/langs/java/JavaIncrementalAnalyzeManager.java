@@ -53,7 +53,7 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
     private final ThreadLocal<JavaTextTokenizer> tokenizerProvider = new ThreadLocal<>();
     protected IdentifierAutoComplete.SyncIdentifiers identifiers = new IdentifierAutoComplete.SyncIdentifiers();
 
-    private synchronized JavaTextTokenizer obtainTokenizer() {
+    private JavaTextTokenizer obtainTokenizer() {
         var res = tokenizerProvider.get();
         if (res == null) {
             res = new JavaTextTokenizer("");
@@ -23,6 +23,8 @@
  */
 package io.github.rosemoe.sora.langs.java;
 
+import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.util.KeywordMatcher;
 import io.github.rosemoe.sora.util.MyCharacter;
 import io.github.rosemoe.sora.util.TrieTree;
 
@@ -32,16 +34,59 @@ import io.github.rosemoe.sora.util.TrieTree;
 public class JavaTextTokenizer {
 
     private static TrieTree<Tokens> keywords;
+    private static KeywordMatcher<Tokens> keywordMatcher;
 
     static {
         doStaticInit();
     }
 
+    /**
+     * @deprecated Keywords are matched by {@link #getKeywordMatcher()} now
+     */
+    @Deprecated
     public static TrieTree<Tokens> getTree() {
         return keywords;
     }
 
+    public static KeywordMatcher<Tokens> getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
+    /**
+     * Character classes of ASCII characters, for scanning without per-character method calls
+     */
+    private final static byte CLASS_OTHER = 0;
+    private final static byte CLASS_WHITESPACE = 1;
+    private final static byte CLASS_NEWLINE = 2;
+    private final static byte CLASS_IDENTIFIER_PART = 3;
+    private final static byte CLASS_DIGIT = 4;
+    private final static byte CLASS_IDENTIFIER_START = 5;
+    private final static byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (char c = 0; c < ASCII_CLASSES.length; c++) {
+            byte type = CLASS_OTHER;
+            if (c == '\n' || c == '\r') {
+                type = CLASS_NEWLINE;
+            } else if (isWhitespace(c)) {
+                type = CLASS_WHITESPACE;
+            } else if (isPrimeDigit(c)) {
+                type = CLASS_DIGIT;
+            } else if (MyCharacter.isJavaIdentifierStart(c)) {
+                type = CLASS_IDENTIFIER_START;
+            } else if (MyCharacter.isJavaIdentifierPart(c)) {
+                type = CLASS_IDENTIFIER_PART;
+            }
+            ASCII_CLASSES[c] = type;
+        }
+    }
+
     private CharSequence source;
+    /**
+     * Characters of source. It is the backing array of {@link ContentLine}, or a copy of other texts
+     */
+    private char[] buffer;
+    private char[] copyBuffer;
     protected int bufferLen;
     private int line;
     private int column;
@@ -67,6 +112,26 @@ public class JavaTextTokenizer {
         currToken = Tokens.WHITESPACE;
         lcCal = false;
         this.bufferLen = source.length();
+        loadBuffer(source);
+    }
+
+    private void loadBuffer(CharSequence src) {
+        if (src instanceof ContentLine) {
+            buffer = ((ContentLine) src).getBackingCharArray();
+            return;
+        }
+        int len = src.length();
+        if (copyBuffer == null || copyBuffer.length < len) {
+            copyBuffer = new char[Math.max(len, 64)];
+        }
+        if (src instanceof String) {
+            ((String) src).getChars(0, len, copyBuffer, 0);
+        } else {
+            for (int i = 0; i < len; i++) {
+                copyBuffer[i] = src.charAt(i);
+            }
+        }
+        buffer = copyBuffer;
     }
 
     public void setCalculateLineColumn(boolean cal) {
@@ -80,16 +145,12 @@ public class JavaTextTokenizer {
         this.length -= length;
     }
 
-    private boolean isIdentifierPart(char ch) {
-        return MyCharacter.isJavaIdentifierPart(ch);
-    }
-
-    private boolean isIdentifierStart(char ch) {
-        return MyCharacter.isJavaIdentifierStart(ch);
+    private static boolean isIdentifierPart(char ch) {
+        return ch < 128 ? ASCII_CLASSES[ch] >= CLASS_IDENTIFIER_PART : MyCharacter.isJavaIdentifierPart(ch);
     }
 
     public CharSequence getTokenText() {
-        return source.subSequence(offset, offset + length);
+        return new String(buffer, offset, length);
     }
 
     public int getTokenLength() {
@@ -113,11 +174,11 @@ public class JavaTextTokenizer {
     }
 
     private char charAt(int i) {
-        return source.charAt(i);
+        return buffer[i];
     }
 
     private char charAt() {
-        return source.charAt(offset + length);
+        return buffer[offset + length];
     }
 
     public Tokens nextToken() {
@@ -151,27 +212,28 @@ public class JavaTextTokenizer {
         if (offset >= bufferLen) {
             return Tokens.EOF;
         }
-        char ch = source.charAt(offset);
+        char ch = buffer[offset];
         length = 1;
-        if (ch == '\n') {
-            return Tokens.NEWLINE;
-        } else if (ch == '\r') {
-            scanNewline();
+        int type = ch < 128 ? ASCII_CLASSES[ch] : (MyCharacter.isJavaIdentifierStart(ch) ? CLASS_IDENTIFIER_START : CLASS_OTHER);
+        if (type == CLASS_NEWLINE) {
+            if (ch == '\r') {
+                scanNewline();
+            }
             return Tokens.NEWLINE;
-        } else if (isWhitespace(ch)) {
+        } else if (type == CLASS_WHITESPACE) {
+            var buf = buffer;
+            int end = offset + 1;
             char chLocal;
-            while (offset + length < bufferLen && isWhitespace(chLocal = charAt(offset + length))) {
-                if (chLocal == '\r' || chLocal == '\n') {
-                    break;
-                }
-                length++;
+            while (end < bufferLen && (chLocal = buf[end]) < 128 && ASCII_CLASSES[chLocal] == CLASS_WHITESPACE) {
+                end++;
             }
+            length = end - offset;
             return Tokens.WHITESPACE;
         } else {
-            if (isIdentifierStart(ch)) {
+            if (type == CLASS_IDENTIFIER_START) {
                 return scanIdentifier(ch);
             }
-            if (isPrimeDigit(ch)) {
+            if (type == CLASS_DIGIT) {
                 return scanNumber();
             }
             /* Scan usual symbols first */
@@ -247,12 +309,14 @@ public class JavaTextTokenizer {
     }
 
     protected Tokens scanIdentifier(char ch) {
-        TrieTree.Node<Tokens> n = keywords.root.map.get(ch);
-        while (offset + length < bufferLen && isIdentifierPart(ch = charAt(offset + length))) {
-            length++;
-            n = n == null ? null : n.map.get(ch);
+        var buf = buffer;
+        int end = offset + length;
+        while (end < bufferLen && isIdentifierPart(buf[end])) {
+            end++;
         }
-        return n == null ? Tokens.IDENTIFIER : (n.token == null ? Tokens.IDENTIFIER : n.token);
+        length = end - offset;
+        var token = keywordMatcher.get(buf, offset, length);
+        return token == null ? Tokens.IDENTIFIER : token;
     }
 
     protected void scanTrans() {
@@ -435,6 +499,7 @@ public class JavaTextTokenizer {
             throw new IllegalArgumentException();
         }
         this.source = src;
+        loadBuffer(src);
         line = 0;
         column = 0;
         length = 0;
@@ -471,6 +536,7 @@ public class JavaTextTokenizer {
         for (int i = 0; i < sKeywords.length; i++) {
             keywords.put(sKeywords[i], sTokens[i]);
         }
+        keywordMatcher = new KeywordMatcher<>(sKeywords, sTokens);
     }
 
     protected static boolean isDigit(char c) {
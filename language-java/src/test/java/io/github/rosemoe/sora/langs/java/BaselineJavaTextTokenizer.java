@@ -0,0 +1,450 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.java;
+
+import io.github.rosemoe.sora.util.KeywordMatcher;
+import io.github.rosemoe.sora.util.MyCharacter;
+
+/**
+ * {@link JavaTextTokenizer} before it scans lines on char arrays. Tests and benchmarks compare
+ * the current tokenizer with it.
+ */
+public class BaselineJavaTextTokenizer {
+
+    private final static KeywordMatcher<Tokens> keywordMatcher = JavaTextTokenizer.getKeywordMatcher();
+
+    private CharSequence source;
+    protected int bufferLen;
+    private int line;
+    private int column;
+    private int index;
+    protected int offset;
+    protected int length;
+    private Tokens currToken;
+    private boolean lcCal;
+
+    public BaselineJavaTextTokenizer(CharSequence src) {
+        if (src == null) {
+            throw new IllegalArgumentException("src can not be null");
+        }
+        this.source = src;
+        init();
+    }
+
+    private void init() {
+        line = 0;
+        column = 0;
+        length = 0;
+        index = 0;
+        currToken = Tokens.WHITESPACE;
+        lcCal = false;
+        this.bufferLen = source.length();
+    }
+
+    public void setCalculateLineColumn(boolean cal) {
+        this.lcCal = cal;
+    }
+
+    public void pushBack(int length) {
+        if (length > getTokenLength()) {
+            throw new IllegalArgumentException("pushBack length too large");
+        }
+        this.length -= length;
+    }
+
+    private boolean isIdentifierPart(char ch) {
+        return MyCharacter.isJavaIdentifierPart(ch);
+    }
+
+    private boolean isIdentifierStart(char ch) {
+        return MyCharacter.isJavaIdentifierStart(ch);
+    }
+
+    public CharSequence getTokenText() {
+        return source.subSequence(offset, offset + length);
+    }
+
+    public int getTokenLength() {
+        return length;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Tokens getToken() {
+        return currToken;
+    }
+
+    private char charAt(int i) {
+        return source.charAt(i);
+    }
+
+    private char charAt() {
+        return source.charAt(offset + length);
+    }
+
+    public Tokens nextToken() {
+        return currToken = nextTokenInternal();
+    }
+
+    private Tokens nextTokenInternal() {
+        if (lcCal) {
+            boolean r = false;
+            for (int i = offset; i < offset + length; i++) {
+                char ch = charAt(i);
+                if (ch == '\r') {
+                    r = true;
+                    line++;
+                    column = 0;
+                } else if (ch == '\n') {
+                    if (r) {
+                        r = false;
+                        continue;
+                    }
+                    line++;
+                    column = 0;
+                } else {
+                    r = false;
+                    column++;
+                }
+            }
+        }
+        index = index + length;
+        offset = offset + length;
+        if (offset >= bufferLen) {
+            return Tokens.EOF;
+        }
+        char ch = source.charAt(offset);
+        length = 1;
+        if (ch == '\n') {
+            return Tokens.NEWLINE;
+        } else if (ch == '\r') {
+            scanNewline();
+            return Tokens.NEWLINE;
+        } else if (isWhitespace(ch)) {
+            char chLocal;
+            while (offset + length < bufferLen && isWhitespace(chLocal = charAt(offset + length))) {
+                if (chLocal == '\r' || chLocal == '\n') {
+                    break;
+                }
+                length++;
+            }
+            return Tokens.WHITESPACE;
+        } else {
+            if (isIdentifierStart(ch)) {
+                return scanIdentifier(ch);
+            }
+            if (isPrimeDigit(ch)) {
+                return scanNumber();
+            }
+            /* Scan usual symbols first */
+            if (ch == ';') {
+                return Tokens.SEMICOLON;
+            } else if (ch == '(') {
+                return Tokens.LPAREN;
+            } else if (ch == ')') {
+                return Tokens.RPAREN;
+            } else if (ch == ':') {
+                return Tokens.COLON;
+            } else if (ch == '<') {
+                return scanLT();
+            } else if (ch == '>') {
+                return scanGT();
+            }
+            /* Scan secondly symbols */
+            switch (ch) {
+                case '=':
+                    return scanOperatorTwo(Tokens.EQ);
+                case '.':
+                    return Tokens.DOT;
+                case '@':
+                    return Tokens.AT;
+                case '{':
+                    return Tokens.LBRACE;
+                case '}':
+                    return Tokens.RBRACE;
+                case '/':
+                    return scanDIV();
+                case '*':
+                    return scanOperatorTwo(Tokens.MULT);
+                case '-':
+                    return scanOperatorTwo(Tokens.MINUS);
+                case '+':
+                    return scanOperatorTwo(Tokens.PLUS);
+                case '[':
+                    return Tokens.LBRACK;
+                case ']':
+                    return Tokens.RBRACK;
+                case ',':
+                    return Tokens.COMMA;
+                case '!':
+                    return Tokens.NOT;
+                case '~':
+                    return Tokens.COMP;
+                case '?':
+                    return Tokens.QUESTION;
+                case '&':
+                    return scanOperatorTwo(Tokens.AND);
+                case '|':
+                    return scanOperatorTwo(Tokens.OR);
+                case '^':
+                    return scanOperatorTwo(Tokens.XOR);
+                case '%':
+                    return scanOperatorTwo(Tokens.MOD);
+                case '\'':
+                    scanCharLiteral();
+                    return Tokens.CHARACTER_LITERAL;
+                case '\"':
+                    scanStringLiteral();
+                    return Tokens.STRING;
+                default:
+                    return Tokens.UNKNOWN;
+            }
+        }
+    }
+
+    protected void scanNewline() {
+        if (offset + length < bufferLen && charAt(offset + length) == '\n') {
+            length++;
+        }
+    }
+
+    protected Tokens scanIdentifier(char ch) {
+        while (offset + length < bufferLen && isIdentifierPart(charAt(offset + length))) {
+            length++;
+        }
+        var token = keywordMatcher.get(source, offset, length);
+        return token == null ? Tokens.IDENTIFIER : token;
+    }
+
+    protected void scanTrans() {
+        if (offset + length == bufferLen) {
+            return;
+        }
+        char ch = charAt();
+        if (ch == '\\' || ch == 't' || ch == 'f' || ch == 'n' || ch == 'r' || ch == '0' || ch == '\"' || ch == '\''
+                || ch == 'b') {
+            length++;
+        } else if (ch == 'u') {
+            length++;
+            for (int i = 0; i < 4; i++) {
+                if (offset + length >= bufferLen || !isDigit(charAt(offset + length))) {
+                    return;
+                }
+                length++;
+            }
+        }
+    }
+
+    protected void scanStringLiteral() {
+        if (offset + length == bufferLen) {
+            return;
+        }
+        char ch;
+        while (offset + length < bufferLen && (ch = charAt(offset + length)) != '\"') {
+            if (ch == '\\') {
+                length++;
+                scanTrans();
+            } else {
+                if (ch == '\n') {
+                    return;
+                }
+                length++;
+            }
+        }
+        if (offset + length < bufferLen) {
+            length++;
+        }
+    }
+
+    protected void scanCharLiteral() {
+        if (offset + length == bufferLen) {
+            return;
+        }
+        char ch;
+        while (offset + length < bufferLen && (ch = charAt(offset + length)) != '\'') {
+            if (ch == '\\') {
+                length++;
+                scanTrans();
+            } else {
+                if (ch == '\n') {
+                    return;
+                }
+                length++;
+            }
+        }
+        if (offset + length != bufferLen) {
+            length++;
+        }
+    }
+
+    protected Tokens scanNumber() {
+        if (offset + length == bufferLen) {
+            return Tokens.INTEGER_LITERAL;
+        }
+        boolean flag = false;
+        char ch = charAt(offset);
+        if (ch == '0') {
+            if (charAt() == 'x') {
+                length++;
+            }
+            flag = true;
+        }
+        while (offset + length < bufferLen && isDigit(charAt())) {
+            length++;
+        }
+        if (offset + length == bufferLen) {
+            return Tokens.INTEGER_LITERAL;
+        }
+        ch = charAt();
+        if (ch == '.') {
+            if (flag) {
+                return Tokens.INTEGER_LITERAL;
+            }
+            length++;
+            if (offset + length == bufferLen) {
+                return Tokens.FLOATING_POINT_LITERAL;
+            }
+            while (offset + length < bufferLen && isDigit(charAt())) {
+                length++;
+            }
+            if (offset + length == bufferLen) {
+                return Tokens.FLOATING_POINT_LITERAL;
+            }
+            ch = charAt();
+            if (ch == 'e' || ch == 'E') {
+                length++;
+                if (offset + length == bufferLen) {
+                    return Tokens.FLOATING_POINT_LITERAL;
+                }
+                if (charAt() == '-' || charAt() == '+') {
+                    length++;
+                }
+                while (offset + length < bufferLen && isPrimeDigit(charAt())) {
+                    length++;
+                }
+                if (offset + length == bufferLen) {
+                    return Tokens.FLOATING_POINT_LITERAL;
+                }
+                ch = charAt();
+            }
+            if (ch == 'f' || ch == 'F' || ch == 'D'
+                    || ch == 'd') {
+                length++;
+            }
+            return Tokens.FLOATING_POINT_LITERAL;
+        } else if (ch == 'l' || ch == 'L') {
+            length++;
+            return Tokens.INTEGER_LITERAL;
+        } else if (ch == 'F' || ch == 'f' || ch == 'D'
+                || ch == 'd') {
+            length++;
+            return Tokens.FLOATING_POINT_LITERAL;
+        } else {
+            return Tokens.INTEGER_LITERAL;
+        }
+    }
+
+    /* The following methods have been simplified for syntax high light */
+
+    protected Tokens scanDIV() {
+        if (offset + 1 == bufferLen) {
+            return Tokens.DIV;
+        }
+        char ch = charAt();
+        if (ch == '/') {
+            length++;
+            while (offset + length < bufferLen && charAt() != '\n') {
+                length++;
+            }
+            return Tokens.LINE_COMMENT;
+        } else if (ch == '*') {
+            length++;
+            char pre, curr = '?';
+            boolean finished = false;
+            while (offset + length < bufferLen) {
+                pre = curr;
+                curr = charAt();
+                if (curr == '/' && pre == '*') {
+                    length++;
+                    finished = true;
+                    break;
+                }
+                length++;
+            }
+            return finished ? Tokens.LONG_COMMENT_COMPLETE : Tokens.LONG_COMMENT_INCOMPLETE;
+        } else {
+            return Tokens.DIV;
+        }
+    }
+
+    @SuppressWarnings("SameReturnValue")
+    protected Tokens scanLT() {
+        return Tokens.LT;
+    }
+
+    @SuppressWarnings("SameReturnValue")
+    protected Tokens scanGT() {
+        return Tokens.GT;
+    }
+
+    protected Tokens scanOperatorTwo(Tokens ifWrong) {
+        return ifWrong;
+    }
+
+    public void reset(CharSequence src) {
+        if (src == null) {
+            throw new IllegalArgumentException();
+        }
+        this.source = src;
+        line = 0;
+        column = 0;
+        length = 0;
+        index = 0;
+        offset = 0;
+        currToken = Tokens.WHITESPACE;
+        bufferLen = src.length();
+    }
+
+    protected static boolean isDigit(char c) {
+        return ((c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f'));
+    }
+
+    protected static boolean isPrimeDigit(char c) {
+        return (c >= '0' && c <= '9');
+    }
+
+    protected static boolean isWhitespace(char c) {
+        return (c == '\t' || c == ' ' || c == '\f' || c == '\n' || c == '\r');
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.java;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.rosemoe.sora.text.ContentLine;
+
+/**
+ * Compare line tokenizing throughput of {@link JavaTextTokenizer} and {@link BaselineJavaTextTokenizer}
+ * on the Java sources of the editor. Results are only reported, and {@link JavaTextTokenizerTest}
+ * checks that both tokenizers produce the same tokens.
+ * <p>
+ * Numbers measured on a desktop JVM do not predict ART. Run it with:
+ * <pre>
+ * SORA_BENCHMARK=true ./gradlew :language-java:testDebugUnitTest --tests '*JavaTextTokenizerBenchmark*'
+ * </pre>
+ */
+public class JavaTextTokenizerBenchmark {
+
+    private static final int ROUNDS = 30;
+
+    private static int runBaseline(List<String> lines) {
+        var tokenizer = new BaselineJavaTextTokenizer("");
+        int count = 0;
+        for (var line : lines) {
+            tokenizer.reset(line);
+            while (tokenizer.nextToken() != Tokens.EOF) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int run(List<? extends CharSequence> lines) {
+        var tokenizer = new JavaTextTokenizer("");
+        int count = 0;
+        for (var line : lines) {
+            tokenizer.reset(line);
+            while (tokenizer.nextToken() != Tokens.EOF) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long measure(Runnable action) {
+        // warm up
+        for (int i = 0; i < ROUNDS / 3; i++) {
+            action.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            action.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void compareWithBaseline() throws IOException {
+        assumeTrue("benchmarks are not enabled", "true".equals(System.getenv("SORA_BENCHMARK")));
+        var lines = new ArrayList<String>();
+        var contentLines = new ArrayList<ContentLine>();
+        long chars = 0;
+        for (var file : JavaTextTokenizerTest.sourceFiles()) {
+            for (var line : JavaTextTokenizerTest.read(file).split("\n")) {
+                lines.add(line);
+                contentLines.add(new ContentLine(line));
+                chars += line.length();
+            }
+        }
+        assumeTrue("no Java sources found", !lines.isEmpty());
+
+        long baselineTime = measure(() -> runBaseline(lines));
+        long stringTime = measure(() -> run(lines));
+        long contentLineTime = measure(() -> run(contentLines));
+
+        double megaChars = chars * (double) ROUNDS / 1e6;
+        System.out.printf("%d lines, %d chars: baseline %.1f Mchar/s, String %.1f Mchar/s, ContentLine %.1f Mchar/s%n",
+                lines.size(), chars, megaChars / (baselineTime / 1e9), megaChars / (stringTime / 1e9),
+                megaChars / (contentLineTime / 1e9));
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.github.rosemoe.sora.text.ContentLine;
+
+/**
+ * Check that {@link JavaTextTokenizer} produces the same tokens as {@link BaselineJavaTextTokenizer}
+ */
+public class JavaTextTokenizerTest {
+
+    static final String[] SAMPLE_LINES = {
+            "package io.github.rosemoe.sora.langs.java;",
+            "public class Sample<T extends Comparable<T>> implements Runnable {",
+            "    private static final int MAX_VALUE = 0x7fffffff, OCT = 0777, BIN = 0b1010;",
+            "    long big = 1_000_000L; float f = 1.5e-3f; double d = .25D; char c = '\\n';",
+            "    String s = \"escaped \\\" quote\", empty = \"\";",
+            "    int é = 1, 变量 = 2, $dollar = 3, _under_score = 4, ñandú = é + 变量;",
+            "    String emoji = \"😀 text 👍\"; // comment with 😀 and ünïcödé",
+            "    /* block comment 注释 */ int x = a >>> 2 >= b ? c << 1 : d >> 3;",
+            "    /** doc comment",
+            "     * still inside with 中文 */",
+            "    @Override public void run() { x += 1; x -= 2; x *= 3; x /= 4; x %= 5; x &= 6; x |= 7; x ^= 8; }",
+            "    boolean b = !flag && other || (a != b) == (c <= d);",
+            "    String unterminated = \"no end",
+            "    char unterminatedChar = 'x",
+            "\tint\ttabbed\f=\u000b1;   ",
+            "    Object o = (Runnable) () -> System.out.println(\"λ\");",
+            "    int[] array = new int[]{1, 2, 3}; array[0]++; --array[1]; label: ;",
+            "    String text = \"\"\"",
+            "        text block",
+            "        \"\"\";",
+            "    // trailing comment without newline",
+            "𝔘𝔫𝔦𝔠𝔬𝔡𝔢 surrogate identifiers ＡＢＣ and ａｂｃ",
+            "",
+            "}"
+    };
+
+    /**
+     * Tokenize and record every token as type, index, length, line, column and text
+     */
+    static List<String> tokenize(JavaTextTokenizer tokenizer) {
+        var tokens = new ArrayList<String>();
+        Tokens token;
+        while ((token = tokenizer.nextToken()) != Tokens.EOF) {
+            tokens.add(token + "@" + tokenizer.getIndex() + "+" + tokenizer.getTokenLength() + " "
+                    + tokenizer.getLine() + ":" + tokenizer.getColumn() + " " + tokenizer.getTokenText());
+        }
+        return tokens;
+    }
+
+    static List<String> tokenize(BaselineJavaTextTokenizer tokenizer) {
+        var tokens = new ArrayList<String>();
+        Tokens token;
+        while ((token = tokenizer.nextToken()) != Tokens.EOF) {
+            tokens.add(token + "@" + tokenizer.getIndex() + "+" + tokenizer.getTokenLength() + " "
+                    + tokenizer.getLine() + ":" + tokenizer.getColumn() + " " + tokenizer.getTokenText());
+        }
+        return tokens;
+    }
+
+    static List<String> expected(CharSequence text) {
+        var tokenizer = new BaselineJavaTextTokenizer(text.toString());
+        tokenizer.setCalculateLineColumn(true);
+        return tokenize(tokenizer);
+    }
+
+    static List<String> actual(CharSequence text) {
+        var tokenizer = new JavaTextTokenizer(text);
+        tokenizer.setCalculateLineColumn(true);
+        return tokenize(tokenizer);
+    }
+
+    /**
+     * Java sources of the editor and this module, read relatively to the module directory
+     */
+    static List<Path> sourceFiles() throws IOException {
+        var files = new ArrayList<Path>();
+        for (var root : new String[]{"src/main/java", "../editor/src/main/java"}) {
+            var dir = Paths.get(root);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> stream = Files.walk(dir)) {
+                files.addAll(stream.filter(p -> p.toString().endsWith(".java")).sorted().collect(Collectors.toList()));
+            }
+        }
+        return files;
+    }
+
+    static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void sampleLinesMatchBaseline() {
+        for (var line : SAMPLE_LINES) {
+            assertEquals(line, expected(line), actual(line));
+            assertEquals(line, expected(line), actual(new ContentLine(line)));
+            assertEquals(line, expected(line), actual(new StringBuilder(line)));
+        }
+        var whole = String.join("\r\n", SAMPLE_LINES);
+        assertEquals(expected(whole), actual(whole));
+        whole = String.join("\n", SAMPLE_LINES) + "\r";
+        assertEquals(expected(whole), actual(whole));
+    }
+
+    @Test
+    public void sourceFilesMatchBaseline() throws IOException {
+        var files = sourceFiles();
+        assertFalse("no Java sources found from " + Paths.get("").toAbsolutePath(), files.isEmpty());
+        for (var file : files) {
+            var text = read(file);
+            assertEquals(file.toString(), expected(text), actual(text));
+        }
+    }
+
+    @Test
+    public void contentLineMatchesStringLineByLine() throws IOException {
+        var tokenizer = new JavaTextTokenizer("");
+        tokenizer.setCalculateLineColumn(true);
+        for (var file : sourceFiles()) {
+            for (var line : read(file).split("\n", -1)) {
+                tokenizer.reset(line);
+                var fromString = tokenize(tokenizer);
+                // Backing array of a ContentLine is larger than its text, and the previous line is longer or shorter
+                var contentLine = new ContentLine(line);
+                contentLine.append("trailing text that is deleted");
+                contentLine.delete(line.length(), contentLine.length());
+                tokenizer.reset(contentLine);
+                assertEquals(line, fromString, tokenize(tokenizer));
+                assertEquals(line, expected(line), fromString);
+            }
+        }
+    }
+
+    @Test
+    public void resetReusesTokenizerForLongerAndShorterText() {
+        var tokenizer = new JavaTextTokenizer("");
+        tokenizer.setCalculateLineColumn(true);
+        var texts = new String[]{"int a;", "public static void main(String[] args) { 变量 = \"😀\"; }", "x", "", "int é = 1;"};
+        for (var text : texts) {
+            tokenizer.reset(text);
+            assertEquals(text, expected(text), tokenize(tokenizer));
+            tokenizer.reset(new ContentLine(text));
+            assertEquals(text, expected(text), tokenize(tokenizer));
+        }
+    }
+
+    @Test
+    public void pushBackMatchesBaseline() {
+        var line = "int identifier = 12345;";
+        var tokenizer = new JavaTextTokenizer(line);
+        var baseline = new BaselineJavaTextTokenizer(line);
+        tokenizer.nextToken();
+        baseline.nextToken();
+        tokenizer.pushBack(1);
+        baseline.pushBack(1);
+        assertEquals(baseline.getTokenText().toString(), tokenizer.getTokenText().toString());
+        assertEquals(tokenize(baseline), tokenize(tokenizer));
+    }
+
+    @Test
+    public void nonAsciiIdentifiersAreSingleTokens() {
+        var tokens = actual("变量 ñandú é");
+        assertEquals(5, tokens.size());
+        assertTrue(tokens.get(0), tokens.get(0).startsWith("IDENTIFIER@0+2 "));
+        assertTrue(tokens.get(2), tokens.get(2).startsWith("IDENTIFIER@3+5 "));
+        assertTrue(tokens.get(4), tokens.get(4).startsWith("IDENTIFIER@9+1 "));
+    }
+
+}
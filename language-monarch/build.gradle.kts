@@ -56,6 +56,8 @@ dependencies {
 
     implementation(libs.moshi)
 
+    testImplementation(projects.editor)
+    testImplementation(libs.monarch.language.pack)
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
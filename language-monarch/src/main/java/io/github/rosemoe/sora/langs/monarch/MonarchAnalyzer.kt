@@ -24,10 +24,8 @@
 
 package io.github.rosemoe.sora.langs.monarch
 
-import android.graphics.Color
 import android.os.Bundle
 import io.github.dingyi222666.monarch.tokenization.TokenMetadata
-import io.github.dingyi222666.monarch.types.FontStyle
 import io.github.dingyi222666.monarch.types.ITokenizationSupport
 import io.github.dingyi222666.monarch.types.StandardTokenType
 import io.github.dingyi222666.regex.GlobalRegexLib
@@ -41,25 +39,26 @@ import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete.SyncIdentif
 import io.github.rosemoe.sora.lang.styling.CodeBlock
 import io.github.rosemoe.sora.lang.styling.Span
 import io.github.rosemoe.sora.lang.styling.SpanFactory
-import io.github.rosemoe.sora.lang.styling.TextStyle
 import io.github.rosemoe.sora.langs.monarch.folding.FoldingHelper
 import io.github.rosemoe.sora.langs.monarch.folding.IndentRange
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.LanguageConfiguration
+import io.github.rosemoe.sora.langs.monarch.registry.MonarchGrammarRegistry
 import io.github.rosemoe.sora.langs.monarch.registry.ThemeChangeListener
 import io.github.rosemoe.sora.langs.monarch.registry.ThemeRegistry
 import io.github.rosemoe.sora.langs.monarch.registry.model.ThemeModel
-import io.github.rosemoe.sora.langs.monarch.utils.checkSurrogate
-import io.github.rosemoe.sora.langs.monarch.utils.convertUnicodeOffsetToUtf16
+import io.github.rosemoe.sora.langs.monarch.utils.findIdentifierRange
+import io.github.rosemoe.sora.langs.monarch.utils.rangeEnd
+import io.github.rosemoe.sora.langs.monarch.utils.rangeStart
 import io.github.rosemoe.sora.text.Content
 import io.github.rosemoe.sora.text.ContentLine
 import io.github.rosemoe.sora.text.ContentReference
-import io.github.rosemoe.sora.util.MyCharacter
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
 
 class MonarchAnalyzer(
     private val language: MonarchLanguage,
     private val tokenization: ITokenizationSupport,
     private val languageConfiguration: LanguageConfiguration? = null,
+    private val grammarRegistry: MonarchGrammarRegistry? = null
 ) : AsyncIncrementalAnalyzeManager<MonarchState, Span>(), FoldingHelper,
     ThemeChangeListener {
 
@@ -67,6 +66,9 @@ class MonarchAnalyzer(
     private var foldingOffside = false
     private var bracketsProvider: BracketsProvider? = null
     private var theme = ThemeRegistry.currentTheme
+    @Volatile
+    private var styleCache: TokenStyleCache? = null
+    private val identifierBuffer = ArrayList<String>()
     internal val syncIdentifiers = SyncIdentifiers()
 
 
@@ -100,6 +102,7 @@ class MonarchAnalyzer(
         }
         val markers = languageConfiguration.folding ?: return
         foldingOffside = markers.offSide == true
+        // Used by the analysis thread, so it is not shared through RegexCache
         cachedFoldingRegExp =
             GlobalRegexLib.compile("(" + markers.markers?.start + ")|(?:" + markers.markers?.end + ")")
     }
@@ -211,92 +214,71 @@ class MonarchAnalyzer(
     ): LineTokenizeResult<MonarchState, Span> {
         val line =
             if ((lineC is ContentLine)) lineC.toStringWithNewline() else lineC.toString()
+        // Scan identifiers and indentation on the raw chars, without creating substrings
+        val chars = if (lineC is ContentLine) lineC.backingCharArray else line.toCharArray()
+        val length = lineC.length
+
+        val tokenizeState = state?.tokenizeState ?: initialState.tokenizeState
+        val lineTokens = grammarRegistry?.getTransitionCache(tokenization)
+            ?.getOrTokenize(line, tokenizeState) { text, fromState ->
+                tokenization.tokenizeEncoded(text, false, fromState)
+            }
+            ?: tokenization.tokenizeEncoded(line, false, tokenizeState)
 
-        val tokens = ArrayList<Span>()
-        val surrogate = line.checkSurrogate()
-        val lineTokens = tokenization.tokenizeEncoded(
-            line, false, state?.tokenizeState ?: initialState.tokenizeState
-        )
-
-        val tokensLength = lineTokens.tokens.size / 2
-        val identifiers = if (language.createIdentifiers) mutableListOf<String>() else null
+        // Offsets from Monarch are already in UTF-16 code units
+        val encodedTokens = lineTokens.tokens
+        val tokensLength = encodedTokens.size / 2
+        val tokens = ArrayList<Span>(tokensLength + 1)
+        val styleCache = styleCache ?: TokenStyleCache(theme.value.colorMap).also { styleCache = it }
+        val identifiers = identifierBuffer
+        identifiers.clear()
 
         for (index in 0 until tokensLength) {
-            val startIndex =
-                line.convertUnicodeOffsetToUtf16(
-                    lineTokens.tokens[2 * index], surrogate
-                )
+            val startIndex = encodedTokens[2 * index]
             if (index == 0 && startIndex != 0) {
                 tokens.add(SpanFactory.obtainNoExt(0, EditorColorScheme.TEXT_NORMAL.toLong()))
             }
-            val metadata = lineTokens.tokens[2 * index + 1]
-            val foreground = TokenMetadata.getForeground(metadata)
-            val fontStyle = TokenMetadata.getFontStyle(metadata)
+            val metadata = encodedTokens[2 * index + 1]
             val tokenType = TokenMetadata.getTokenType(metadata)
 
             if (language.createIdentifiers &&
                 tokenType == StandardTokenType.Other
             ) {
-                var end = if (index + 1 == tokensLength)
-                    lineC.length
+                val end = if (index + 1 == tokensLength)
+                    length
                 else
-                    line.convertUnicodeOffsetToUtf16(
-                        lineTokens.tokens[2 * (index + 1)],
-                        surrogate
-                    )
-                var start = startIndex
-                while (start < end && line[start] == ' ') {
-                    start++
-                }
-                while (end > start && line[end - 1] == ' ') {
-                    end--
-                }
-                if (end > start && MyCharacter.isJavaIdentifierStart(line[start])) {
-                    var isValidIdentifier = true
-                    for (j in start + 1 until end) {
-                        if (!MyCharacter.isJavaIdentifierPart(line[j])) {
-                            isValidIdentifier = false
-                            break
-                        }
-                    }
-                    if (isValidIdentifier) {
-                        identifiers?.add(line.substring(start, end))
-                    }
+                    encodedTokens[2 * (index + 1)].coerceAtMost(length)
+                val range = chars.findIdentifierRange(startIndex.coerceAtMost(end), end)
+                if (range != -1L) {
+                    val start = rangeStart(range)
+                    identifiers.add(String(chars, start, rangeEnd(range) - start))
                 }
             }
 
-            val span = SpanFactory.obtainNoExt(
-                startIndex, TextStyle.makeStyle(
-                    foreground + 255,
-                    0,
-                    (fontStyle and FontStyle.Bold) != 0,
-                    (fontStyle and FontStyle.Italic) != 0,
-                    false
-                )
-            )
-
-            span.extra = tokenType
-
-            if ((fontStyle and FontStyle.Underline) != 0) {
-                val color = theme.value.colorMap.getColor(foreground)
-                if (color != null) {
-                    span.setUnderlineColor(Color.parseColor(color))
+            val slot = styleCache.obtainSlot(metadata)
+            val underlineColor = styleCache.getUnderlineColor(slot)
+            val span = if (underlineColor != 0) {
+                SpanFactory.obtain(startIndex, styleCache.getStyle(slot)).also {
+                    it.setUnderlineColor(underlineColor)
                 }
+            } else {
+                SpanFactory.obtainNoExt(startIndex, styleCache.getStyle(slot))
             }
 
+            span.extra = tokenType
+
             tokens.add(span)
         }
 
+        val indent = IndentRange.computeIndentLevel(chars, length, language.tabSize)
+
         return LineTokenizeResult(
             MonarchState(
                 lineTokens.endState,
-                cachedFoldingRegExp?.search(
-                    line, 0
-                ),
-                IndentRange.computeIndentLevel(
-                    (lineC as ContentLine).backingCharArray, line.length - 1, language.tabSize
-                ),
-                identifiers
+                // Whitespace-only lines are skipped by folding computation
+                if (indent == -1) null else cachedFoldingRegExp?.search(line, 0),
+                indent,
+                if (language.createIdentifiers) identifiers.toList() else null
             ), null, tokens
         )
     }
@@ -335,6 +317,7 @@ class MonarchAnalyzer(
 
     override fun onChangeTheme(newTheme: ThemeModel) {
         this.theme = newTheme
+        this.styleCache = null
     }
 
 }
@@ -117,7 +117,8 @@ class MonarchLanguage(
                 this,
                 grammarRegistry.languageRegistry.getTokenizer(grammar.languageId)
                     ?: throw Exception("No tokenizer found for language ${grammar.languageId}"),
-                languageConfiguration
+                languageConfiguration,
+                grammarRegistry
             )
         } catch (e: Exception) {
             e.printStackTrace()
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.monarch
+
+import android.graphics.Color
+import io.github.dingyi222666.monarch.tokenization.TokenMetadata
+import io.github.dingyi222666.monarch.types.FontStyle
+import io.github.rosemoe.sora.lang.styling.TextStyle
+import io.github.rosemoe.sora.langs.monarch.theme.ColorMap
+
+/**
+ * Direct-mapped cache from Monarch token metadata to packed [TextStyle] and underline color.
+ *
+ * Metadata values of a line are mostly repeated, so styles are computed once instead of per token.
+ * A colliding entry simply replaces the old one. Underline colors depend on the theme, so a new
+ * cache should be created when the theme changes.
+ */
+internal class TokenStyleCache(private val colorMap: ColorMap) {
+
+    private val keys = IntArray(CAPACITY)
+    private val filled = BooleanArray(CAPACITY)
+    private val styles = LongArray(CAPACITY)
+    private val underlineColors = IntArray(CAPACITY)
+
+    /**
+     * Get the slot for the given token metadata, computing its style on cache miss
+     */
+    fun obtainSlot(metadata: Int): Int {
+        val slot = ((metadata * -0x61c88647) ushr 24) and MASK
+        if (!filled[slot] || keys[slot] != metadata) {
+            val foreground = TokenMetadata.getForeground(metadata)
+            val fontStyle = TokenMetadata.getFontStyle(metadata)
+            keys[slot] = metadata
+            filled[slot] = true
+            styles[slot] = TextStyle.makeStyle(
+                foreground + 255,
+                0,
+                (fontStyle and FontStyle.Bold) != 0,
+                (fontStyle and FontStyle.Italic) != 0,
+                false
+            )
+            underlineColors[slot] = if ((fontStyle and FontStyle.Underline) != 0) {
+                colorMap.getColor(foreground)?.let { Color.parseColor(it) } ?: 0
+            } else 0
+        }
+        return slot
+    }
+
+    fun getStyle(slot: Int) = styles[slot]
+
+    /**
+     * @return the underline color, or 0 if the token is not underlined
+     */
+    fun getUnderlineColor(slot: Int) = underlineColors[slot]
+
+    companion object {
+        private const val CAPACITY = 256
+        private const val MASK = CAPACITY - 1
+    }
+}
@@ -17,7 +17,6 @@ package io.github.rosemoe.sora.langs.monarch.languageconfiguration
 import com.squareup.moshi.JsonAdapter
 import com.squareup.moshi.JsonReader
 import com.squareup.moshi.JsonWriter
-import io.github.dingyi222666.regex.GlobalRegexLib
 import io.github.dingyi222666.regex.Regex
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.AutoClosingPair
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.AutoClosingPairConditional
@@ -31,6 +30,7 @@ import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.IndentAc
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.IndentationRule
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.LanguageConfiguration
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.OnEnterRule
+import io.github.rosemoe.sora.langs.monarch.utils.RegexCache
 import kotlin.properties.Delegates
 
 class LanguageConfigurationAdapter : JsonAdapter<LanguageConfiguration>() {
@@ -314,7 +314,7 @@ class LanguageConfigurationAdapter : JsonAdapter<LanguageConfiguration>() {
 
     private fun readRegex(reader: JsonReader): Regex {
         if (reader.peek() == JsonReader.Token.STRING) {
-            return GlobalRegexLib.compile(reader.nextString())
+            return RegexCache.compile(reader.nextString())
         }
 
         reader.beginObject()
@@ -331,7 +331,7 @@ class LanguageConfigurationAdapter : JsonAdapter<LanguageConfiguration>() {
 
         reader.endObject()
 
-        return GlobalRegexLib.compile(pattern)
+        return RegexCache.compile(pattern)
     }
 
     private fun readSurroundingPairs(reader: JsonReader): List<BaseAutoClosingPair> {
@@ -14,12 +14,12 @@
 
 package io.github.rosemoe.sora.langs.monarch.languageconfiguration.support
 
-import io.github.dingyi222666.regex.GlobalRegexLib
 import io.github.dingyi222666.regex.Regex
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.CharacterPair
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.EnterAction
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.IndentAction
 import io.github.rosemoe.sora.langs.monarch.languageconfiguration.model.OnEnterRule
+import io.github.rosemoe.sora.langs.monarch.utils.RegexCache
 import io.github.rosemoe.sora.langs.monarch.utils.escapeRegExpCharacters
 import io.github.rosemoe.sora.langs.monarch.utils.matchesPartially
 import java.util.regex.Pattern
@@ -133,7 +133,7 @@ class OnEnterSupport(
                 string.insert(0, "\\b") //$NON-NLS-1$
             }
             string.append("\\s*$") //$NON-NLS-1$
-            return GlobalRegexLib.compile(string)
+            return RegexCache.compile(string.toString())
         }
 
         private fun createCloseBracketRegExp(bracket: String): Regex? {
@@ -146,7 +146,7 @@ class OnEnterSupport(
                 string.insert(0, "\\b") //$NON-NLS-1$
             }
             string.append("\\s*$") //$NON-NLS-1$
-            return GlobalRegexLib.compile(string)
+            return RegexCache.compile(string.toString())
         }
 
 
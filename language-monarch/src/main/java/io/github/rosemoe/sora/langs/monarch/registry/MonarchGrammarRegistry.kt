@@ -30,12 +30,14 @@ import io.github.dingyi222666.monarch.language.LanguageRegistry
 import io.github.dingyi222666.monarch.loader.json.addLast
 import io.github.dingyi222666.monarch.types.IThemeService
 import io.github.dingyi222666.monarch.types.ITokenTheme
+import io.github.dingyi222666.monarch.types.ITokenizationSupport
 import io.github.rosemoe.sora.langs.monarch.registry.grammardefinition.MonarchGrammarDefinitionReader
 import io.github.rosemoe.sora.langs.monarch.registry.grammardefinition.ParsedGrammarDefinitionList
 import io.github.rosemoe.sora.langs.monarch.registry.model.GrammarDefinition
 import io.github.rosemoe.sora.langs.monarch.registry.model.ThemeModel
 import io.github.rosemoe.sora.langs.monarch.theme.adapter
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 
 class MonarchGrammarRegistry(
     internal val languageRegistry: LanguageRegistry = LanguageRegistry(),
@@ -51,6 +53,19 @@ class MonarchGrammarRegistry(
 
     private var currentTheme = ThemeModel.EMPTY
 
+    @Volatile
+    private var transitionCaches = ConcurrentHashMap<ITokenizationSupport, TokenizeTransitionCache>()
+
+    /**
+     * Get the shared transition cache of the given tokenizer. Results cached before a theme
+     * change are never returned by the new caches.
+     */
+    fun getTransitionCache(tokenizer: ITokenizationSupport): TokenizeTransitionCache {
+        return transitionCaches.getOrPut(tokenizer) {
+            TokenizeTransitionCache(TRANSITION_CACHE_CAPACITY)
+        }
+    }
+
     override fun doLoadGrammar(grammarDefinition: GrammarDefinition<Language>): Language {
         return grammarDefinition.grammar.also {
             languageRegistry.registerLanguage(it, true, this)
@@ -59,6 +74,8 @@ class MonarchGrammarRegistry(
 
     override fun doSetGrammarRegistryTheme(themeModel: ThemeModel) {
         currentTheme = themeModel
+        // Token metadata contains theme colors
+        transitionCaches = ConcurrentHashMap()
     }
 
     override fun doLoadGrammarsFromJsonPath(jsonPath: String): List<GrammarDefinition<Language>> {
@@ -84,6 +101,8 @@ class MonarchGrammarRegistry(
     }
 
     companion object {
+        private const val TRANSITION_CACHE_CAPACITY = 2048
+
         val INSTANCE by lazy {
             MonarchGrammarRegistry()
         }
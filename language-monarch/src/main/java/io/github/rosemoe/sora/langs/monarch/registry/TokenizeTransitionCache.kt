@@ -0,0 +1,88 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.monarch.registry
+
+import io.github.dingyi222666.monarch.types.TokenizeState
+
+/**
+ * Memoized state transitions of a Monarch tokenizer.
+ *
+ * Tokenizing the same line text from the same state always produces the same tokens and end
+ * state, so results are kept in a bounded LRU map and shared by all editors using the tokenizer.
+ * Lines like blank lines, closing braces and common statements hit the cache, without running the
+ * rules of the state at every position again.
+ *
+ * Token metadata depends on the theme, so the owning [MonarchGrammarRegistry] drops its caches
+ * when the theme is changed.
+ */
+class TokenizeTransitionCache internal constructor(private val capacity: Int) {
+
+    private val entries = object : LinkedHashMap<Key, Any>(capacity, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Any>?): Boolean {
+            return size > capacity
+        }
+    }
+
+    /**
+     * Get the cached tokenization result of [line] from [state], or compute it with [tokenize].
+     * The tokenizer itself is called without holding the lock.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <R : Any> getOrTokenize(
+        line: String,
+        state: TokenizeState,
+        tokenize: (String, TokenizeState) -> R
+    ): R {
+        if (line.length > MAX_LINE_LENGTH) {
+            return tokenize(line, state)
+        }
+        val key = Key(line, state)
+        synchronized(this) {
+            entries[key]
+        }?.let {
+            return it as R
+        }
+        val result = tokenize(line, state)
+        synchronized(this) {
+            entries[key] = result
+        }
+        return result
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    private data class Key(val line: String, val state: TokenizeState)
+
+    companion object {
+        /**
+         * Longer lines are rarely repeated and are not cached
+         */
+        const val MAX_LINE_LENGTH = 512
+    }
+
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.monarch.utils
+
+import io.github.dingyi222666.regex.GlobalRegexLib
+import io.github.dingyi222666.regex.Regex
+
+/**
+ * Compiled regexes shared by languages on the same thread. Language configurations of different
+ * languages often contain the same patterns.
+ *
+ * Compiled [Regex] objects are not guaranteed to be safe for concurrent use by the regex libs, so
+ * each thread has its own cache and a regex is only shared by code running on the thread that
+ * compiled it. Regexes used by analysis threads should be compiled by their owners instead.
+ */
+object RegexCache {
+
+    private val cache = ThreadLocal.withInitial { HashMap<Pair<Any, String>, Regex>() }
+
+    /**
+     * Compile the pattern with current [GlobalRegexLib.defaultRegexLib], or get the one cached for
+     * the current thread
+     */
+    fun compile(pattern: String): Regex {
+        return cache.get()!!.getOrPut(GlobalRegexLib.defaultRegexLib to pattern) {
+            GlobalRegexLib.compile(pattern)
+        }
+    }
+
+    /**
+     * Clear the cache of the current thread
+     */
+    fun clear() {
+        cache.get()!!.clear()
+    }
+
+}
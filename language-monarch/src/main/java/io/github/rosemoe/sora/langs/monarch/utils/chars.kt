@@ -0,0 +1,58 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.monarch.utils
+
+/**
+ * Find the identifier in the region [[start], [end]) of the chars, ignoring leading and
+ * trailing spaces. No string is created for the check.
+ *
+ * @return the packed identifier range (see [packRange]), or -1 if the trimmed region is
+ * not a valid Java identifier
+ */
+fun CharArray.findIdentifierRange(start: Int, end: Int): Long {
+    var left = start
+    var right = end
+    while (left < right && this[left] == ' ') {
+        left++
+    }
+    while (right > left && this[right - 1] == ' ') {
+        right--
+    }
+    if (right <= left || !Character.isJavaIdentifierStart(this[left])) {
+        return -1L
+    }
+    for (i in left + 1 until right) {
+        if (!Character.isJavaIdentifierPart(this[i])) {
+            return -1L
+        }
+    }
+    return packRange(left, right)
+}
+
+fun packRange(start: Int, end: Int): Long = (start.toLong() shl 32) or (end.toLong() and 0xFFFFFFFFL)
+
+fun rangeStart(range: Long): Int = (range ushr 32).toInt()
+
+fun rangeEnd(range: Long): Int = range.toInt()
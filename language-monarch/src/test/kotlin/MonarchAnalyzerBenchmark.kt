@@ -0,0 +1,180 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+import io.github.dingyi222666.monarch.languages.JavaLanguage
+import io.github.dingyi222666.monarch.tokenization.TokenMetadata
+import io.github.dingyi222666.monarch.types.FontStyle
+import io.github.dingyi222666.monarch.types.ITokenizationSupport
+import io.github.dingyi222666.monarch.types.StandardTokenType
+import io.github.dingyi222666.monarch.types.TokenizeState
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.SpanFactory
+import io.github.rosemoe.sora.lang.styling.TextStyle
+import io.github.rosemoe.sora.langs.monarch.MonarchAnalyzer
+import io.github.rosemoe.sora.langs.monarch.MonarchLanguage
+import io.github.rosemoe.sora.langs.monarch.MonarchState
+import io.github.rosemoe.sora.langs.monarch.folding.IndentRange
+import io.github.rosemoe.sora.langs.monarch.registry.MonarchGrammarRegistry
+import io.github.rosemoe.sora.langs.monarch.registry.dsl.monarchLanguages
+import io.github.rosemoe.sora.langs.monarch.utils.checkSurrogate
+import io.github.rosemoe.sora.langs.monarch.utils.convertUnicodeOffsetToUtf16
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentLine
+import io.github.rosemoe.sora.util.MyCharacter
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+/**
+ * Compare tokenizing time of [MonarchAnalyzer.tokenizeLine], which works on line chars, with the
+ * string based adapter it replaced. Both run the same Monarch tokenizer, so the difference is the
+ * cost of the adapter. Results are only reported, and [MonarchAnalyzerTest] checks the spans.
+ *
+ * Run with `SORA_BENCHMARK=true ./gradlew :language-monarch:testDebugUnitTest --tests '*MonarchAnalyzerBenchmark*'`.
+ * The benchmark is skipped unless `SORA_BENCHMARK` is `true`.
+ */
+class MonarchAnalyzerBenchmark {
+
+    private val text = Content(buildString {
+        repeat(300) {
+            append("    private static final int VALUE_$it = compute(\"item\", $it) * 31; // constant\n")
+            append("    String emoji$it = \"😀 text $it\"; /* 中文 */\n")
+            append("\tif (value != null && value.length() > $it) {\n")
+            append("\t\treturn items.get(index + $it);\n")
+            append("\t}\n")
+        }
+    })
+
+    private val registry = MonarchGrammarRegistry().also {
+        it.loadGrammars(
+            monarchLanguages {
+                language("java") {
+                    monarchLanguage = JavaLanguage
+                    defaultScopeName()
+                }
+            }
+        )
+    }
+
+    /**
+     * Tokenize lines like before, by converting lines and token offsets with strings
+     */
+    private fun tokenizeWithStrings(
+        tokenization: ITokenizationSupport,
+        lineC: ContentLine,
+        state: TokenizeState
+    ): Pair<TokenizeState, List<Span>> {
+        val line = lineC.toStringWithNewline()
+        val tokens = ArrayList<Span>()
+        val surrogate = line.checkSurrogate()
+        val lineTokens = tokenization.tokenizeEncoded(line, false, state)
+        val tokensLength = lineTokens.tokens.size / 2
+        val identifiers = mutableListOf<String>()
+        for (index in 0 until tokensLength) {
+            val startIndex = line.convertUnicodeOffsetToUtf16(lineTokens.tokens[2 * index], surrogate)
+            if (index == 0 && startIndex != 0) {
+                tokens.add(SpanFactory.obtainNoExt(0, EditorColorScheme.TEXT_NORMAL.toLong()))
+            }
+            val metadata = lineTokens.tokens[2 * index + 1]
+            val foreground = TokenMetadata.getForeground(metadata)
+            val fontStyle = TokenMetadata.getFontStyle(metadata)
+            val tokenType = TokenMetadata.getTokenType(metadata)
+            if (tokenType == StandardTokenType.Other) {
+                var end = if (index + 1 == tokensLength) lineC.length else
+                    line.convertUnicodeOffsetToUtf16(lineTokens.tokens[2 * (index + 1)], surrogate)
+                var start = startIndex
+                while (start < end && line[start] == ' ') {
+                    start++
+                }
+                while (end > start && line[end - 1] == ' ') {
+                    end--
+                }
+                if (end > start && MyCharacter.isJavaIdentifierStart(line[start])
+                    && (start + 1 until end).all { MyCharacter.isJavaIdentifierPart(line[it]) }
+                ) {
+                    identifiers.add(line.substring(start, end))
+                }
+            }
+            val span = SpanFactory.obtainNoExt(
+                startIndex, TextStyle.makeStyle(
+                    foreground + 255,
+                    0,
+                    (fontStyle and FontStyle.Bold) != 0,
+                    (fontStyle and FontStyle.Italic) != 0,
+                    false
+                )
+            )
+            span.extra = tokenType
+            tokens.add(span)
+        }
+        IndentRange.computeIndentLevel(lineC.backingCharArray, line.length - 1, 4)
+        return lineTokens.endState to tokens
+    }
+
+    private inline fun measure(block: () -> Unit): Long {
+        repeat(ROUNDS / 10) { block() }
+        val start = System.nanoTime()
+        repeat(ROUNDS) { block() }
+        return System.nanoTime() - start
+    }
+
+    @Test
+    fun compareAdapters() {
+        assumeTrue("benchmarks are not enabled", System.getenv("SORA_BENCHMARK") == "true")
+        val analyzer = MonarchLanguage.create("source.java", registry, true).analyzeManager as MonarchAnalyzer
+        val tokenization = registry.languageRegistry.getTokenizer("java")!!
+        val transitionCache = registry.getTransitionCache(tokenization)
+        try {
+            val stringTime = measure {
+                var state = tokenization.getInitialState()
+                for (i in 0 until text.lineCount) {
+                    state = tokenizeWithStrings(tokenization, text.getLine(i), state).first
+                }
+            }
+            fun tokenizeAll() {
+                var state: MonarchState = analyzer.initialState
+                for (i in 0 until text.lineCount) {
+                    state = analyzer.tokenizeLine(text.getLine(i), state, i).state
+                }
+            }
+            val charsTime = measure {
+                // Tokenize every line again, like the string based adapter
+                transitionCache.clear()
+                tokenizeAll()
+            }
+            val cachedTime = measure { tokenizeAll() }
+            println(
+                "String adapter: ${stringTime / 1000000} ms, chars adapter: ${charsTime / 1000000} ms, " +
+                        "chars adapter with transition cache: ${cachedTime / 1000000} ms"
+            )
+        } finally {
+            analyzer.destroy()
+        }
+    }
+
+    companion object {
+        private const val ROUNDS = 50
+    }
+
+}
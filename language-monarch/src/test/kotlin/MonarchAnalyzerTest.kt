@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+import io.github.dingyi222666.monarch.languages.JavaLanguage
+import io.github.rosemoe.sora.langs.monarch.MonarchAnalyzer
+import io.github.rosemoe.sora.langs.monarch.MonarchLanguage
+import io.github.rosemoe.sora.langs.monarch.registry.MonarchGrammarRegistry
+import io.github.rosemoe.sora.langs.monarch.registry.dsl.monarchLanguages
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Check spans and identifiers of [MonarchAnalyzer] on lines with surrogate pairs, whose token offsets
+ * are in UTF-16 code units.
+ */
+class MonarchAnalyzerTest {
+
+    private val lines = listOf(
+        "String emoji = \"😀😀 text\"; // 😀 comment",
+        "int count = emoji.length() + \"𝄞\".length(); /* 中文 😀 */ int after = count;",
+        "  // 😀😀😀",
+        "String value = \"😀\" + total; // 中文",
+        "  return count * after + value;"
+    )
+
+    private fun createAnalyzer(): MonarchAnalyzer {
+        val registry = MonarchGrammarRegistry()
+        registry.loadGrammars(
+            monarchLanguages {
+                language("java") {
+                    monarchLanguage = JavaLanguage
+                    defaultScopeName()
+                }
+            }
+        )
+        return MonarchLanguage.create("source.java", registry, true).analyzeManager as MonarchAnalyzer
+    }
+
+    /**
+     * Tokenize the lines and get span columns and identifiers of each line
+     */
+    private fun tokenize(analyzer: MonarchAnalyzer, lines: List<String>): List<Pair<List<Int>, List<String>>> {
+        var state = analyzer.initialState
+        return lines.mapIndexed { index, line ->
+            val result = analyzer.tokenizeLine(line, state, index)
+            state = result.state
+            result.spans.map { it.column } to result.state.identifiers!!
+        }
+    }
+
+    /**
+     * Replace surrogate pairs with ASCII letters, keeping the UTF-16 offsets of all other chars
+     */
+    private fun replaceSurrogates(line: String) = buildString {
+        for (ch in line) {
+            append(if (Character.isSurrogate(ch)) 'x' else ch)
+        }
+    }
+
+    @Test
+    fun spansOnSurrogateLines() {
+        val analyzer = createAnalyzer()
+        try {
+            val results = tokenize(analyzer, lines)
+            for ((index, result) in results.withIndex()) {
+                val columns = result.first
+                assertTrue("spans of line $index", columns.isNotEmpty())
+                assertEquals("first span of line $index", 0, columns[0])
+                for (i in 1 until columns.size) {
+                    assertTrue("span columns of line $index: $columns", columns[i] > columns[i - 1])
+                }
+                assertTrue("span columns of line $index: $columns", columns.last() < lines[index].length)
+                // No span starts in the middle of a surrogate pair
+                for (column in columns) {
+                    assertTrue("span at $column of line $index", !Character.isLowSurrogate(lines[index][column]))
+                }
+            }
+            // Surrogate pairs in strings and comments do not change the tokens
+            assertEquals(tokenize(analyzer, lines.map { replaceSurrogates(it) }), results)
+        } finally {
+            analyzer.destroy()
+        }
+    }
+
+    @Test
+    fun identifiersOnSurrogateLines() {
+        val analyzer = createAnalyzer()
+        try {
+            val results = tokenize(analyzer, lines)
+            for ((index, result) in results.withIndex()) {
+                val line = lines[index]
+                for (identifier in result.second) {
+                    assertTrue("identifier '$identifier' of line $index", identifier.isNotEmpty())
+                    assertTrue("identifier '$identifier' of line $index", identifier in line)
+                    assertTrue("identifier '$identifier' of line $index", Character.isJavaIdentifierStart(identifier[0]))
+                    assertTrue("identifier '$identifier' of line $index", identifier.all { Character.isJavaIdentifierPart(it) })
+                    // Identifiers come from code, not strings or comments
+                    assertTrue("identifier '$identifier' of line $index", identifier != "text" && identifier != "comment")
+                }
+                // Span of each collected identifier starts at the identifier in UTF-16 code units
+                for (identifier in result.second.distinct()) {
+                    val column = Regex("\\b${Regex.escape(identifier)}\\b").find(line)!!.range.first
+                    assertTrue("span of '$identifier' at $column of line $index: ${result.first}", column in result.first)
+                }
+            }
+            assertTrue(results[0].second.containsAll(listOf("emoji")))
+            assertTrue(results[1].second.containsAll(listOf("count", "emoji", "after")))
+            assertTrue(results[3].second.containsAll(listOf("value", "total")))
+            assertTrue(results[4].second.containsAll(listOf("count", "after", "value")))
+        } finally {
+            analyzer.destroy()
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+import io.github.rosemoe.sora.langs.monarch.utils.RegexCache
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class RegexCacheTest {
+
+    @Test
+    fun regexesAreNotSharedBetweenThreads() {
+        val pattern = "^\\s*//\\s*#?region\\b"
+        val regex = RegexCache.compile(pattern)
+        assertSame(regex, RegexCache.compile(pattern))
+        var otherRegex: Any? = null
+        val thread = Thread {
+            otherRegex = RegexCache.compile(pattern)
+        }
+        thread.start()
+        thread.join()
+        assertNotSame(regex, otherRegex)
+    }
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+import io.github.dingyi222666.monarch.languages.JavaLanguage
+import io.github.dingyi222666.monarch.types.ITokenizationSupport
+import io.github.dingyi222666.monarch.types.TokenizeState
+import io.github.rosemoe.sora.langs.monarch.registry.MonarchGrammarRegistry
+import io.github.rosemoe.sora.langs.monarch.registry.TokenizeTransitionCache
+import io.github.rosemoe.sora.langs.monarch.registry.dsl.monarchLanguages
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+
+/**
+ * [TokenizeTransitionCache] relies on the structural equality of Monarch tokenize states. These tests
+ * check that separate tokenizations create equal states, and that cached results are the same
+ * as tokenizing again.
+ */
+class TokenizeTransitionCacheTest {
+
+    private val lines = listOf(
+        "class A {",
+        "  /* start of comment",
+        "  still comment",
+        "  end */ int a = 1;",
+        "  String s = \"text /* not a comment\";",
+        "  }",
+        "",
+        "  /* start of comment",
+        "  still comment",
+        "  end */ int a = 1;",
+        "}"
+    )
+
+    private fun createTokenizer(): ITokenizationSupport {
+        val registry = MonarchGrammarRegistry()
+        registry.loadGrammars(
+            monarchLanguages {
+                language("java") {
+                    monarchLanguage = JavaLanguage
+                    defaultScopeName()
+                }
+            }
+        )
+        return registry.languageRegistry.getTokenizer("java")!!
+    }
+
+    @Test
+    fun statesFromSeparateTokenizationsAreEqual() {
+        val tokenizer = createTokenizer()
+        val first = tokenizer.tokenizeEncoded("/* comment", false, tokenizer.getInitialState()).endState
+        val second = tokenizer.tokenizeEncoded("/* another", false, tokenizer.getInitialState()).endState
+        assertEquals(first, second)
+        assertEquals(first.hashCode(), second.hashCode())
+        // States in comment and in code are different keys
+        assertNotEquals(tokenizer.getInitialState(), first)
+    }
+
+    @Test
+    fun equalStatesHitTheCache() {
+        val tokenizer = createTokenizer()
+        val cache = TokenizeTransitionCache(16)
+        var tokenizeCount = 0
+        val tokenize = { text: String, state: TokenizeState ->
+            tokenizeCount++
+            tokenizer.tokenizeEncoded(text, false, state)
+        }
+        val first = tokenizer.tokenizeEncoded("/* comment", false, tokenizer.getInitialState()).endState
+        val second = tokenizer.tokenizeEncoded("/* another", false, tokenizer.getInitialState()).endState
+        val result = cache.getOrTokenize("end */ int a;", first, tokenize)
+        assertEquals(1, tokenizeCount)
+        assertEquals(result, cache.getOrTokenize("end */ int a;", second, tokenize))
+        assertEquals(1, tokenizeCount)
+        // The same line out of the comment is tokenized again
+        val outside = cache.getOrTokenize("end */ int a;", tokenizer.getInitialState(), tokenize)
+        assertEquals(2, tokenizeCount)
+        assertNotEquals(result.endState, outside.endState)
+    }
+
+    @Test
+    fun cachedResultsMatchTokenizingAgain() {
+        val tokenizer = createTokenizer()
+        val cache = TokenizeTransitionCache(4)
+        repeat(3) {
+            var cachedState = tokenizer.getInitialState()
+            var state = tokenizer.getInitialState()
+            for (line in lines) {
+                val cached = cache.getOrTokenize(line, cachedState) { text, fromState ->
+                    tokenizer.tokenizeEncoded(text, false, fromState)
+                }
+                val expected = tokenizer.tokenizeEncoded(line, false, state)
+                assertArrayEquals("tokens of '$line'", expected.tokens, cached.tokens)
+                assertEquals("end state of '$line'", expected.endState, cached.endState)
+                cachedState = cached.endState
+                state = expected.endState
+            }
+        }
+    }
+
+}
@@ -64,6 +64,7 @@ dependencies {
     implementation(libs.jdt.annotation)
 
     testImplementation(libs.junit)
+    testImplementation(projects.onigurumaNative)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
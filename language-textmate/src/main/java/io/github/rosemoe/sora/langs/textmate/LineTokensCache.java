@@ -0,0 +1,118 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.eclipse.tm4e.core.grammar.IStateStack;
+import org.eclipse.tm4e.core.grammar.ITokenizeLineResult;
+import org.eclipse.tm4e.core.internal.grammar.StateStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * LRU cache of line tokenization results, keyed by line text and the full incoming grammar state.
+ * <p>
+ * Embedded languages (code blocks in markdown, scripts in html, etc.) tend to produce many lines
+ * with the same text tokenized from the same nested state, and re-tokenizing an edited region walks
+ * over the same lines again until the states converge. States are compared with
+ * {@link StateStack#tokenizesLike(IStateStack, IStateStack)}, which checks every field of the state
+ * that affects tokenizing, so a hit is identical to tokenizing the line again. Results that stopped
+ * early are never cached.
+ * <p>
+ * Token metadata contains font styles from the theme, so the owner should drop the cache when the theme
+ * changes. The cache records the {@link #getGeneration() generation} of the owner it is created for, to
+ * make that possible without touching the cache from other threads.
+ * This class is not thread-safe. It is expected to be confined to the analysis thread.
+ */
+final class LineTokensCache {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final LinkedHashMap<Key, ITokenizeLineResult<int[]>> entries;
+    private final int generation;
+
+    LineTokensCache(int generation) {
+        this(generation, DEFAULT_CAPACITY);
+    }
+
+    LineTokensCache(int generation, int capacity) {
+        this.generation = generation;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ITokenizeLineResult<int[]>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Nullable
+    ITokenizeLineResult<int[]> get(@NonNull String line, @Nullable IStateStack state) {
+        return entries.get(new Key(line, state));
+    }
+
+    void put(@NonNull String line, @Nullable IStateStack state, @NonNull ITokenizeLineResult<int[]> result) {
+        if (!result.isStoppedEarly()) {
+            entries.put(new Key(line, state), result);
+        }
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    private static final class Key {
+
+        private final String line;
+        private final IStateStack state;
+        private final int hash;
+
+        Key(String line, IStateStack state) {
+            this.line = line;
+            this.state = state;
+            this.hash = 31 * line.hashCode() + Objects.hashCode(state);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            var key = (Key) o;
+            return hash == key.hash && line.equals(key.line) && StateStack.tokenizesLike(state, key.state);
+        }
+    }
+
+}
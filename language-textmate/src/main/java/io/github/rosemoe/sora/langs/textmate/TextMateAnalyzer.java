@@ -24,19 +24,18 @@
 package io.github.rosemoe.sora.langs.textmate;
 
 import android.annotation.SuppressLint;
-import android.graphics.Color;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 
 import org.eclipse.tm4e.core.grammar.IGrammar;
+import org.eclipse.tm4e.core.internal.grammar.ScopePathIds;
 import org.eclipse.tm4e.core.internal.grammar.tokenattrs.EncodedTokenAttributes;
 import org.eclipse.tm4e.core.internal.grammar.tokenattrs.StandardTokenType;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigResult;
 import org.eclipse.tm4e.core.internal.oniguruma.Oniguruma;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExp;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
-import org.eclipse.tm4e.core.internal.theme.FontStyle;
 import org.eclipse.tm4e.core.internal.theme.Theme;
 import org.eclipse.tm4e.languageconfiguration.internal.model.LanguageConfiguration;
 
@@ -45,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
 import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
@@ -53,7 +53,6 @@ import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.SpanFactory;
-import io.github.rosemoe.sora.lang.styling.TextStyle;
 import io.github.rosemoe.sora.langs.textmate.folding.FoldingHelper;
 import io.github.rosemoe.sora.langs.textmate.folding.IndentRange;
 import io.github.rosemoe.sora.langs.textmate.registry.ThemeRegistry;
@@ -69,6 +68,17 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
     private final IGrammar grammar;
     private Theme theme;
+    private volatile TokenStyleCache styleCache;
+    /**
+     * Scope path ids of this document, returned to the shared id space on destroy
+     */
+    private final ScopePathIds scopePathIds = new ScopePathIds();
+    /**
+     * Line tokens caches are confined to the analysis thread. Other threads only bump the generation to
+     * make the analysis thread drop its cache.
+     */
+    private final ThreadLocal<LineTokensCache> lineTokensCache = new ThreadLocal<>();
+    private final AtomicInteger lineTokensGeneration = new AtomicInteger();
     private final TextMateLanguage language;
     private final LanguageConfiguration configuration;
 
@@ -86,6 +96,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         this.language = language;
 
         this.theme = themeRegistry.getCurrentThemeModel().getTheme();
+        this.styleCache = new TokenStyleCache();
 
         this.grammar = grammar;
 
@@ -204,28 +215,45 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         getManagedStyles().setIndentCountMode(true);
     }
 
+    private LineTokensCache obtainLineTokensCache() {
+        var generation = lineTokensGeneration.get();
+        var cache = lineTokensCache.get();
+        if (cache == null || cache.getGeneration() != generation) {
+            cache = new LineTokensCache(generation);
+            lineTokensCache.set(cache);
+        }
+        return cache;
+    }
+
     @Override
     @SuppressLint("NewApi")
     public synchronized LineTokenizeResult<MyState, Span> tokenizeLine(CharSequence lineC, MyState state, int lineIndex) {
         String line = (lineC instanceof ContentLine) ? ((ContentLine) lineC).toStringWithNewline() : lineC.toString();
         var tokens = new ArrayList<Span>();
         var surrogate = StringUtils.checkSurrogate(line);
-        var lineTokens = grammar.tokenizeLine2(line, state == null ? null : state.tokenizeState, Duration.ofSeconds(2));
-        int tokensLength = lineTokens.getTokens().length / 2;
+        var styleCache = this.styleCache;
+        var prevState = state == null ? null : state.tokenizeState;
+        var lineTokensCache = obtainLineTokensCache();
+        var lineTokens = lineTokensCache.get(line, prevState);
+        if (lineTokens == null) {
+            lineTokens = grammar.tokenizeLineWithScopePaths(line, prevState, Duration.ofSeconds(2), scopePathIds);
+            lineTokensCache.put(line, prevState, lineTokens);
+        }
+        var rawTokens = lineTokens.getTokens();
+        int tokensLength = rawTokens.length / 3;
         var identifiers = language.createIdentifiers ? new ArrayList<String>() : null;
         for (int i = 0; i < tokensLength; i++) {
-            int startIndex = StringUtils.convertUnicodeOffsetToUtf16(line, lineTokens.getTokens()[2 * i], surrogate);
+            int startIndex = StringUtils.convertUnicodeOffsetToUtf16(line, rawTokens[3 * i], surrogate);
             if (i == 0 && startIndex != 0) {
                 tokens.add(SpanFactory.obtainNoExt(0, EditorColorScheme.TEXT_NORMAL));
             }
-            int metadata = lineTokens.getTokens()[2 * i + 1];
-            int foreground = EncodedTokenAttributes.getForeground(metadata);
-            int fontStyle = EncodedTokenAttributes.getFontStyle(metadata);
+            int metadata = rawTokens[3 * i + 1];
+            int scopePathId = rawTokens[3 * i + 2];
             var tokenType = EncodedTokenAttributes.getTokenType(metadata);
             if (language.createIdentifiers) {
 
                 if (tokenType == StandardTokenType.Other) {
-                    var end = i + 1 == tokensLength ? lineC.length() : StringUtils.convertUnicodeOffsetToUtf16(line, lineTokens.getTokens()[2 * (i + 1)], surrogate);
+                    var end = i + 1 == tokensLength ? lineC.length() : StringUtils.convertUnicodeOffsetToUtf16(line, rawTokens[3 * (i + 1)], surrogate);
                     if (end > startIndex && MyCharacter.isJavaIdentifierStart(line.charAt(startIndex))) {
                         var flag = true;
                         for (int j = startIndex + 1; j < end; j++) {
@@ -240,15 +268,16 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
                     }
                 }
             }
-            Span span = SpanFactory.obtainNoExt(startIndex, TextStyle.makeStyle(foreground + 255, 0, (fontStyle & FontStyle.Bold) != 0, (fontStyle & FontStyle.Italic) != 0, false));
+            int styleSlot = styleCache.obtainSlot(scopePathId, metadata);
+            var underlineColor = styleCache.getUnderlineColor(styleSlot);
+            // Only spans with extension attributes can hold an underline color
+            Span span = underlineColor == null ? SpanFactory.obtainNoExt(startIndex, styleCache.getStyle(styleSlot))
+                    : SpanFactory.obtain(startIndex, styleCache.getStyle(styleSlot));
 
             span.setExtra(tokenType);
 
-            if ((fontStyle & FontStyle.Underline) != 0) {
-                String color = theme.getColor(foreground);
-                if (color != null) {
-                    span.setUnderlineColor(Color.parseColor(color));
-                }
+            if (underlineColor != null) {
+                span.setUnderlineColor(underlineColor);
             }
 
             tokens.add(span);
@@ -280,12 +309,14 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
     public void reset(@NonNull ContentReference content, @NonNull Bundle extraArguments) {
         super.reset(content, extraArguments);
         syncIdentifiers.clear();
+        lineTokensGeneration.incrementAndGet();
     }
 
     @Override
     public void destroy() {
         super.destroy();
         themeRegistry.removeListener(this);
+        scopePathIds.release();
     }
 
     @Override
@@ -295,6 +326,26 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
     @Override
     public void onChangeTheme(ThemeModel newTheme) {
+        var oldTheme = this.theme;
         this.theme = newTheme.getTheme();
+        if (oldTheme == theme) {
+            return;
+        }
+        var oldStyleCache = this.styleCache;
+        this.styleCache = new TokenStyleCache();
+        lineTokensGeneration.incrementAndGet();
+        // Colors of existing spans are resolved against the new theme when rendering. Only font styles
+        // are stored in spans, so the document is analyzed again only if they are changed, or some spans
+        // have taken colors of the old theme because no scope path id was available.
+        if (oldStyleCache.isThemeColorsUsed() || fontStylesDiffer(oldTheme, theme)) {
+            rerun();
+        }
+    }
+
+    private boolean fontStylesDiffer(Theme oldTheme, Theme newTheme) {
+        if (oldTheme == null || newTheme == null) {
+            return true;
+        }
+        return scopePathIds.anyPathMatches(path -> oldTheme.resolveFontStyle(path) != newTheme.resolveFontStyle(path));
     }
 }
@@ -27,6 +27,7 @@ import android.graphics.Color;
 
 import androidx.annotation.NonNull;
 
+import org.eclipse.tm4e.core.internal.grammar.ScopePathIds;
 import org.eclipse.tm4e.core.internal.theme.Theme;
 import org.eclipse.tm4e.core.internal.theme.raw.IRawTheme;
 import org.eclipse.tm4e.core.internal.theme.raw.RawTheme;
@@ -53,6 +54,8 @@ public class TextMateColorScheme extends EditorColorScheme implements ThemeRegis
 
     private final ThemeRegistry themeRegistry;
 
+    private int scopePathIdsGeneration = ScopePathIds.getReleaseGeneration();
+
     public TextMateColorScheme(ThemeRegistry themeRegistry, ThemeModel themeModel) {
         this.themeRegistry = themeRegistry;
         currentTheme = themeModel;
@@ -313,14 +316,34 @@ public class TextMateColorScheme extends EditorColorScheme implements ThemeRegis
 
     @Override
     public int getColor(int type) {
-        if (type >= 255) {
+        if (type >= TokenStyleCache.COLOR_ID_BASE) {
+            if (type < TokenStyleCache.THEME_COLOR_ID_BASE) {
+                // Scope path ids can be recycled, drop colors cached for them
+                var generation = ScopePathIds.getReleaseGeneration();
+                if (generation != scopePathIdsGeneration) {
+                    scopePathIdsGeneration = generation;
+                    clearScopePathColors();
+                }
+            }
             // Cache colors in super class
             var superColor = super.getColor(type);
             if (superColor == 0) {
                 if (theme != null) {
+                    int foreground;
+                    if (type >= TokenStyleCache.THEME_COLOR_ID_BASE) {
+                        // Spans without scope path id refer to the color map of theme
+                        foreground = type - TokenStyleCache.THEME_COLOR_ID_BASE;
+                    } else {
+                        // Color ids of TextMate spans are scope path ids, resolved against current theme
+                        var scopePath = ScopePathIds.getPath(type - TokenStyleCache.COLOR_ID_BASE);
+                        if (scopePath == null) {
+                            return super.getColor(TEXT_NORMAL);
+                        }
+                        foreground = theme.resolveForeground(scopePath);
+                    }
                     String color;
                     try {
-                        color = theme.getColor(type - 255);
+                        color = theme.getColor(foreground);
                     } catch (IndexOutOfBoundsException e) {
                         return super.getColor(TEXT_NORMAL);
                     }
@@ -337,6 +360,15 @@ public class TextMateColorScheme extends EditorColorScheme implements ThemeRegis
         return super.getColor(type);
     }
 
+    private void clearScopePathColors() {
+        for (int i = super.colors.size() - 1; i >= 0; i--) {
+            var key = super.colors.keyAt(i);
+            if (key >= TokenStyleCache.COLOR_ID_BASE && key < TokenStyleCache.THEME_COLOR_ID_BASE) {
+                super.colors.removeAt(i);
+            }
+        }
+    }
+
     @Override
     public void detachEditor(@NonNull CodeEditor editor) {
         super.detachEditor(editor);
@@ -351,8 +383,8 @@ public class TextMateColorScheme extends EditorColorScheme implements ThemeRegis
         } catch (Exception e) {
             //throw new RuntimeException(e);
         }
+        // Spans refer to scope paths instead of theme colors, a repaint is enough
         setTheme(currentTheme);
-        editor.rerunAnalysis();
     }
 
     @Deprecated
@@ -0,0 +1,110 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate;
+
+import org.eclipse.tm4e.core.internal.grammar.ScopePathIds;
+import org.eclipse.tm4e.core.internal.grammar.tokenattrs.EncodedTokenAttributes;
+import org.eclipse.tm4e.core.internal.theme.FontStyle;
+
+import io.github.rosemoe.sora.lang.styling.TextStyle;
+import io.github.rosemoe.sora.lang.styling.color.EditorColor;
+import io.github.rosemoe.sora.lang.styling.color.ResolvableColor;
+
+/**
+ * Bounded cache from scope path ids to the final packed {@link TextStyle} and underline color.
+ * <p>
+ * The foreground color id of a style is {@link #COLOR_ID_BASE} plus the theme independent scope
+ * path id, and it is resolved against the active theme by {@link TextMateColorScheme} when rendering.
+ * Only font style bits come from the theme at tokenization time. Tokens without a scope path id, because
+ * the id space is exhausted, use {@link #THEME_COLOR_ID_BASE} plus the foreground of the theme at tokenization
+ * time instead. The cache is direct-mapped: a colliding entry simply replaces the old one. A new cache is
+ * created when the theme changes.
+ */
+final class TokenStyleCache {
+
+    /**
+     * Color ids from this value are scope path ids
+     */
+    static final int COLOR_ID_BASE = 255;
+
+    /**
+     * Color ids from this value are foreground indices in the color map of the theme
+     */
+    static final int THEME_COLOR_ID_BASE = COLOR_ID_BASE + ScopePathIds.MAX_ID;
+
+    private static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * Slot for tokens without scope path id, which is computed again for every token
+     */
+    private static final int FALLBACK_SLOT = 0;
+
+    private final int[] keys = new int[CAPACITY];
+    private final long[] styles = new long[CAPACITY];
+    private final ResolvableColor[] underlineColors = new ResolvableColor[CAPACITY];
+
+    private volatile boolean themeColorsUsed;
+
+    /**
+     * Get the slot for the given scope path id, computing its style from the token metadata on cache miss
+     */
+    int obtainSlot(int scopePathId, int metadata) {
+        int slot = scopePathId == 0 ? FALLBACK_SLOT : ((scopePathId * 0x9E3779B9) >>> 24) & MASK;
+        // Id 0 is never assigned, so empty slots never match
+        if (keys[slot] != scopePathId || scopePathId == 0) {
+            int fontStyle = EncodedTokenAttributes.getFontStyle(metadata);
+            int colorId;
+            if (scopePathId == 0) {
+                colorId = THEME_COLOR_ID_BASE + EncodedTokenAttributes.getForeground(metadata);
+                themeColorsUsed = true;
+            } else {
+                colorId = COLOR_ID_BASE + scopePathId;
+            }
+            keys[slot] = scopePathId;
+            styles[slot] = TextStyle.makeStyle(colorId, 0, (fontStyle & FontStyle.Bold) != 0, (fontStyle & FontStyle.Italic) != 0, false);
+            underlineColors[slot] = (fontStyle & FontStyle.Underline) != 0 ? new EditorColor(colorId) : null;
+        }
+        return slot;
+    }
+
+    /**
+     * Check whether any style has taken its color from the theme at tokenization time
+     */
+    boolean isThemeColorsUsed() {
+        return themeColorsUsed;
+    }
+
+    long getStyle(int slot) {
+        return styles[slot];
+    }
+
+    /**
+     * @return the underline color, or null if the token is not underlined
+     */
+    ResolvableColor getUnderlineColor(int slot) {
+        return underlineColors[slot];
+    }
+
+}
@@ -28,6 +28,7 @@ import android.util.Pair;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tm4e.core.grammar.IGrammar;
 import org.eclipse.tm4e.core.registry.IGrammarSource;
+import org.eclipse.tm4e.core.registry.IRegistryOptions;
 import org.eclipse.tm4e.core.registry.IThemeSource;
 import org.eclipse.tm4e.core.registry.Registry;
 import org.eclipse.tm4e.languageconfiguration.internal.model.LanguageConfiguration;
@@ -38,6 +39,9 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import io.github.rosemoe.sora.langs.textmate.TextMateLanguage;
@@ -46,12 +50,40 @@ import io.github.rosemoe.sora.langs.textmate.registry.model.GrammarDefinition;
 import io.github.rosemoe.sora.langs.textmate.registry.model.ThemeModel;
 import io.github.rosemoe.sora.langs.textmate.registry.provider.FileResolver;
 import io.github.rosemoe.sora.langs.textmate.registry.reader.LanguageDefinitionReader;
+import io.github.rosemoe.sora.util.Logger;
 
 public class GrammarRegistry {
 
+    private static final Logger LOG = Logger.instance("GrammarRegistry");
+
     private static GrammarRegistry instance;
 
-    private Registry registry = new Registry();
+    /**
+     * Definitions registered by {@link #registerGrammar(GrammarDefinition)} but not parsed yet
+     */
+    private final Map</* scopeName */String, GrammarDefinition> pendingGrammarDefinitions = new ConcurrentHashMap<>();
+
+    /**
+     * Pending definitions whose raw grammar has been read by the registry to resolve includes of other grammars.
+     * Their language configuration and grammar ids are set up on first lookup, without parsing them again
+     */
+    private final Map</* scopeName */String, GrammarDefinition> includedGrammarDefinitions = new ConcurrentHashMap<>();
+
+    private Registry registry = new Registry(new IRegistryOptions() {
+        @Nullable
+        @Override
+        public IGrammarSource getGrammarSource(String scopeName) {
+            // Grammars included by other grammars are resolved from pending definitions
+            var grammarDefinition = pendingGrammarDefinitions.remove(scopeName);
+            if (grammarDefinition == null) {
+                return null;
+            }
+            includedGrammarDefinitions.put(scopeName, grammarDefinition);
+            return grammarDefinition.getGrammar();
+        }
+    });
+
+    private ExecutorService warmUpExecutor;
 
     private GrammarRegistry parent;
 
@@ -101,6 +133,12 @@ public class GrammarRegistry {
 
     public IGrammar findGrammar(String scopeName, boolean findInParent) {
 
+        var pendingDefinition = findPendingDefinition(scopeName);
+
+        if (pendingDefinition != null) {
+            return loadGrammar(pendingDefinition);
+        }
+
         var grammar = registry.grammarForScopeName(scopeName);
 
         if (grammar != null) {
@@ -120,6 +158,12 @@ public class GrammarRegistry {
     }
 
 
+    @Nullable
+    private GrammarDefinition findPendingDefinition(String scopeName) {
+        var pendingDefinition = pendingGrammarDefinitions.get(scopeName);
+        return pendingDefinition != null ? pendingDefinition : includedGrammarDefinitions.get(scopeName);
+    }
+
     /**
      * Adapted to use streams to read and load language configuration files by yourself {@link TextMateLanguage#create(IGrammarSource, Reader, IThemeSource)}.
      *
@@ -139,6 +183,13 @@ public class GrammarRegistry {
 
     @Nullable
     public LanguageConfiguration findLanguageConfiguration(String scopeName, boolean findInParent) {
+        var pendingDefinition = findPendingDefinition(scopeName);
+
+        if (pendingDefinition != null) {
+            // Language configuration is read together with its grammar
+            loadGrammar(pendingDefinition);
+        }
+
         var languageConfiguration = languageConfigurationMap.get(scopeName);
 
         if (languageConfiguration != null) {
@@ -178,16 +229,103 @@ public class GrammarRegistry {
         return loadGrammars(LanguageDefinitionReader.read(jsonPath));
     }
 
+    /**
+     * Register the given grammar definitions without reading them.
+     * <p>
+     * Each grammar is parsed on its first {@link #findGrammar(String)} call, or when it is included
+     * by another grammar. Definitions without a declared scope name are loaded immediately.
+     *
+     * @see #warmUpGrammars(List, int)
+     */
+    public void registerGrammars(LanguageDefinitionListBuilder builder) {
+        registerGrammars(builder.build());
+    }
+
+    public void registerGrammars(String jsonPath) {
+        registerGrammars(LanguageDefinitionReader.read(jsonPath));
+    }
+
+    public synchronized void registerGrammars(List<GrammarDefinition> list) {
+        prepareLoadGrammars(list);
+        for (var grammarDefinition : list) {
+            registerGrammar(grammarDefinition);
+        }
+    }
+
+    public synchronized void registerGrammar(GrammarDefinition grammarDefinition) {
+        var scopeName = grammarDefinition.getScopeName();
+
+        if (scopeName == null) {
+            // The scope name is only known after parsing
+            loadGrammar(grammarDefinition);
+            return;
+        }
+
+        if (scopeName2GrammarDefinition.containsKey(scopeName) || includedGrammarDefinitions.containsKey(scopeName)) {
+            //loaded
+            return;
+        }
+
+        getOrPullGrammarId(scopeName);
+        pendingGrammarDefinitions.put(scopeName, grammarDefinition);
+    }
+
+    /**
+     * Parse and compile the first {@code limit} grammars of the given scope names on a background thread.
+     * Callers should order the scope names by likelihood of use, for example by recently opened file types.
+     */
+    public void warmUpGrammars(List<String> scopeNames, int limit) {
+        var count = Math.min(limit, scopeNames.size());
+        for (int i = 0; i < count; i++) {
+            warmUpGrammar(scopeNames.get(i));
+        }
+    }
+
+    public synchronized void warmUpGrammar(String scopeName) {
+        if (registry == null) {
+            return;
+        }
+        if (warmUpExecutor == null) {
+            warmUpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                var thread = new Thread(runnable, "GrammarWarmUp");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        warmUpExecutor.execute(() -> {
+            try {
+                var grammar = findGrammar(scopeName, false);
+                if (grammar != null) {
+                    // Compiles the root rule and its scanner
+                    grammar.tokenizeLine2("");
+                }
+            } catch (Exception e) {
+                LOG.w("Failed to warm up grammar " + scopeName, e);
+            }
+        });
+    }
+
     public synchronized IGrammar loadGrammar(GrammarDefinition grammarDefinition) {
         var languageName = grammarDefinition.getName();
+        var scopeName = grammarDefinition.getScopeName();
 
-        if (grammarFileName2ScopeName.containsKey(languageName) && grammarDefinition.getScopeName() != null) {
+        if (grammarFileName2ScopeName.containsKey(languageName) && scopeName != null) {
             //loaded
-            return registry.grammarForScopeName(grammarDefinition.getScopeName());
+            pendingGrammarDefinitions.remove(scopeName);
+            return registry.grammarForScopeName(scopeName);
         }
 
+        // Grammars read for includes are already in the registry
+        var included = scopeName != null && includedGrammarDefinitions.containsKey(scopeName);
+
+        var grammar = doLoadGrammar(grammarDefinition, included);
 
-        var grammar = doLoadGrammar(grammarDefinition);
+        // Keep the definition pending while loading, so that includes can still be resolved
+        if (scopeName != null) {
+            pendingGrammarDefinitions.remove(scopeName);
+            includedGrammarDefinitions.remove(scopeName);
+        }
 
         if (grammarDefinition.getScopeName() != null) {
             grammarFileName2ScopeName.put(languageName, grammarDefinition.getScopeName());
@@ -199,7 +337,7 @@ public class GrammarRegistry {
     }
 
 
-    private synchronized IGrammar doLoadGrammar(GrammarDefinition grammarDefinition) {
+    private synchronized IGrammar doLoadGrammar(GrammarDefinition grammarDefinition, boolean included) {
 
         var languageConfigurationPath = grammarDefinition.getLanguageConfiguration();
 
@@ -221,7 +359,13 @@ public class GrammarRegistry {
 
         IGrammar grammar;
 
-        if (!grammarDefinition.getEmbeddedLanguages().isEmpty()) {
+        if (included) {
+            grammar = registry.loadGrammarWithEmbeddedLanguages(
+                    grammarDefinition.getScopeName(),
+                    getOrPullGrammarId(grammarDefinition.getScopeName()),
+                    findGrammarIds(grammarDefinition.getEmbeddedLanguages())
+            );
+        } else if (!grammarDefinition.getEmbeddedLanguages().isEmpty()) {
             grammar = registry.addGrammar(grammarDefinition.getGrammar());
         } else {
             grammar = registry.addGrammar(
@@ -285,7 +429,20 @@ public class GrammarRegistry {
             return name;
         }
         var grammarName = grammarFileName2ScopeName.get(name);
-        return grammarName == null ? name : grammarName;
+        if (grammarName != null) {
+            return grammarName;
+        }
+        for (var grammarDefinition : pendingGrammarDefinitions.values()) {
+            if (name.equals(grammarDefinition.getName())) {
+                return grammarDefinition.getScopeName();
+            }
+        }
+        for (var grammarDefinition : includedGrammarDefinitions.values()) {
+            if (name.equals(grammarDefinition.getName())) {
+                return grammarDefinition.getScopeName();
+            }
+        }
+        return name;
     }
 
     public synchronized void dispose(boolean closeParent) {
@@ -295,6 +452,12 @@ public class GrammarRegistry {
         }
 
         registry = null;
+        if (warmUpExecutor != null) {
+            warmUpExecutor.shutdownNow();
+            warmUpExecutor = null;
+        }
+        pendingGrammarDefinitions.clear();
+        includedGrammarDefinitions.clear();
         grammarFileName2ScopeName.clear();
         languageConfigurationMap.clear();
         scopeName2GrammarId.clear();
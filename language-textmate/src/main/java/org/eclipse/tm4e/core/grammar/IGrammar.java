@@ -20,6 +20,7 @@ import java.time.Duration;
 import java.util.Collection;
 
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tm4e.core.internal.grammar.ScopePathIds;
 
 /**
  * TextMate grammar API.
@@ -122,4 +123,15 @@ public interface IGrammar {
 	 *            {@link ITokenizeLineResult#isStoppedEarly()} set to <code>true</code>
 	 */
 	ITokenizeLineResult<int[]> tokenizeLine2(String lineText, @Nullable IStateStack prevState, @Nullable Duration timeLimit);
+
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * same as {@link #tokenizeLine2(String, IStateStack, Duration)}, but each token is stored in three elements:
+	 * <code>token[3*i]</code> is the start offset, <code>token[3*i+1]</code> the metadata and <code>token[3*i+2]</code>
+	 * the theme independent scope path id of the token in the given table, or 0 if the table has no more ids.
+	 *
+	 * @see ScopePathIds
+	 */
+	ITokenizeLineResult<int[]> tokenizeLineWithScopePaths(String lineText, @Nullable IStateStack prevState, @Nullable Duration timeLimit,
+			ScopePathIds scopePathIds);
 }
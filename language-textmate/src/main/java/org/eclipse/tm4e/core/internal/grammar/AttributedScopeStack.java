@@ -72,6 +72,15 @@ public final class AttributedScopeStack {
 		return this.scopePath.scopeName;
 	}
 
+	ScopeStack scopePath() {
+		return this.scopePath;
+	}
+
+	@Nullable
+	AttributedScopeStack parent() {
+		return this.parent;
+	}
+
 	private final @Nullable AttributedScopeStack parent;
 	private final ScopeStack scopePath;
 	final int tokenAttributes;
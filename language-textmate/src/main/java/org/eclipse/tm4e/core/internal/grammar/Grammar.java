@@ -257,7 +257,7 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
 	public ITokenizeLineResult<IToken[]> tokenizeLine(final String lineText,
 			@Nullable final IStateStack prevState,
 			@Nullable final Duration timeLimit) {
-		return _tokenize(lineText, (StateStack) prevState, false, timeLimit);
+		return _tokenize(lineText, (StateStack) prevState, false, null, timeLimit);
 	}
 
 	@Override
@@ -268,7 +268,13 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
 	@Override
 	public ITokenizeLineResult<int[]> tokenizeLine2(final String lineText, @Nullable final IStateStack prevState,
 			@Nullable final Duration timeLimit) {
-		return _tokenize(lineText, (StateStack) prevState, true, timeLimit);
+		return _tokenize(lineText, (StateStack) prevState, true, null, timeLimit);
+	}
+
+	@Override
+	public ITokenizeLineResult<int[]> tokenizeLineWithScopePaths(final String lineText, @Nullable final IStateStack prevState,
+			@Nullable final Duration timeLimit, final ScopePathIds scopePathIds) {
+		return _tokenize(lineText, (StateStack) prevState, true, scopePathIds, timeLimit);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -276,6 +282,7 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
 			String lineText,
 			@Nullable StateStack prevState,
 			final boolean emitBinaryTokens,
+			@Nullable final ScopePathIds scopePathIds,
 			@Nullable final Duration timeLimit) {
 
         if (this._rootId == null) {
@@ -343,6 +350,7 @@ public final class Grammar implements IGrammar, IRuleFactoryHelper {
 		final int lineLength = lineText.length();
 		final var lineTokens = new LineTokens(
 				emitBinaryTokens,
+				scopePathIds,
 				lineText,
 				_tokenTypeMatchers,
 				balancedBracketSelectors);
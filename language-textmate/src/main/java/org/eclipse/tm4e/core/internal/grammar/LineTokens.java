@@ -84,6 +84,14 @@ final class LineTokens {
 
 	private final boolean _emitBinaryTokens;
 
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * when set, binary tokens have a third element holding the {@link ScopeStack#getId(ScopePathIds) scope path id}
+	 * in this table
+	 */
+	@Nullable
+	private final ScopePathIds _scopePathIds;
+
 	/**
 	 * defined only if `LOGGER.isLoggable(TRACE)`.
 	 */
@@ -110,8 +118,17 @@ final class LineTokens {
 			final String lineText,
 			final List<TokenTypeMatcher> tokenTypeOverrides,
 			@Nullable final BalancedBracketSelectors balancedBracketSelectors) {
+		this(emitBinaryTokens, null, lineText, tokenTypeOverrides, balancedBracketSelectors);
+	}
+
+	LineTokens(final boolean emitBinaryTokens,
+			@Nullable final ScopePathIds scopePathIds,
+			final String lineText,
+			final List<TokenTypeMatcher> tokenTypeOverrides,
+			@Nullable final BalancedBracketSelectors balancedBracketSelectors) {
 
 		this._emitBinaryTokens = emitBinaryTokens;
+		this._scopePathIds = emitBinaryTokens ? scopePathIds : null;
 		this._tokenTypeOverrides = tokenTypeOverrides;
 		this._lineText = /*LOGGER.isLoggable(TRACE) ? lineText :*/ ""; // store line only if it's logged
 		if (this._emitBinaryTokens) {
@@ -174,6 +191,23 @@ final class LineTokens {
 						0);
 			}
 
+			final var scopePathIds = this._scopePathIds;
+			if (scopePathIds != null) {
+				final int scopePathId = scopesList != null ? scopesList.scopePath().getId(scopePathIds) : 0;
+				if (!this._binaryTokens.isEmpty() && getLastElement(this._binaryTokens) == scopePathId
+						&& getElementAt(this._binaryTokens, -2) == metadata) {
+					// no need to push a token with the same metadata and scope path
+					this._lastTokenEndIndex = endIndex;
+					return;
+				}
+				this._binaryTokens.add(this._lastTokenEndIndex);
+				this._binaryTokens.add(metadata);
+				this._binaryTokens.add(scopePathId);
+
+				this._lastTokenEndIndex = endIndex;
+				return;
+			}
+
 			if (!this._binaryTokens.isEmpty() && getLastElement(this._binaryTokens) == metadata) {
 				// no need to push a token with the same metadata
 				this._lastTokenEndIndex = endIndex;
@@ -231,16 +265,18 @@ final class LineTokens {
 	}
 
 	int[] getBinaryResult(final StateStack stack, final int lineLength) {
-		if (!this._binaryTokens.isEmpty() && getElementAt(this._binaryTokens, -2) == lineLength - 1) {
+		final int stride = this._scopePathIds != null ? 3 : 2;
+		if (!this._binaryTokens.isEmpty() && getElementAt(this._binaryTokens, -stride) == lineLength - 1) {
 			// pop produced token for newline
-			removeLastElement(this._binaryTokens);
-			removeLastElement(this._binaryTokens);
+			for (int i = 0; i < stride; i++) {
+				removeLastElement(this._binaryTokens);
+			}
 		}
 
 		if (this._binaryTokens.isEmpty()) {
 			this._lastTokenEndIndex = -1;
 			this.produce(stack, lineLength);
-			this._binaryTokens.set(_binaryTokens.size() - 2, 0);
+			this._binaryTokens.set(_binaryTokens.size() - stride, 0);
 		}
 
 		return _binaryTokens.stream().mapToInt(Integer::intValue).toArray();
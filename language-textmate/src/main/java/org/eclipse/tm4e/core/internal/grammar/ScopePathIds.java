@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2024 Rosemoe.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.eclipse.tm4e.core.internal.grammar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * this code is specific to sora-editor and not from upstream:
+ * interning of scope paths into small integer ids, owned by a single user of the tokenizer such as an analyzer.
+ * <p>
+ * An id only depends on the scope names of the path, not on the theme. So a token can be
+ * stored with its scope path id and its style can be resolved against whatever theme is active
+ * when it is rendered.
+ * <p>
+ * All tables share one bounded id space, which is handed out in chunks so that ids of different tables
+ * never collide. Chunks are recycled once their table is {@link #release() released}. When the id space
+ * or the chunk quota of the table is exhausted, id 0 is returned and callers are expected to fall back
+ * to theme resolved styles. Id 0 is never assigned.
+ */
+public final class ScopePathIds {
+
+	/**
+	 * Assigned ids are in range [1, MAX_ID)
+	 */
+	public static final int MAX_ID = 1 << 18;
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int CHUNK_COUNT = MAX_ID >> CHUNK_SHIFT;
+
+	/**
+	 * Max chunk count of a single table, so that one document can not take up the whole id space
+	 */
+	private static final int MAX_CHUNKS_PER_TABLE = 64;
+
+	/**
+	 * Scope paths of all allocated chunks, null for free chunks
+	 */
+	private static final AtomicReferenceArray<@Nullable AtomicReferenceArray<@Nullable ScopeStack>> chunks = new AtomicReferenceArray<>(CHUNK_COUNT);
+
+	private static volatile int releaseGeneration;
+
+	private static int nextChunkHint;
+
+	private final Map<String, Integer> scopeNameIds = new ConcurrentHashMap<>();
+	private final Map<Long, Integer> pathIds = new ConcurrentHashMap<>();
+
+	// guarded by this
+	private final List<Integer> ownedChunks = new ArrayList<>();
+	private int nextId;
+	private boolean released;
+
+	/**
+	 * Get the id of the given scope path in this table, whose parent has the given id
+	 *
+	 * @return the id, or 0 if no more id can be assigned
+	 */
+	int obtain(final int parentId, final ScopeStack path) {
+		final var nameId = scopeNameIds.get(path.scopeName);
+		if (nameId != null) {
+			final var id = pathIds.get(key(parentId, nameId));
+			if (id != null) {
+				return id;
+			}
+		}
+		return obtainSlow(parentId, path);
+	}
+
+	private synchronized int obtainSlow(final int parentId, final ScopeStack path) {
+		if (released) {
+			return 0;
+		}
+		var nameId = scopeNameIds.get(path.scopeName);
+		if (nameId == null) {
+			nameId = scopeNameIds.size();
+			scopeNameIds.put(path.scopeName, nameId);
+		}
+		final long key = key(parentId, nameId);
+		var id = pathIds.get(key);
+		if (id != null) {
+			return id;
+		}
+		if ((nextId & CHUNK_MASK) == 0) {
+			if (ownedChunks.size() >= MAX_CHUNKS_PER_TABLE) {
+				return 0;
+			}
+			final int chunk = allocateChunk();
+			if (chunk < 0) {
+				return 0;
+			}
+			ownedChunks.add(chunk);
+			// never assign id 0
+			nextId = chunk == 0 ? 1 : chunk << CHUNK_SHIFT;
+		}
+		id = nextId++;
+		castNonNullChunk(id).set(id & CHUNK_MASK, path);
+		pathIds.put(key, id);
+		return id;
+	}
+
+	/**
+	 * Test whether any scope path of this table matches the given predicate
+	 */
+	public boolean anyPathMatches(final Predicate<ScopeStack> predicate) {
+		final Integer[] owned;
+		synchronized (this) {
+			owned = ownedChunks.toArray(new Integer[0]);
+		}
+		for (final var chunkIndex : owned) {
+			final var chunk = chunks.get(chunkIndex);
+			if (chunk == null) {
+				continue;
+			}
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				final var path = chunk.get(i);
+				if (path != null && predicate.test(path)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the ids of this table to the shared id space. The table assigns no more ids after this call.
+	 */
+	public void release() {
+		final Integer[] owned;
+		synchronized (this) {
+			released = true;
+			owned = ownedChunks.toArray(new Integer[0]);
+			ownedChunks.clear();
+			pathIds.clear();
+		}
+		synchronized (ScopePathIds.class) {
+			for (final var chunkIndex : owned) {
+				chunks.set(chunkIndex, null);
+			}
+			releaseGeneration++;
+		}
+	}
+
+	/**
+	 * Get the scope path of the given id, or null if the id is not assigned
+	 */
+	@Nullable
+	public static ScopeStack getPath(final int id) {
+		if (id <= 0 || id >= MAX_ID) {
+			return null;
+		}
+		final var chunk = chunks.get(id >> CHUNK_SHIFT);
+		return chunk == null ? null : chunk.get(id & CHUNK_MASK);
+	}
+
+	/**
+	 * Get a counter that changes whenever ids are recycled. Caches keyed by ids should be cleared when it changes
+	 */
+	public static int getReleaseGeneration() {
+		return releaseGeneration;
+	}
+
+	private static synchronized int allocateChunk() {
+		for (int i = 0; i < CHUNK_COUNT; i++) {
+			final int index = (nextChunkHint + i) % CHUNK_COUNT;
+			if (chunks.get(index) == null) {
+				chunks.set(index, new AtomicReferenceArray<>(CHUNK_SIZE));
+				nextChunkHint = index + 1;
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private static AtomicReferenceArray<@Nullable ScopeStack> castNonNullChunk(final int id) {
+		final var chunk = chunks.get(id >> CHUNK_SHIFT);
+		if (chunk == null) {
+			throw new IllegalStateException("chunk of id " + id + " is not allocated");
+		}
+		return chunk;
+	}
+
+	private static long key(final int parentId, final int nameId) {
+		return ((long) parentId << 32) | nameId;
+	}
+}
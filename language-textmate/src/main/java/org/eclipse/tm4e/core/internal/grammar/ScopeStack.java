@@ -63,11 +63,49 @@ public final class ScopeStack {
 	public final ScopeStack parent;
 	public final String scopeName;
 
+	// this code is specific to sora-editor and not from upstream: id of this path in the table it was last interned in
+	@Nullable
+	private CachedId cachedId;
+
 	public ScopeStack(@Nullable final ScopeStack parent, final String scopeName) {
 		this.parent = parent;
 		this.scopeName = scopeName;
 	}
 
+	/**
+	 * Get the theme independent id of this scope path in the given table
+	 *
+	 * @return the id, or 0 if the table can not assign more ids
+	 * @see ScopePathIds
+	 */
+	public int getId(final ScopePathIds table) {
+		final var cached = this.cachedId;
+		if (cached != null && cached.table == table) {
+			return cached.id;
+		}
+		final var parent = this.parent;
+		final int parentId = parent == null ? 0 : parent.getId(table);
+		if (parent != null && parentId == 0) {
+			return 0;
+		}
+		final int id = table.obtain(parentId, this);
+		if (id != 0) {
+			// published as a whole, so that table and id always match
+			this.cachedId = new CachedId(table, id);
+		}
+		return id;
+	}
+
+	private static final class CachedId {
+		final ScopePathIds table;
+		final int id;
+
+		CachedId(final ScopePathIds table, final int id) {
+			this.table = table;
+			this.id = id;
+		}
+	}
+
 	public ScopeStack push(final String scopeName) {
 		return new ScopeStack(this, scopeName);
 	}
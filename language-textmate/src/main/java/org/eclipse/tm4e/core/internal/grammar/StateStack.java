@@ -187,18 +187,68 @@ public final class StateStack implements IStateStack {
 		} while (true);
 	}
 
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * unlike {@link #equals(Object)}, also compares `beginRuleCapturedEOL` and the `nameScopesList` of
+	 * every element, so that states equal by this check always tokenize the next line identically.
+	 * States equal by this check are also equal by {@link #equals(Object)} and have the same {@link #hashCode()}.
+	 */
+	public static boolean tokenizesLike(@Nullable final IStateStack a, @Nullable final IStateStack b) {
+		if (!(a instanceof StateStack) || !(b instanceof StateStack)) {
+			return Objects.equals(a, b);
+		}
+		var x = (StateStack) a;
+		var y = (StateStack) b;
+		do {
+			if (x == y) {
+				return true;
+			}
+			if (x == null || y == null) {
+				return false;
+			}
+			if (x.depth != y.depth
+					|| x.beginRuleCapturedEOL != y.beginRuleCapturedEOL
+					|| !Objects.equals(x.ruleId, y.ruleId)
+					|| !Objects.equals(x.endRule, y.endRule)
+					|| !AttributedScopeStack.equals(x.nameScopesList, y.nameScopesList)
+					|| !AttributedScopeStack.equals(x.contentNameScopesList, y.contentNameScopesList)) {
+				return false;
+			}
+			x = x.parent;
+			y = y.parent;
+		} while (true);
+	}
+
 	@Override
 	public int getDepth() {
 		return depth;
 	}
 
+	// this code is specific to sora-editor and not from upstream: lazily computed hash code
+	private int hash;
+
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * the hash code only uses the fields compared by {@link #equals(Object)}, so that equal states
+	 * can be used as keys of hash based caches.
+	 */
 	@Override
 	public int hashCode() {
-		int result = 31 + Objects.hashCode(contentNameScopesList);
-		result = 31 * result + Objects.hashCode(endRule);
-		result = 31 * result + Objects.hashCode(parent);
-		result = 31 * result + Objects.hashCode(ruleId);
-		return 31 * result + depth;
+		var result = this.hash;
+		if (result == 0) {
+			result = 1;
+			for (var el = this; el != null; el = el.parent) {
+				result = 31 * result + el.depth;
+				result = 31 * result + el.ruleId.id;
+				result = 31 * result + Objects.hashCode(el.endRule);
+			}
+			for (var scopes = this.contentNameScopesList; scopes != null; scopes = scopes.parent()) {
+				result = 31 * result + scopes.scopeName().hashCode();
+				result = 31 * result + scopes.tokenAttributes;
+			}
+			this.hash = result;
+		}
+		return result;
 	}
 
 	void reset() {
@@ -20,6 +20,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tm4e.core.grammar.IGrammar;
@@ -39,10 +41,13 @@ import org.eclipse.tm4e.core.internal.utils.ScopeNames;
 public class SyncRegistry implements IGrammarRepository, IThemeProvider {
 
 	private final Map<String, Grammar> _grammars = new HashMap<>();
-	private final Map<String, @Nullable IRawGrammar> _rawGrammars = new HashMap<>();
-	private final Map<String, Collection<String>> _injectionGrammars = new HashMap<>();
+	private final Map<String, @Nullable IRawGrammar> _rawGrammars = new ConcurrentHashMap<>();
+	private final Map<String, Collection<String>> _injectionGrammars = new ConcurrentHashMap<>();
 	private Theme _theme;
 
+	@Nullable
+	private Predicate<String> _missingGrammarResolver;
+
 	public SyncRegistry(final Theme theme) {
 		this._theme = theme;
 	}
@@ -55,6 +60,16 @@ public class SyncRegistry implements IGrammarRepository, IThemeProvider {
 		return this._theme.getColorMap();
 	}
 
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * set a callback that is asked to add the raw grammar of a scope that is not yet known,
+	 * so that grammars referenced by includes can be loaded lazily on first lookup.
+	 * The resolver returns whether the grammar has been added.
+	 */
+	public void setMissingGrammarResolver(@Nullable final Predicate<String> resolver) {
+		this._missingGrammarResolver = resolver;
+	}
+
 	/**
 	 * Add `grammar` to registry and return a list of referenced scope names
 	 */
@@ -78,6 +93,10 @@ public class SyncRegistry implements IGrammarRepository, IThemeProvider {
 			if (!scopeNameWithoutContributor.equals(scopeName))
 				grammar = this._rawGrammars.get(scopeNameWithoutContributor);
 		}
+		final var resolver = this._missingGrammarResolver;
+		if (grammar == null && resolver != null && resolver.test(scopeName)) {
+			grammar = this._rawGrammars.get(scopeName);
+		}
 		return grammar;
 	}
 
@@ -108,7 +127,7 @@ public class SyncRegistry implements IGrammarRepository, IThemeProvider {
 	 * Lookup a grammar.
 	 */
 	@Nullable
-	public IGrammar grammarForScopeName(
+	public synchronized IGrammar grammarForScopeName(
 			final String scopeName,
 			final int initialLanguage,
 			@Nullable final Map<String, Integer> embeddedLanguages,
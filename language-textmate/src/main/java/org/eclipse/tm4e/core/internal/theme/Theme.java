@@ -47,6 +47,11 @@ public final class Theme {
 		return resolveParsedThemeRules(source, colorMap);
 	}
 
+	// this code is specific to sora-editor and not from upstream:
+	// the memoized trie matches are dropped once the cache reaches this size, so that long sessions
+	// with many grammars do not grow the cache without limit
+	private static final int MAX_CACHED_MATCH_ROOTS = 1024;
+
 	private final Map<String /* scopeName */, List<ThemeTrieElementRule>> _cachedMatchRoot = new ConcurrentHashMap<>();
 
 	private final ColorMap _colorMap;
@@ -74,7 +79,18 @@ public final class Theme {
 		}
 		final var scopeName = scopePath.scopeName;
 
-		final var matchingTrieElements = this._cachedMatchRoot.computeIfAbsent(scopeName, _root::match);
+		var matchingTrieElements = this._cachedMatchRoot.get(scopeName);
+		if (matchingTrieElements == null) {
+			// match outside of any lock, tokenizer threads sharing the theme may compute the same entry
+			matchingTrieElements = _root.match(scopeName);
+			if (this._cachedMatchRoot.size() >= MAX_CACHED_MATCH_ROOTS) {
+				this._cachedMatchRoot.clear();
+			}
+			final var existing = this._cachedMatchRoot.putIfAbsent(scopeName, matchingTrieElements);
+			if (existing != null) {
+				matchingTrieElements = existing;
+			}
+		}
 
 		final var effectiveRule = findFirstMatching(matchingTrieElements,
 				v -> _scopePathMatchesParentScopes(scopePath.parent, v.parentScopes));
@@ -88,6 +104,34 @@ public final class Theme {
 				effectiveRule.background);
 	}
 
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * resolve the effective foreground id of the whole scope path, as the tokenizer would have merged it.
+	 */
+	public int resolveForeground(final ScopeStack scopePath) {
+		for (ScopeStack path = scopePath; path != null; path = path.parent) {
+			final var attributes = match(path);
+			if (attributes != null && attributes.foregroundId != 0) {
+				return attributes.foregroundId;
+			}
+		}
+		return this._defaults.foregroundId;
+	}
+
+	/**
+	 * this code is specific to sora-editor and not from upstream:
+	 * resolve the effective font style of the whole scope path, as the tokenizer would have merged it.
+	 */
+	public int resolveFontStyle(final ScopeStack scopePath) {
+		for (ScopeStack path = scopePath; path != null; path = path.parent) {
+			final var attributes = match(path);
+			if (attributes != null && attributes.fontStyle != FontStyle.NotSet) {
+				return attributes.fontStyle;
+			}
+		}
+		return this._defaults.fontStyle;
+	}
+
 	private boolean _scopePathMatchesParentScopes(@Nullable ScopeStack scopePath, @Nullable final List<String> parentScopeNames) {
 		if (parentScopeNames == null) {
 			return true;
@@ -64,6 +64,8 @@ public final class Registry {
 
         this._syncRegistry = new SyncRegistry(
                 Theme.createFromRawTheme(options.getTheme(), options.getColorMap()));
+        // grammars referenced by includes are pulled from the options on first lookup
+        this._syncRegistry.setMissingGrammarResolver(this::_loadSingleGrammar);
     }
 
     /**
@@ -166,7 +168,7 @@ public final class Registry {
                 balancedBracketSelectors);
     }
 
-    private boolean _loadSingleGrammar(final String scopeName) {
+    private synchronized boolean _loadSingleGrammar(final String scopeName) {
         return this._ensureGrammarCache.computeIfAbsent(scopeName, this::_doLoadSingleGrammar);
     }
 
@@ -0,0 +1,122 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.eclipse.tm4e.core.internal.oniguruma.OnigScanner;
+import org.eclipse.tm4e.core.internal.oniguruma.OnigString;
+import org.eclipse.tm4e.core.internal.oniguruma.impl.joni.JoniOnigScanner;
+import org.eclipse.tm4e.core.internal.oniguruma.impl.onig.NativeOnigConfig;
+import org.eclipse.tm4e.core.internal.oniguruma.impl.onig.NativeOnigScanner;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that native Oniguruma scanners find the same matches as Joni, in both search modes.
+ * <p>
+ * The native part requires a host build of the binding library:
+ * <pre>
+ * cmake -S oniguruma-native/src/main/cpp -B oniguruma-native/build/host
+ * cmake --build oniguruma-native/build/host
+ * LD_LIBRARY_PATH=oniguruma-native/build/host \
+ *     ./gradlew :language-textmate:testDebugUnitTest --tests '*OnigScannerTest*'
+ * </pre>
+ * The test is skipped if the library can not be loaded.
+ */
+public class OnigScannerTest {
+
+    private static final List<String> PATTERNS = List.of(
+            "\\b(public|private|protected|static|final|class|interface|return|new|if|else|for|while)\\b",
+            "\"(?:[^\"\\\\]|\\\\.)*\"",
+            "//.*$",
+            "/\\*",
+            "\\b[0-9]+(?:\\.[0-9]+)?[fFdDlL]?\\b",
+            "\\b[A-Z][A-Za-z0-9_]*\\b",
+            "\\b[a-z_][A-Za-z0-9_]*(?=\\s*\\()",
+            "[{}()\\[\\];,.]",
+            "[+\\-*/%=<>!&|^~?:]+"
+    );
+
+    private static List<String> createLines() {
+        var lines = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            lines.add("    public static final int VALUE_" + i + " = " + i + " * 31 + 0x7f; // constant\n");
+            lines.add("    private String name" + i + "(List<String> items, int index) { return items.get(index + " + i + "); }\n");
+            // Lines of different lengths and with non-ASCII text, as native line buffers are reused
+            lines.add("\n");
+            lines.add("        String s" + i + " = \"\u4f60\u597d \uD83D\uDE00 " + i + "\"; /* \u00e9t\u00e9 */\n");
+            lines.add("        if (value != null && value.length() > " + i + ") System.out.println(\"text " + i + "\");\n");
+        }
+        return lines;
+    }
+
+    /**
+     * Scan every line to its end and record match indices and positions
+     */
+    private static int[] scanAll(OnigScanner scanner, List<String> lines) {
+        var out = new ArrayList<Integer>();
+        for (var line : lines) {
+            var str = OnigString.of(line);
+            int position = 0;
+            while (position < line.length()) {
+                var match = scanner.findNextMatch(str, position);
+                if (match == null) {
+                    break;
+                }
+                var capture = match.getCaptureIndices()[0];
+                out.add(match.getIndex());
+                out.add(capture.start);
+                out.add(capture.end);
+                position = Math.max(capture.end, position + 1);
+            }
+        }
+        return out.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void nativeMatchesJoni() {
+        assumeTrue("native oniguruma library is not available", NativeOnigConfig.isAvailable());
+        var lines = createLines();
+        var expected = scanAll(new JoniOnigScanner(PATTERNS), lines);
+        assertTrue(expected.length > 0);
+
+        var nativeScanner = new NativeOnigScanner(PATTERNS);
+        try {
+            NativeOnigConfig.setSearchInBatch(false);
+            assertArrayEquals(expected, scanAll(nativeScanner, lines));
+            NativeOnigConfig.setSearchInBatch(true);
+            assertArrayEquals(expected, scanAll(nativeScanner, lines));
+            // Scanning again reuses the buffers of the previous pass
+            assertArrayEquals(expected, scanAll(nativeScanner, lines));
+        } finally {
+            NativeOnigConfig.setSearchInBatch(true);
+        }
+    }
+
+}
@@ -46,7 +46,11 @@ android {
 dependencies {
     compileOnly(projects.editor)
     api(libs.tree.sitter)
+    testImplementation(projects.editor)
     testImplementation(libs.junit)
+    testImplementation(libs.tests.google.truth)
+    androidTestImplementation(projects.editor)
+    androidTestImplementation(libs.tree.sitter.java)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
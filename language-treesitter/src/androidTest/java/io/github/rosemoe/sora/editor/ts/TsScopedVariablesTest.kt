@@ -0,0 +1,181 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.itsaky.androidide.treesitter.TSInputEdit
+import com.itsaky.androidide.treesitter.TSParser
+import com.itsaky.androidide.treesitter.TSPoint
+import com.itsaky.androidide.treesitter.TSTree
+import com.itsaky.androidide.treesitter.java.TSLanguageJava
+import com.itsaky.androidide.treesitter.string.UTF16String
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory
+import org.junit.Assert.assertEquals
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Random text modifications with locals updated incrementally, checked against locals collected
+ * again from the whole tree
+ */
+@RunWith(AndroidJUnit4::class)
+class TsScopedVariablesTest {
+
+    companion object {
+
+        private const val LOCALS = """
+(program) @scope
+(class_declaration body: (_) @scope.members)
+(method_declaration) @scope
+(block) @scope
+(for_statement) @scope
+(local_variable_declaration declarator: (variable_declarator name: (identifier) @definition.var))
+(formal_parameter name: (identifier) @definition.var)
+(field_declaration declarator: (variable_declarator name: (identifier) @definition.field))
+(identifier) @reference
+"""
+
+        private const val HIGHLIGHTS = """
+(field_declaration declarator: (variable_declarator name: (identifier) @variable.field))
+(formal_parameter name: (identifier) @variable.parameter)
+"""
+
+        private val IDENTIFIER = Regex("[A-Za-z_]\\w*")
+
+        private val SNIPPETS = listOf(
+            "int a = 1;", "int b = a;", "a = b;", "{", "}", "\n", "a", "b", "c", " ",
+            "void m(int a) {", "for (int c = 0; c < a; c++) {", "class K {", "int c;"
+        )
+
+        private val localsCaptureSpec = object : LocalsCaptureSpec() {
+            override fun isScopeCapture(captureName: String) = captureName == "scope"
+            override fun isMembersScopeCapture(captureName: String) = captureName == "scope.members"
+            override fun isReferenceCapture(captureName: String) = captureName == "reference"
+            override fun isDefinitionCapture(captureName: String) =
+                captureName == "definition.var" || captureName == "definition.field"
+        }
+
+        @BeforeClass
+        @JvmStatic
+        fun loadLibraries() {
+            System.loadLibrary("android-tree-sitter")
+            System.loadLibrary("tree-sitter-java")
+        }
+    }
+
+    private fun pointOf(text: String, index: Int): TSPoint {
+        val line = (0 until index).count { text[it] == '\n' }
+        val column = index - (text.lastIndexOf('\n', index - 1) + 1)
+        return TSPoint.create(line, column * 2)
+    }
+
+    private fun assertSameDefinitions(text: String, incremental: TsScopedVariables, full: TsScopedVariables) {
+        for (match in IDENTIFIER.findAll(text)) {
+            val start = match.range.first
+            val end = match.range.last + 1
+            assertEquals(
+                "definition of '${match.value}' at $start",
+                full.findDefinition(start, end, match.value),
+                incremental.findDefinition(start, end, match.value)
+            )
+        }
+    }
+
+    private fun resolveAll(text: String, scopedVariables: TsScopedVariables) =
+        IDENTIFIER.findAll(text).map { match ->
+            scopedVariables.findDefinition(match.range.first, match.range.last + 1, match.value)?.copy()
+        }.toList()
+
+    @Test
+    fun incrementalUpdateMatchesFullCollection() {
+        val spec = TsLanguageSpec(
+            TSLanguageJava.getInstance(),
+            HIGHLIGHTS,
+            localsScmSource = LOCALS,
+            localsCaptureSpec = localsCaptureSpec
+        )
+        val parser = TSParser.create()
+        parser.language = spec.language
+        repeat(10) { seed ->
+            val random = Random(seed)
+            var text = "class A {\n  int a;\n  void m(int b) {\n    int c = a + b;\n    {\n      int a = c;\n    }\n  }\n}\n"
+            val localText: UTF16String = UTF16StringFactory.newString()
+            localText.append(text)
+            var tree: TSTree = parser.parseString(localText)
+            val scopedVariables = TsScopedVariables(tree, localText, spec)
+            repeat(100) {
+                val batch = ModificationBatch()
+                repeat(random.nextInt(3) + 1) {
+                    if (text.isEmpty() || random.nextBoolean()) {
+                        val index = random.nextInt(text.length + 1)
+                        val inserted = SNIPPETS[random.nextInt(SNIPPETS.size)]
+                        val startPoint = pointOf(text, index)
+                        val newText = text.substring(0, index) + inserted + text.substring(index)
+                        val endPoint = pointOf(newText, index + inserted.length)
+                        tree.edit(TSInputEdit.create(index * 2, index * 2, (index + inserted.length) * 2, startPoint, startPoint, endPoint))
+                        localText.insert(index, inserted)
+                        scopedVariables.applyEdit(index, index, index + inserted.length, startPoint.row, startPoint.row, endPoint.row)
+                        batch.onModification(index, index + inserted.length, startPoint.row, endPoint.row, false)
+                        text = newText
+                    } else {
+                        val start = random.nextInt(text.length)
+                        val end = minOf(text.length, start + random.nextInt(12) + 1)
+                        val startPoint = pointOf(text, start)
+                        val endPoint = pointOf(text, end)
+                        tree.edit(TSInputEdit.create(start * 2, end * 2, start * 2, startPoint, endPoint, startPoint))
+                        localText.delete(start, end)
+                        scopedVariables.applyEdit(start, end, start, startPoint.row, endPoint.row, startPoint.row)
+                        batch.onModification(start, end, startPoint.row, endPoint.row, true)
+                        text = text.substring(0, start) + text.substring(end)
+                    }
+                }
+                val newTree = parser.parseString(tree, localText)
+                for (range in tree.getChangedRanges(newTree)) {
+                    batch.markDirty(range.startByte / 2, range.endByte / 2, range.startPoint.row, range.endPoint.row)
+                }
+                tree.close()
+                tree = newTree
+                val oldDefinitions = resolveAll(text, scopedVariables)
+                scopedVariables.update(tree, localText, batch.startIndex, batch.endIndex)?.let { batch.dirtyLines.add(it) }
+                assertSameDefinitions(text, scopedVariables, TsScopedVariables(tree, localText, spec))
+                // Spans are only computed again in dirty lines, so references in other lines must be resolved as before
+                val newDefinitions = resolveAll(text, scopedVariables)
+                IDENTIFIER.findAll(text).forEachIndexed { i, match ->
+                    val line = pointOf(text, match.range.first).row
+                    if (batch.dirtyLines.none { line in it }) {
+                        assertEquals("definition of '${match.value}' at ${match.range.first}", oldDefinitions[i], newDefinitions[i])
+                    }
+                }
+            }
+            tree.close()
+            localText.close()
+        }
+        parser.close()
+        spec.close()
+    }
+
+}
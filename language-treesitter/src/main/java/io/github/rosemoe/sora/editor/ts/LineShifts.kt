@@ -0,0 +1,67 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+/*
+ * Helpers for keeping line-indexed data in sync with text modifications
+ */
+
+/**
+ * Insert elements for the lines created by an insertion from [startLine] to [endLine]. Lines after
+ * [startLine] are moved down, and the new lines get elements created by [element].
+ */
+internal inline fun <T> MutableList<T>.insertLines(startLine: Int, endLine: Int, element: () -> T) {
+    if (endLine > startLine) {
+        val inserted = ArrayList<T>(endLine - startLine)
+        repeat(endLine - startLine) {
+            inserted.add(element())
+        }
+        addAll((startLine + 1).coerceAtMost(size), inserted)
+    }
+}
+
+/**
+ * Remove elements of the lines removed by a deletion from [startLine] to [endLine], which are the
+ * lines in (startLine, endLine]
+ */
+internal fun <T> MutableList<T>.deleteLines(startLine: Int, endLine: Int) {
+    if (endLine > startLine) {
+        subList((startLine + 1).coerceAtMost(size), (endLine + 1).coerceAtMost(size)).clear()
+    }
+}
+
+/**
+ * Get the new line of [line] after a deletion from [startLine] to [endLine]. Lines in the deleted
+ * region are moved to [startLine].
+ */
+internal fun shiftLineOnDelete(line: Int, startLine: Int, endLine: Int) =
+    if (line > endLine) line - (endLine - startLine) else minOf(line, startLine)
+
+/**
+ * Get the new line of [line] after an insertion from [startLine] to [endLine]. Only lines after
+ * [startLine] are moved.
+ */
+internal fun shiftLineOnInsert(line: Int, startLine: Int, endLine: Int) =
+    if (line > startLine) line + (endLine - startLine) else line
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import com.itsaky.androidide.treesitter.TSPoint
+import com.itsaky.androidide.treesitter.TSQueryCapture
+import com.itsaky.androidide.treesitter.TSQueryCursor
+import com.itsaky.androidide.treesitter.TSTree
+import com.itsaky.androidide.treesitter.string.UTF16String
+import io.github.rosemoe.sora.editor.ts.spans.TsSpanFactory
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.SpanFactory
+import io.github.rosemoe.sora.lang.styling.TextStyle
+import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
+
+/**
+ * Computes highlight spans of a line range by executing the highlight query. This is used by
+ * the worker thread of [TsAnalyzeManager] only.
+ *
+ * Captures are mapped to lines by their points, so no line index of the text is required.
+ * A capture that ends beyond its line covers the line till its end.
+ *
+ * @author Rosemoe
+ */
+internal class LineSpansComputer(
+    private val languageSpec: TsLanguageSpec,
+    private val theme: TsTheme,
+    private val spanFactory: TsSpanFactory
+) {
+
+    companion object {
+        /**
+         * Column for the end of a line
+         */
+        private const val LINE_END = Int.MAX_VALUE
+    }
+
+    /**
+     * Compute spans for lines from [startLine] to [endLine] (inclusive)
+     *
+     * @return span lists for each line in the range
+     */
+    fun computeLines(
+        tree: TSTree,
+        text: UTF16String,
+        scopedVariables: TsScopedVariables,
+        startLine: Int,
+        endLine: Int
+    ): List<MutableList<Span>> {
+        val lineCount = endLine - startLine + 1
+        val result = ArrayList<MutableList<Span>>(lineCount)
+        repeat(lineCount) {
+            result.add(mutableListOf())
+        }
+        val lastColumns = IntArray(lineCount)
+        if (!languageSpec.closed && tree.canAccess()) {
+            TSQueryCursor.create().use { cursor ->
+                cursor.setPointRange(TSPoint.create(startLine, 0), TSPoint.create(endLine + 1, 0))
+                cursor.exec(languageSpec.tsQuery, tree.rootNode)
+                val captures = mutableListOf<TSQueryCapture>()
+                var match = cursor.nextMatch()
+                while (match != null) {
+                    if (languageSpec.queryPredicator.doPredicate(
+                            languageSpec.predicates,
+                            text,
+                            match
+                        )
+                    ) {
+                        captures.addAll(match.captures)
+                    }
+                    match = cursor.nextMatch()
+                }
+                captures.sortBy { it.node.startByte }
+                for (capture in captures) {
+                    addCapture(capture, text, scopedVariables, startLine, endLine, result, lastColumns)
+                }
+            }
+        }
+        for (i in 0 until lineCount) {
+            if (lastColumns[i] != LINE_END) {
+                result[i].add(emptySpan(lastColumns[i]))
+            }
+        }
+        return result
+    }
+
+    private fun addCapture(
+        capture: TSQueryCapture,
+        text: UTF16String,
+        scopedVariables: TsScopedVariables,
+        startLine: Int,
+        endLine: Int,
+        result: List<MutableList<Span>>,
+        lastColumns: IntArray
+    ) {
+        val pattern = capture.index
+        if (pattern in languageSpec.localsScopeIndices || pattern in languageSpec.localsDefinitionIndices
+            || pattern in languageSpec.localsDefinitionValueIndices || pattern in languageSpec.localsMembersScopeIndices
+        ) {
+            return
+        }
+        val node = capture.node
+        val startPoint = node.startPoint
+        val endPoint = node.endPoint
+        val firstLine = startPoint.row.coerceAtLeast(startLine)
+        val lastLine = endPoint.row.coerceAtMost(endLine)
+        if (firstLine > lastLine) {
+            return
+        }
+        var style = 0L
+        if (pattern in languageSpec.localsReferenceIndices) {
+            val startIndex = node.startByte / 2
+            val endIndex = node.endByte / 2
+            val def = scopedVariables.findDefinition(startIndex, endIndex) {
+                val utf16Name = text.subseqChars(startIndex, endIndex)
+                val name = utf16Name.toString()
+                utf16Name.close()
+                name
+            }
+            if (def != null && def.matchedHighlightPattern != -1) {
+                style = theme.resolveStyleForPattern(def.matchedHighlightPattern)
+            }
+            // This reference can not be resolved to its definition
+            // but it can have its own fallback color by other captures
+            // so continue to next capture
+            if (style == 0L) {
+                return
+            }
+        }
+        if (style == 0L) {
+            style = theme.resolveStyleForPattern(pattern)
+        }
+        if (style == 0L) {
+            style = theme.normalTextStyle
+        }
+        for (line in firstLine..lastLine) {
+            val index = line - startLine
+            val lastColumn = lastColumns[index]
+            val start = if (line == startPoint.row) startPoint.column / 2 else 0
+            val end = if (line == endPoint.row) endPoint.column / 2 else LINE_END
+            // Do not add span for overlapping regions and regions ending at the start of line
+            if (start < lastColumn || (end == 0 && line != startPoint.row)) {
+                continue
+            }
+            val spans = result[index]
+            if (start != lastColumn) {
+                spans.addAll(createSpans(capture, lastColumn, start - 1, theme.normalTextStyle))
+            }
+            spans.addAll(createSpans(capture, start, end, style))
+            lastColumns[index] = end
+        }
+    }
+
+    private fun createSpans(
+        capture: TSQueryCapture,
+        startColumn: Int,
+        endColumn: Int,
+        style: Long
+    ): List<Span> {
+        val spans = spanFactory.createSpans(capture, startColumn, style)
+        if (spans.size > 1) {
+            var prevCol = spans[0].column
+            if (prevCol > endColumn) {
+                throw IndexOutOfBoundsException("Span's column is out of bounds! column=$prevCol, endColumn=$endColumn")
+            }
+            for (i in 1..spans.lastIndex) {
+                val col = spans[i].column
+                if (col <= prevCol) {
+                    throw IllegalStateException("Spans must not overlap! prevCol=$prevCol, col=$col")
+                }
+                if (col > endColumn) {
+                    throw IndexOutOfBoundsException("Span's column is out of bounds! column=$col, endColumn=$endColumn")
+                }
+                prevCol = col
+            }
+        }
+        return spans
+    }
+
+    private fun emptySpan(column: Int): Span {
+        return SpanFactory.obtain(
+            column,
+            TextStyle.makeStyle(EditorColorScheme.TEXT_NORMAL)
+        )
+    }
+
+}
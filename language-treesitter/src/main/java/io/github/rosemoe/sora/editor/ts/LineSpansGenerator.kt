@@ -24,8 +24,7 @@
 
 package io.github.rosemoe.sora.editor.ts
 
-import com.itsaky.androidide.treesitter.TSQueryCapture
-import com.itsaky.androidide.treesitter.TSQueryCursor
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory
 import io.github.rosemoe.sora.editor.ts.spans.TsSpanFactory
 import io.github.rosemoe.sora.lang.styling.Span
 import io.github.rosemoe.sora.lang.styling.SpanFactory
@@ -36,190 +35,98 @@ import io.github.rosemoe.sora.text.Content
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
 
 /**
- * Spans generator for tree-sitter. Results are cached.
+ * Spans for tree-sitter. Spans of all lines are computed by [TsAnalyzeManager] on its worker thread,
+ * so no tree-sitter query is executed when rendering.
+ *
+ * The object owns its line list. On text changes, lines are inserted or removed so that other lines
+ * keep their spans until new spans are delivered. Span objects are shared between generations and
+ * are never modified.
  *
  * Note that this implementation does not support external modifications.
  *
  * @author Rosemoe
  */
-class LineSpansGenerator(
-    internal var safeTree: SafeTsTree, internal var lineCount: Int,
-    private val content: Content, internal var theme: TsTheme,
-    private val languageSpec: TsLanguageSpec, var scopedVariables: TsScopedVariables,
-    private val spanFactory: TsSpanFactory
+class LineSpansGenerator internal constructor(
+    internal var safeTree: SafeTsTree,
+    private val lines: MutableList<MutableList<Span>>
 ) : Spans {
 
-    companion object {
-        const val CACHE_THRESHOLD = 60
-    }
-
-    private val caches = mutableListOf<SpanCache>()
-
-    fun queryCache(line: Int): MutableList<Span>? {
-        for (i in 0 until caches.size) {
-            val cache = caches[i]
-            if (cache.line == line) {
-                caches.removeAt(i)
-                caches.add(0, cache)
-                return cache.spans
-            }
-        }
-        return null
-    }
-
-    fun pushCache(line: Int, spans: MutableList<Span>) {
-        while (caches.size >= CACHE_THRESHOLD) {
-            caches.removeAt(caches.size - 1)
-        }
-        caches.add(0, SpanCache(spans, line))
-    }
-
-    fun captureRegion(startIndex: Int, endIndex: Int): MutableList<Span> {
-        val list = mutableListOf<Span>()
-        val captures = mutableListOf<TSQueryCapture>()
+    /**
+     * Create spans for the whole [content]. Spans of all lines are computed immediately on the
+     * calling thread.
+     */
+    @Deprecated("Spans are created by TsAnalyzeManager on its worker thread")
+    constructor(
+        safeTree: SafeTsTree, lineCount: Int,
+        content: Content, theme: TsTheme,
+        languageSpec: TsLanguageSpec, scopedVariables: TsScopedVariables,
+        spanFactory: TsSpanFactory
+    ) : this(safeTree, computeAllLines(safeTree, lineCount, content, theme, languageSpec, scopedVariables, spanFactory))
 
-        TSQueryCursor.create().use { cursor ->
-            cursor.isAllowChangedNodes = true
-            cursor.setByteRange(startIndex * 2, endIndex * 2)
+    companion object {
 
-            safeTree.accessTree { tree ->
-                if (languageSpec.closed || tree.closed) {
-                    return@accessTree
-                }
+        @Deprecated("Spans are no longer cached by lines")
+        const val CACHE_THRESHOLD = 60
 
-                cursor.exec(languageSpec.tsQuery, tree.rootNode)
-                var match = cursor.nextMatch()
-                while (match != null) {
-                    if (languageSpec.queryPredicator.doPredicate(
-                            languageSpec.predicates,
-                            content,
-                            match
-                        )
-                    ) {
-                        captures.addAll(match.captures)
+        private fun computeAllLines(
+            safeTree: SafeTsTree, lineCount: Int,
+            content: Content, theme: TsTheme,
+            languageSpec: TsLanguageSpec, scopedVariables: TsScopedVariables,
+            spanFactory: TsSpanFactory
+        ): MutableList<MutableList<Span>> {
+            val lines = ArrayList<MutableList<Span>>(lineCount)
+            if (lineCount > 0) {
+                safeTree.accessTreeIfAvailable { accessor ->
+                    val tree = accessor.copy()
+                    val text = UTF16StringFactory.newString(content.toString())
+                    try {
+                        lines.addAll(LineSpansComputer(languageSpec, theme, spanFactory).computeLines(tree, text, scopedVariables, 0, lineCount - 1))
+                    } finally {
+                        text.close()
+                        tree.close()
                     }
-                    match = cursor.nextMatch()
-                }
-                captures.sortBy { it.node.startByte }
-                var lastIndex = 0
-                captures.forEach { capture ->
-                    val startByte = capture.node.startByte
-                    val endByte = capture.node.endByte
-                    val start = (startByte / 2 - startIndex).coerceAtLeast(0)
-                    val pattern = capture.index
-                    // Do not add span for overlapping regions and out-of-bounds regions
-                    if (start >= lastIndex && endByte / 2 >= startIndex && startByte / 2 < endIndex
-                        && (pattern !in languageSpec.localsScopeIndices && pattern !in languageSpec.localsDefinitionIndices
-                                && pattern !in languageSpec.localsDefinitionValueIndices && pattern !in languageSpec.localsMembersScopeIndices)
-                    ) {
-                        if (start != lastIndex) {
-                            list.addAll(
-                                createSpans(
-                                    capture,
-                                    lastIndex,
-                                    start - 1,
-                                    theme.normalTextStyle
-                                )
-                            )
-                        }
-                        var style = 0L
-                        if (capture.index in languageSpec.localsReferenceIndices) {
-                            val def = scopedVariables.findDefinition(
-                                startByte / 2,
-                                endByte / 2,
-                                content.substring(startByte / 2, endByte / 2)
-                            )
-                            if (def != null && def.matchedHighlightPattern != -1) {
-                                style = theme.resolveStyleForPattern(def.matchedHighlightPattern)
-                            }
-                            // This reference can not be resolved to its definition
-                            // but it can have its own fallback color by other captures
-                            // so continue to next capture
-                            if (style == 0L) {
-                                return@forEach
-                            }
-                        }
-                        if (style == 0L) {
-                            style = theme.resolveStyleForPattern(capture.index)
-                        }
-                        if (style == 0L) {
-                            style = theme.normalTextStyle
-                        }
-                        val end = (endByte / 2 - startIndex).coerceAtMost(endIndex)
-                        list.addAll(createSpans(capture, start, end, style))
-                        lastIndex = end
-                    }
-                }
-                if (lastIndex != endIndex) {
-                    list.add(emptySpan(lastIndex))
                 }
             }
-        }
-        if (list.isEmpty()) {
-            list.add(emptySpan(0))
-        }
-        return list
-    }
-
-    private fun createSpans(
-        capture: TSQueryCapture,
-        startColumn: Int,
-        endColumn: Int,
-        style: Long
-    ): List<Span> {
-        val spans = spanFactory.createSpans(capture, startColumn, style)
-        if (spans.size > 1) {
-            var prevCol = spans[0].column
-            if (prevCol > endColumn) {
-                throw IndexOutOfBoundsException("Span's column is out of bounds! column=$prevCol, endColumn=$endColumn")
-            }
-            for (i in 1..spans.lastIndex) {
-                val col = spans[i].column
-                if (col <= prevCol) {
-                    throw IllegalStateException("Spans must not overlap! prevCol=$prevCol, col=$col")
-                }
-                if (col > endColumn) {
-                    throw IndexOutOfBoundsException("Span's column is out of bounds! column=$col, endColumn=$endColumn")
-                }
-                prevCol = col
+            while (lines.size < lineCount) {
+                lines.add(mutableListOf(SpanFactory.obtain(0, TextStyle.makeStyle(EditorColorScheme.TEXT_NORMAL))))
             }
+            return lines
         }
-        return spans
     }
 
-    private fun emptySpan(column: Int): Span {
-        return SpanFactory.obtain(
-            column,
-            TextStyle.makeStyle(EditorColorScheme.TEXT_NORMAL)
-        )
+    /**
+     * Get spans of the given line, or null if the line is out of bounds
+     */
+    @Deprecated("Spans are no longer cached by lines", ReplaceWith("read().getSpansOnLine(line)"))
+    fun queryCache(line: Int): MutableList<Span>? = lines.getOrNull(line)
+
+    /**
+     * Replace spans of the given line
+     */
+    @Deprecated("Spans are no longer cached by lines")
+    fun pushCache(line: Int, spans: MutableList<Span>) {
+        if (line in 0..<lines.size) {
+            lines[line] = spans
+        }
     }
 
     override fun adjustOnInsert(start: CharPosition, end: CharPosition) {
-
+        if (start.line < lines.size) {
+            val startLineSpans = lines[start.line]
+            lines.insertLines(start.line, end.line) { startLineSpans }
+        }
     }
 
     override fun adjustOnDelete(start: CharPosition, end: CharPosition) {
-
+        lines.deleteLines(start.line, end.line)
     }
 
     override fun read() = object : Spans.Reader {
 
-        private var spans = mutableListOf<Span>()
+        private var spans: List<Span> = emptyList()
 
         override fun moveToLine(line: Int) {
-            if (line !in 0..<lineCount) {
-                spans = mutableListOf()
-                return
-            }
-            val cached = queryCache(line)
-            if (cached != null) {
-                spans = cached
-                return
-            }
-            val start = content.indexer.getCharPosition(line, 0).index
-            val end = start + content.getColumnCount(line)
-            spans = captureRegion(start, end)
-            pushCache(line, spans)
+            spans = if (line in 0..<lines.size) lines[line] else emptyList()
         }
 
         override fun getSpanCount() = spans.size
@@ -227,15 +134,10 @@ class LineSpansGenerator(
         override fun getSpanAt(index: Int) = spans[index]
 
         override fun getSpansOnLine(line: Int): MutableList<Span> {
-            val cached = queryCache(line)
-            if (cached != null) {
-                return cached.toMutableList()
+            if (line in 0..<lines.size) {
+                return lines[line].toMutableList()
             }
-            val start = content.indexer.getCharPosition(line, 0).index
-            val end = start + content.getColumnCount(line)
-            val captured = captureRegion(start, end)
-            pushCache(line, captured)
-            return captured.toMutableList()
+            return mutableListOf(SpanFactory.obtain(0, TextStyle.makeStyle(EditorColorScheme.TEXT_NORMAL)))
         }
 
     }
@@ -246,7 +148,8 @@ class LineSpansGenerator(
         throw UnsupportedOperationException()
     }
 
-    override fun getLineCount() = lineCount
+    override fun getLineCount() = lines.size
 }
 
+@Deprecated("Spans are no longer cached by lines")
 data class SpanCache(val spans: MutableList<Span>, val line: Int)
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+/**
+ * Changed region of batched modifications, maintained in the coordinates of the latest text
+ */
+internal class ModificationBatch {
+
+    val dirtyLines = mutableListOf<IntRange>()
+    var startIndex = Int.MAX_VALUE
+        private set
+    var endIndex = 0
+        private set
+
+    fun onModification(modification: TsAnalyzeManager.TextModification) {
+        onModification(
+            modification.start,
+            modification.end,
+            modification.startLine,
+            modification.endLine,
+            modification.changedText == null
+        )
+    }
+
+    /**
+     * Record a modification
+     *
+     * @param start Start index of the modification
+     * @param end End index of the deleted text, or of the inserted text
+     * @param deletion Whether the modification is a deletion
+     */
+    fun onModification(start: Int, end: Int, startLine: Int, endLine: Int, deletion: Boolean) {
+        if (deletion) {
+            // Deletion: lines in (startLine, endLine] are removed
+            dirtyLines.replaceAll {
+                shiftLineOnDelete(it.first, startLine, endLine)..shiftLineOnDelete(it.last, startLine, endLine)
+            }
+            val indexDelta = end - start
+            fun shiftIndex(index: Int) = if (index > end) index - indexDelta else minOf(index, start)
+            if (startIndex <= endIndex) {
+                startIndex = shiftIndex(startIndex)
+                endIndex = shiftIndex(endIndex)
+            }
+            markDirty(start, start, startLine, startLine)
+        } else {
+            // Insertion: lines after startLine are moved down, ranges containing startLine are extended
+            val lineDelta = endLine - startLine
+            dirtyLines.replaceAll {
+                (if (it.first > startLine) it.first + lineDelta else it.first)..(if (it.last >= startLine) it.last + lineDelta else it.last)
+            }
+            val insertedLength = end - start
+            if (startIndex <= endIndex) {
+                if (startIndex > start) {
+                    startIndex += insertedLength
+                }
+                if (endIndex >= start) {
+                    endIndex += insertedLength
+                }
+            }
+            markDirty(start, end, startLine, endLine)
+        }
+    }
+
+    fun markDirty(startIndex: Int, endIndex: Int, startLine: Int, endLine: Int) {
+        this.startIndex = minOf(this.startIndex, startIndex)
+        this.endIndex = maxOf(this.endIndex, endIndex)
+        dirtyLines.add(startLine..endLine)
+    }
+
+}
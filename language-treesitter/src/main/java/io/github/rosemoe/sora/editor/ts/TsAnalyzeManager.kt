@@ -28,17 +28,21 @@ import android.os.Message
 import android.util.Log
 import com.itsaky.androidide.treesitter.TSInputEdit
 import com.itsaky.androidide.treesitter.TSParser
+import com.itsaky.androidide.treesitter.TSPoint
 import com.itsaky.androidide.treesitter.TSQueryCursor
 import com.itsaky.androidide.treesitter.TSTree
 import com.itsaky.androidide.treesitter.string.UTF16String
 import com.itsaky.androidide.treesitter.string.UTF16StringFactory
+import io.github.rosemoe.sora.editor.ts.multilang.TsInjectionHighlighter
 import io.github.rosemoe.sora.editor.ts.spans.DefaultSpanFactory
 import io.github.rosemoe.sora.editor.ts.spans.TsSpanFactory
 import io.github.rosemoe.sora.lang.analysis.StyleReceiver
 import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.lang.styling.Span
 import io.github.rosemoe.sora.lang.styling.Styles
 import io.github.rosemoe.sora.lang.util.BaseAnalyzeManager
 import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
 import io.github.rosemoe.sora.text.ContentReference
 import java.util.concurrent.LinkedBlockingQueue
 
@@ -54,13 +58,17 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
 
     open var styles = Styles()
 
+    /**
+     * Metrics of the last analysis whose result is delivered to the editor
+     */
+    @Volatile
+    var lastMetrics: AnalyzeMetrics? = null
+        private set
+
     fun updateTheme(theme: TsTheme) {
         this.theme = theme
-        val spans = styles.spans
-        spans?.let {
-            if (it is LineSpansGenerator)
-                it.theme = theme
-        }
+        // Styles in computed spans are resolved by the old theme
+        thread?.offerMessage(MSG_RESTYLE, null)
     }
 
     override fun insert(start: CharPosition, end: CharPosition, insertedContent: CharSequence) {
@@ -69,12 +77,13 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             TextModification(
                 start.index,
                 end.index,
+                start.line,
+                end.line,
                 newTSInputEdit(start, start, end),
                 insertedContent.toString()
             )
         )
         (styles.spans as LineSpansGenerator?)?.apply {
-            lineCount = reference!!.lineCount
             safeTree.accessTreeIfAvailable {
                 it.edit(newTSInputEdit(start, start, end))
             }
@@ -87,12 +96,13 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             TextModification(
                 start.index,
                 end.index,
+                start.line,
+                end.line,
                 newTSInputEdit(start, end, start),
                 null
             )
         )
         (styles.spans as LineSpansGenerator?)?.apply {
-            lineCount = reference!!.lineCount
             safeTree.accessTreeIfAvailable {
                 it.edit(newTSInputEdit(start, end, start))
             }
@@ -102,7 +112,8 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
     override fun rerun() {
         destroyPreviousRes()
         styles = Styles()
-        val initText = reference?.reference?.toString() ?: ""
+        // Shallow copy shares lines with the original text until they are modified
+        val initText = reference?.reference?.copyTextShallow()
         thread = TsLooperThread().also {
             it.name = "TsDaemon-${nextThreadId()}"
             it.offerMessage(MSG_INIT, initText)
@@ -138,6 +149,18 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
         private const val MSG_BASE = 11451400
         private const val MSG_INIT = MSG_BASE + 1
         private const val MSG_MOD = MSG_BASE + 2
+        private const val MSG_RESTYLE = MSG_BASE + 3
+
+        /**
+         * Max time of a single parse call. The worker checks for newer modifications when a parse
+         * is halted.
+         */
+        private const val PARSE_TIMEOUT_MICROS = 50_000L
+
+        /**
+         * Size of text chunks copied to the native text buffer on initialization
+         */
+        private const val TEXT_CHUNK_SIZE = 64 * 1024
 
         @Volatile
         private var threadId = 0
@@ -155,9 +178,24 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
         val localText: UTF16String = UTF16StringFactory.newString()
         private val parser = TSParser.create().also {
             it.language = languageSpec.language
+            it.timeout = PARSE_TIMEOUT_MICROS
         }
         var tree: TSTree? = null
 
+        /**
+         * Spans of each line, maintained by this thread. Span lists are shared with the published
+         * [LineSpansGenerator] objects, so they must not be modified once computed.
+         */
+        private val lineSpans = ArrayList<MutableList<Span>>()
+
+        /**
+         * Code blocks owned by this thread. Copies are delivered to the editor.
+         */
+        private val codeBlocks = TsCodeBlocks()
+        private var lineCount = 0
+        private var scopedVariables: TsScopedVariables? = null
+        private val injections = TsInjectionHighlighter(languageSpec)
+
         fun offerMessage(what: Int, obj: Any?) {
             val msg = Message.obtain()
             msg.what = what
@@ -170,22 +208,49 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             messageQueue.offer(msg)
         }
 
-        fun updateStyles() {
-            val scopedVariables = TsScopedVariables(tree!!, localText, languageSpec)
+        /**
+         * Update spans for the given lines, or for the whole text if [dirtyLines] is null, then publish
+         * the styles if there is no pending message.
+         *
+         * @param dirtyLines Line ranges whose spans are possibly changed
+         * @param metrics Metrics of parsing, to which query time is added
+         */
+        fun updateStyles(dirtyLines: List<IntRange>?, metrics: AnalyzeMetrics? = null) {
+            val tree = tree!!
+            val startTime = System.nanoTime()
+            val computer = LineSpansComputer(languageSpec, theme, spanFactory)
+            val scopedVariables = scopedVariables
+            val dirtyRanges = if (dirtyLines == null || scopedVariables == null) null else mergeLineRanges(dirtyLines)
+            if (dirtyRanges == null) {
+                val newScopedVariables = TsScopedVariables(tree, localText, languageSpec)
+                this.scopedVariables = newScopedVariables
+                lineSpans.clear()
+                lineSpans.addAll(computer.computeLines(tree, localText, newScopedVariables, 0, lineCount - 1))
+            } else {
+                for (range in dirtyRanges) {
+                    val computed = computer.computeLines(tree, localText, scopedVariables, range.first, range.last)
+                    for (line in range) {
+                        lineSpans[line] = computed[line - range.first]
+                    }
+                }
+            }
+            updateCodeBlocks(dirtyRanges)
+            if (injections.isEnabled) {
+                injections.update(tree, localText, dirtyRanges)
+            }
             if (thread == this && messageQueue.isEmpty()) {
                 val oldTree = (styles.spans as LineSpansGenerator?)?.safeTree
-                val newTree = SafeTsTree(tree!!.copy())
-                val newSpans = LineSpansGenerator(
-                    newTree,
-                    reference!!.lineCount,
-                    reference!!.reference,
-                    theme,
-                    languageSpec,
-                    scopedVariables,
-                    spanFactory
-                )
-                val oldBlocks = styles.blocks
-                updateCodeBlocks()
+                val newTree = SafeTsTree(tree.copy())
+                val newSpans = if (injections.isEnabled) {
+                    injections.highlight(spanFactory)
+                    LineSpansGenerator(newTree, injections.merge(lineSpans))
+                } else {
+                    LineSpansGenerator(newTree, ArrayList(lineSpans))
+                }
+                publishCodeBlocks()
+                if (metrics != null) {
+                    lastMetrics = metrics.copy(queryTimeNanos = metrics.queryTimeNanos + System.nanoTime() - startTime)
+                }
                 currentReceiver?.setStyles(this@TsAnalyzeManager, styles) {
                     styles.spans = newSpans
                     oldTree?.close()
@@ -197,12 +262,56 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             }
         }
 
-        fun updateCodeBlocks() {
+        /**
+         * Clamp the ranges to existing lines, and merge overlapping or adjacent ranges
+         */
+        private fun mergeLineRanges(lineRanges: List<IntRange>): List<IntRange> {
+            if (lineSpans.isEmpty()) {
+                return emptyList()
+            }
+            val lastLine = lineSpans.size - 1
+            val ranges = lineRanges.map { it.first.coerceIn(0, lastLine)..it.last.coerceIn(0, lastLine) }
+                .sortedBy { it.first }
+            val merged = mutableListOf<IntRange>()
+            for (range in ranges) {
+                val last = merged.lastOrNull()
+                if (last != null && range.first <= last.last + 1) {
+                    merged[merged.lastIndex] = last.first..maxOf(last.last, range.last)
+                } else {
+                    merged.add(range)
+                }
+            }
+            return merged
+        }
+
+        /**
+         * Update code blocks in the given lines, or in the whole text if [dirtyLines] is null.
+         *
+         * Blocks touching the dirty lines are always queried again, as the tree is queried with one
+         * more line on both sides.
+         */
+        fun updateCodeBlocks(dirtyLines: List<IntRange>?) {
             if (languageSpec.blocksQuery.patternCount == 0 || !languageSpec.blocksQuery.canAccess()) {
                 return
             }
+            if (dirtyLines == null) {
+                codeBlocks.replaceAll(queryCodeBlocks(null))
+                return
+            }
+            for (range in dirtyLines) {
+                codeBlocks.update(range) { queryCodeBlocks(it) }
+            }
+        }
+
+        /**
+         * Query code blocks intersecting the given lines, or in the whole text if [lines] is null
+         */
+        private fun queryCodeBlocks(lines: IntRange?): List<CodeBlock> {
             val blocks = mutableListOf<CodeBlock>()
             TSQueryCursor.create().use {
+                if (lines != null) {
+                    it.setPointRange(TSPoint.create((lines.first - 1).coerceAtLeast(0), 0), TSPoint.create(lines.last + 2, 0))
+                }
                 it.exec(languageSpec.blocksQuery, tree!!.rootNode)
                 var match = it.nextMatch()
                 while (match != null) {
@@ -240,10 +349,17 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
                     match = it.nextMatch()
                 }
             }
-            // sequence should be preferred here in order to avoid allocating multiple lists and sets
-            val distinct = blocks.asSequence().distinct().toMutableList()
-            styles.blocks = distinct
-            styles.finishBuilding()
+            return blocks
+        }
+
+        /**
+         * Set copies of code blocks to [styles]
+         */
+        private fun publishCodeBlocks() {
+            if (languageSpec.blocksQuery.patternCount == 0 || !languageSpec.blocksQuery.canAccess()) {
+                return
+            }
+            codeBlocks.publishTo(styles)
         }
 
         override fun run() {
@@ -265,31 +381,41 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             try {
                 when (msg.what) {
                     MSG_INIT -> {
-                        localText.append(msg.obj!! as String)
+                        val text = msg.obj as Content?
+                        if (text != null) {
+                            appendText(text)
+                            lineCount = text.lineCount
+                            text.release()
+                        } else {
+                            lineCount = 1
+                        }
                         if (!abort && !isInterrupted) {
-                            tree = parser.parseString(localText)
-                            updateStyles()
+                            var parseTime = 0L
+                            var newTree: TSTree? = null
+                            // Parse is halted by timeout regularly so that the thread can be aborted
+                            while (newTree == null && !abort && !isInterrupted) {
+                                val startTime = System.nanoTime()
+                                newTree = parser.parseString(localText)?.takeIf { it.canAccess() }
+                                parseTime += System.nanoTime() - startTime
+                            }
+                            if (newTree != null) {
+                                tree = newTree
+                                updateStyles(null, AnalyzeMetrics(parseTime, 0L, 0, 0))
+                            }
                         }
                     }
 
                     MSG_MOD -> {
                         if (!abort && !isInterrupted) {
-                            val modification = msg.obj!! as TextModification
-                            val newText = modification.changedText
-                            val t = tree!!
-                            t.edit(modification.tsEdition)
-                            if (newText == null) {
-                                localText.delete(modification.start, modification.end)
-                            } else {
-                                if (modification.start == localText.length) {
-                                    localText.append(newText)
-                                } else {
-                                    localText.insert(modification.start, newText)
-                                }
-                            }
-                            tree = parser.parseString(t, localText)
-                            t.close()
-                            updateStyles()
+                            val modifications = mutableListOf(msg.obj!! as TextModification)
+                            pollModifications(modifications)
+                            reparse(modifications)
+                        }
+                    }
+
+                    MSG_RESTYLE -> {
+                        if (!abort && !isInterrupted && tree != null) {
+                            updateStyles(null)
                         }
                     }
                 }
@@ -304,6 +430,120 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
             return false
         }
 
+        /**
+         * Append the text to [localText] in chunks, so that no string of the whole text is created
+         */
+        private fun appendText(text: Content) {
+            val buffer = StringBuilder(TEXT_CHUNK_SIZE)
+            for (i in 0 until text.lineCount) {
+                val line = text.getLine(i)
+                line.appendTo(buffer)
+                buffer.append(line.lineSeparator.content)
+                if (buffer.length >= TEXT_CHUNK_SIZE) {
+                    localText.append(buffer.toString())
+                    buffer.setLength(0)
+                }
+            }
+            if (buffer.isNotEmpty()) {
+                localText.append(buffer.toString())
+            }
+        }
+
+        /**
+         * Move all queued modifications to the given list, until a message of other type is met
+         */
+        private fun pollModifications(modifications: MutableList<TextModification>) {
+            while (messageQueue.peek()?.what == MSG_MOD) {
+                val msg = messageQueue.poll() ?: break
+                modifications.add(msg.obj!! as TextModification)
+                msg.recycle()
+            }
+        }
+
+        /**
+         * Apply the modifications to the tree and text, then parse the text again. If new
+         * modifications arrive before the parse is finished, the parse is restarted with all of them.
+         */
+        private fun reparse(modifications: List<TextModification>) {
+            val oldTree = tree!!
+            val batch = ModificationBatch()
+            var pending = modifications
+            var modificationCount = 0
+            var cancelledParseCount = 0
+            var parseTime = 0L
+            var newTree: TSTree? = null
+            while (newTree == null) {
+                for (modification in pending) {
+                    applyModification(oldTree, modification, batch)
+                }
+                modificationCount += pending.size
+                val startTime = System.nanoTime()
+                newTree = parser.parseString(oldTree, localText)?.takeIf { it.canAccess() }
+                parseTime += System.nanoTime() - startTime
+                if (newTree == null) {
+                    // Parse halted by timeout
+                    if (abort || isInterrupted) {
+                        parser.reset()
+                        return
+                    }
+                    val newModifications = mutableListOf<TextModification>()
+                    pollModifications(newModifications)
+                    if (newModifications.isNotEmpty()) {
+                        // Text is changed again, and the result of current parse is useless
+                        parser.reset()
+                        cancelledParseCount++
+                    }
+                    // Otherwise, the parse is resumed
+                    pending = newModifications
+                }
+            }
+            tree = newTree
+            for (range in oldTree.getChangedRanges(newTree)) {
+                batch.markDirty(range.startByte / 2, range.endByte / 2, range.startPoint.row, range.endPoint.row)
+            }
+            oldTree.close()
+            val queryStartTime = System.nanoTime()
+            scopedVariables?.let {
+                // References in the scope may be resolved to other definitions
+                it.update(newTree, localText, batch.startIndex, batch.endIndex)?.let { lines -> batch.dirtyLines.add(lines) }
+            }
+            val localsTime = System.nanoTime() - queryStartTime
+            updateStyles(batch.dirtyLines, AnalyzeMetrics(parseTime, localsTime, modificationCount, cancelledParseCount))
+        }
+
+        /**
+         * Apply a modification to the tree, the text and all position-based data of this thread
+         */
+        private fun applyModification(tree: TSTree, modification: TextModification, batch: ModificationBatch) {
+            val newText = modification.changedText
+            tree.edit(modification.tsEdition)
+            if (newText == null) {
+                localText.delete(modification.start, modification.end)
+                lineSpans.deleteLines(modification.startLine, modification.endLine)
+                lineCount -= modification.endLine - modification.startLine
+            } else {
+                if (modification.start == localText.length) {
+                    localText.append(newText)
+                } else {
+                    localText.insert(modification.start, newText)
+                }
+                lineSpans.insertLines(modification.startLine, modification.endLine) { mutableListOf() }
+                lineCount += modification.endLine - modification.startLine
+            }
+            codeBlocks.shift(modification.startLine, modification.endLine, newText == null)
+            injections.shift(modification.startLine, modification.endLine, newText == null)
+            batch.onModification(modification)
+            scopedVariables?.let {
+                if (newText == null) {
+                    it.applyEdit(modification.start, modification.end, modification.start,
+                        modification.startLine, modification.endLine, modification.startLine)
+                } else {
+                    it.applyEdit(modification.start, modification.start, modification.start + newText.length,
+                        modification.startLine, modification.startLine, modification.endLine)
+                }
+            }
+        }
+
         fun releaseThreadResources() {
             parser.close()
             tree?.close()
@@ -312,9 +552,26 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
 
     }
 
+    /**
+     * Timings of an analysis
+     *
+     * @param parseTimeNanos Time spent on parsing, including parses restarted by newer modifications
+     * @param queryTimeNanos Time spent on locals, highlight and code block queries
+     * @param modificationCount Count of text modifications applied before parsing
+     * @param cancelledParseCount Count of parses restarted by newer modifications
+     */
+    data class AnalyzeMetrics(
+        val parseTimeNanos: Long,
+        val queryTimeNanos: Long,
+        val modificationCount: Int,
+        val cancelledParseCount: Int
+    )
+
     data class TextModification(
         val start: Int,
         val end: Int,
+        val startLine: Int,
+        val endLine: Int,
         val tsEdition: TSInputEdit,
         /**
          * null for deletion
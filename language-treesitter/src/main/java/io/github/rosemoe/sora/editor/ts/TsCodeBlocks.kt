@@ -0,0 +1,142 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.lang.styling.Styles
+import java.util.IdentityHashMap
+
+/**
+ * Code blocks of a document, sorted by [CodeBlock.COMPARATOR_START] and [CodeBlock.COMPARATOR_END],
+ * with the same objects in both lists. Blocks are updated in place on text modifications and only
+ * blocks in the changed lines are queried again.
+ *
+ * This class is not thread-safe. Copies are delivered to the editor by [publishTo].
+ */
+internal class TsCodeBlocks {
+
+    var blocksByStart = ArrayList<CodeBlock>()
+        private set
+    var blocksByEnd = ArrayList<CodeBlock>()
+        private set
+
+    /**
+     * Replace all blocks with the given ones. Duplicated blocks are removed.
+     */
+    fun replaceAll(blocks: List<CodeBlock>) {
+        val distinct = blocks.distinct()
+        blocksByStart = ArrayList(distinct.sortedWith(CodeBlock.COMPARATOR_START))
+        blocksByEnd = ArrayList(distinct.sortedWith(CodeBlock.COMPARATOR_END))
+    }
+
+    /**
+     * Remove blocks intersecting the given lines, then merge blocks intersecting the lines from
+     * [query] into the sorted lists.
+     *
+     * @param query Query blocks in the given lines. Blocks outside the lines are ignored.
+     */
+    fun update(lines: IntRange, query: (IntRange) -> List<CodeBlock>) {
+        val intersects = { block: CodeBlock -> block.startLine <= lines.last && block.endLine >= lines.first }
+        blocksByStart.removeAll(intersects)
+        blocksByEnd.removeAll(intersects)
+        val newBlocks = query(lines).filter(intersects).distinct()
+        if (newBlocks.isNotEmpty()) {
+            blocksByStart = mergeSorted(blocksByStart, newBlocks.sortedWith(CodeBlock.COMPARATOR_START), CodeBlock.COMPARATOR_START)
+            blocksByEnd = mergeSorted(blocksByEnd, newBlocks.sortedWith(CodeBlock.COMPARATOR_END), CodeBlock.COMPARATOR_END)
+        }
+    }
+
+    /**
+     * Shift lines of blocks for a modification from [startLine] to [endLine]. Blocks on the modified
+     * lines are expected to be updated later.
+     */
+    fun shift(startLine: Int, endLine: Int, deletion: Boolean) {
+        if (startLine == endLine) {
+            return
+        }
+        // Both lists contain the same objects
+        if (deletion) {
+            for (block in blocksByStart) {
+                block.startLine = shiftLineOnDelete(block.startLine, startLine, endLine)
+                block.endLine = shiftLineOnDelete(block.endLine, startLine, endLine)
+            }
+        } else {
+            for (block in blocksByStart) {
+                block.startLine = shiftLineOnInsert(block.startLine, startLine, endLine)
+                block.endLine = shiftLineOnInsert(block.endLine, startLine, endLine)
+            }
+        }
+    }
+
+    /**
+     * Set copies of the blocks to [styles]. Blocks in styles are shifted by the editor on text
+     * changes, so they can not be shared with the owner of this object.
+     */
+    fun publishTo(styles: Styles) {
+        val copies = IdentityHashMap<CodeBlock, CodeBlock>(blocksByEnd.size)
+        val blocks = ArrayList<CodeBlock>(blocksByEnd.size)
+        for (block in blocksByEnd) {
+            val copy = CodeBlock()
+            copy.startLine = block.startLine
+            copy.startColumn = block.startColumn
+            copy.endLine = block.endLine
+            copy.endColumn = block.endColumn
+            copy.toBottomOfEndLine = block.toBottomOfEndLine
+            copies[block] = copy
+            blocks.add(copy)
+        }
+        // Both lists are sorted, so Styles.finishBuilding() is not needed
+        styles.blocks = blocks
+        styles.blocksByStart = blocksByStart.mapTo(ArrayList(blocksByStart.size)) { copies[it]!! }
+    }
+
+    companion object {
+
+        /**
+         * Merge two lists sorted by the given comparator. Elements of [a] come first for equal elements.
+         */
+        fun <T> mergeSorted(a: List<T>, b: List<T>, comparator: Comparator<in T>): ArrayList<T> {
+            val result = ArrayList<T>(a.size + b.size)
+            var i = 0
+            var j = 0
+            while (i < a.size && j < b.size) {
+                if (comparator.compare(a[i], b[j]) <= 0) {
+                    result.add(a[i++])
+                } else {
+                    result.add(b[j++])
+                }
+            }
+            while (i < a.size) {
+                result.add(a[i++])
+            }
+            while (j < b.size) {
+                result.add(b[j++])
+            }
+            return result
+        }
+
+    }
+
+}
@@ -29,7 +29,10 @@ import com.itsaky.androidide.treesitter.TSQuery
 import com.itsaky.androidide.treesitter.TSQueryError
 import io.github.rosemoe.sora.editor.ts.predicate.Predicator
 import io.github.rosemoe.sora.editor.ts.predicate.TsPredicate
+import io.github.rosemoe.sora.editor.ts.multilang.LanguagePriorityCheck
+import io.github.rosemoe.sora.editor.ts.multilang.TsInjectableLanguageSpec
 import io.github.rosemoe.sora.editor.ts.predicate.builtin.MatchPredicate
+import io.github.rosemoe.sora.editor.ts.predicate.builtin.SetCapturePredicate
 import java.io.Closeable
 
 /**
@@ -50,6 +53,11 @@ import java.io.Closeable
  * @param localsScmSource The scm source code for tracking local variables
  * @param localsCaptureSpec Custom specification for locals scm file
  * @param predicates Client custom predicate implementations
+ * @param injectionScmSource The scm source for capturing regions of other languages. Capture named 'injection.content'
+ *                          is the region, and its language name is given by capture 'injection.language' or by
+ *                          `#set! injection.language "name"`
+ * @param injectableLanguages Languages that can be used in injected regions. Injected regions are parsed as separate
+ *                          documents with the language of highest priority for the given name
  */
 open class TsLanguageSpec(
     val language: TSLanguage,
@@ -58,7 +66,9 @@ open class TsLanguageSpec(
     bracketsScmSource: String = "",
     localsScmSource: String = "",
     localsCaptureSpec: LocalsCaptureSpec = LocalsCaptureSpec.DEFAULT,
-    val predicates: List<TsPredicate> = listOf(MatchPredicate)
+    val predicates: List<TsPredicate> = listOf(MatchPredicate),
+    injectionScmSource: String = "",
+    val injectableLanguages: List<TsInjectableLanguageSpec> = emptyList()
 ) : Closeable {
 
     /**
@@ -111,11 +121,14 @@ open class TsLanguageSpec(
 
     val bracketsQuery = TSQuery.create(language, bracketsScmSource)
 
+    val injectionQuery = TSQuery.create(language, injectionScmSource)
+
     init {
         // Check the queries before access
         try {
             blocksQuery.validateOrThrow("code-blocks")
             bracketsQuery.validateOrThrow("brackets")
+            injectionQuery.validateOrThrow("injections")
             querySource.forEach {
                 if (it > 0xFF.toChar()) {
                     throw IllegalArgumentException("use non-ASCII characters in scm source is unexpected")
@@ -134,6 +147,7 @@ open class TsLanguageSpec(
             tsQuery.close()
             blocksQuery.close()
             bracketsQuery.close()
+            injectionQuery.close()
             throw e
         }
     }
@@ -144,6 +158,31 @@ open class TsLanguageSpec(
 
     val bracketsPredicator = Predicator(bracketsQuery)
 
+    val injectionPredicator = Predicator(injectionQuery)
+
+    /**
+     * Predicates for injection query. `#set!` is always supported for setting language names.
+     */
+    val injectionPredicates = if (SetCapturePredicate in predicates) predicates else predicates + SetCapturePredicate
+
+    /**
+     * Find the language for injected regions with the given name
+     *
+     * @return the language with the highest priority, or null if no language accepts the name
+     */
+    fun findInjectableLanguage(name: String): TsInjectableLanguageSpec? {
+        var result: TsInjectableLanguageSpec? = null
+        var priority = LanguagePriorityCheck.PRIORITY_NEVER
+        for (spec in injectableLanguages) {
+            val specPriority = spec.languageName.getPriorityByName(name)
+            if (specPriority > priority && !spec.closed) {
+                result = spec
+                priority = specPriority
+            }
+        }
+        return result
+    }
+
     /**
      * Close flag
      */
@@ -179,6 +218,7 @@ open class TsLanguageSpec(
         tsQuery.close()
         blocksQuery.close()
         bracketsQuery.close()
+        injectionQuery.close()
         closed = true
     }
 
@@ -35,6 +35,9 @@ import java.util.Stack
  * Class for storing tree-sitter variables. This class tracks the positions and scopes
  * of variables and find definitions.
  *
+ * The index can be maintained incrementally: positions are shifted by [applyEdit], and only the
+ * innermost scope containing the changed region is queried again by [update].
+ *
  * @author Rosemoe
  * @param tree The parsed tree
  * @param text The current text for tree
@@ -42,58 +45,86 @@ import java.util.Stack
  */
 class TsScopedVariables(tree: TSTree, text: UTF16String, val spec: TsLanguageSpec) {
 
-    private val rootScope: Scope = Scope(0, tree.rootNode.endByte / 2)
+    private val rootScope: Scope = Scope(0, tree.rootNode.endByte / 2, 0, tree.rootNode.endPoint.row)
+
+    /**
+     * Pool for sharing name strings between scopes and rebuilds
+     */
+    private val names = HashMap<String, String>()
 
     init {
         if (spec.localsDefinitionIndices.isNotEmpty()) {
-            TSQueryCursor.create().use { cursor ->
-                cursor.exec(spec.tsQuery, tree.rootNode)
-                var match = cursor.nextMatch()
-                val captures = mutableListOf<TSQueryCapture>()
-                while (match != null) {
-                    if (spec.queryPredicator.doPredicate(spec.predicates, text, match)) {
-                        captures.addAll(match.captures)
-                    }
-                    match = cursor.nextMatch()
+            collectScope(tree, text, rootScope)
+        }
+    }
+
+    /**
+     * Query the given scope and replace its variables and child scopes with the result
+     */
+    private fun collectScope(tree: TSTree, text: UTF16String, target: Scope) {
+        target.variables.clear()
+        target.childScopes.clear()
+        TSQueryCursor.create().use { cursor ->
+            if (target !== rootScope) {
+                cursor.setByteRange(target.startIndex * 2, target.endIndex * 2)
+            }
+            cursor.exec(spec.tsQuery, tree.rootNode)
+            var match = cursor.nextMatch()
+            val captures = mutableListOf<TSQueryCapture>()
+            while (match != null) {
+                if (spec.queryPredicator.doPredicate(spec.predicates, text, match)) {
+                    captures.addAll(match.captures)
+                }
+                match = cursor.nextMatch()
+            }
+            captures.sortBy { it.node.startByte }
+            val scopeStack = Stack<Scope>()
+            var lastAddedVariableNode: TSNode? = null
+            scopeStack.push(target)
+            for (capture in captures) {
+                val node = capture.node
+                val startIndex = node.startByte / 2
+                val endIndex = node.endByte / 2
+                if (target !== rootScope && (startIndex < target.startIndex || endIndex > target.endIndex)) {
+                    // Outside the target scope, including its ancestors
+                    continue
                 }
-                captures.sortBy { it.node.startByte }
-                val scopeStack = Stack<Scope>()
-                var lastAddedVariableNode: TSNode? = null
-                scopeStack.push(rootScope)
-                for (capture in captures) {
-                    val startIndex = capture.node.startByte / 2
-                    val endIndex = capture.node.endByte / 2
-                    while (startIndex >= scopeStack.peek().endIndex) {
-                        scopeStack.pop()
+                while (scopeStack.size > 1 && startIndex >= scopeStack.peek().endIndex) {
+                    scopeStack.pop()
+                }
+                val pattern = capture.index
+                if (pattern in spec.localsScopeIndices || pattern in spec.localsMembersScopeIndices) {
+                    if (startIndex == target.startIndex && endIndex == target.endIndex && scopeStack.size == 1 && target !== rootScope) {
+                        // The target scope itself
+                        continue
                     }
-                    val pattern = capture.index
-                    if (pattern in spec.localsScopeIndices) {
-                        val newScope = Scope(startIndex, endIndex)
-                        scopeStack.peek().childScopes.add(newScope)
-                        scopeStack.push(newScope)
-                    } else if (pattern in spec.localsMembersScopeIndices) {
-                        val newScope = Scope(startIndex, endIndex, true)
-                        scopeStack.peek().childScopes.add(newScope)
-                        scopeStack.push(newScope)
-                    } else if (pattern in spec.localsDefinitionIndices) {
-                        val scope = scopeStack.peek()
-                        val utf16Name = text.subseqChars(startIndex, endIndex)
-                        val name = utf16Name.toString()
-                        utf16Name.close()
-                        val scopedVar = ScopedVariable(
-                            name,
-                            if (scope.forMembers) scope.startIndex else startIndex,
-                            scope.endIndex
-                        )
-                        scope.variables.add(scopedVar)
-                        lastAddedVariableNode = capture.node
-                    } else if (pattern !in spec.localsDefinitionValueIndices && pattern !in spec.localsReferenceIndices && lastAddedVariableNode != null) {
-                        val topVariables = scopeStack.peek().variables
-                        if (topVariables.isNotEmpty()) {
-                            val topVariable = topVariables.last()
-                            if (lastAddedVariableNode.startByte / 2 == startIndex && lastAddedVariableNode.endByte / 2 == endIndex && topVariable.matchedHighlightPattern == -1) {
-                                topVariable.matchedHighlightPattern = pattern
-                            }
+                    val newScope = Scope(
+                        startIndex,
+                        endIndex,
+                        node.startPoint.row,
+                        node.endPoint.row,
+                        pattern in spec.localsMembersScopeIndices
+                    )
+                    scopeStack.peek().childScopes.add(newScope)
+                    scopeStack.push(newScope)
+                } else if (pattern in spec.localsDefinitionIndices) {
+                    val scope = scopeStack.peek()
+                    val utf16Name = text.subseqChars(startIndex, endIndex)
+                    val name = utf16Name.toString().let { names.getOrPut(it) { it } }
+                    utf16Name.close()
+                    val scopedVar = ScopedVariable(
+                        name,
+                        if (scope.forMembers) scope.startIndex else startIndex,
+                        scope.endIndex
+                    )
+                    scope.variables.add(scopedVar)
+                    lastAddedVariableNode = node
+                } else if (pattern !in spec.localsDefinitionValueIndices && pattern !in spec.localsReferenceIndices && lastAddedVariableNode != null) {
+                    val topVariables = scopeStack.peek().variables
+                    if (topVariables.isNotEmpty()) {
+                        val topVariable = topVariables.last()
+                        if (lastAddedVariableNode.startByte / 2 == startIndex && lastAddedVariableNode.endByte / 2 == endIndex && topVariable.matchedHighlightPattern == -1) {
+                            topVariable.matchedHighlightPattern = pattern
                         }
                     }
                 }
@@ -102,8 +133,10 @@ class TsScopedVariables(tree: TSTree, text: UTF16String, val spec: TsLanguageSpe
     }
 
     data class Scope(
-        val startIndex: Int,
-        val endIndex: Int,
+        var startIndex: Int,
+        var endIndex: Int,
+        var startLine: Int,
+        var endLine: Int,
         val forMembers: Boolean = false,
         val variables: MutableList<ScopedVariable> = mutableListOf(),
         val childScopes: MutableList<Scope> = mutableListOf()
@@ -116,23 +149,182 @@ class TsScopedVariables(tree: TSTree, text: UTF16String, val spec: TsLanguageSpe
         var matchedHighlightPattern: Int = -1
     )
 
+    /**
+     * Shift the positions for a text modification. The tree must be edited with the same modification.
+     * Positions in the replaced region are moved to its start.
+     *
+     * @param startIndex Start index of the modification
+     * @param oldEndIndex End index of the replaced text before modification
+     * @param newEndIndex End index of the new text after modification
+     */
+    fun applyEdit(
+        startIndex: Int,
+        oldEndIndex: Int,
+        newEndIndex: Int,
+        startLine: Int,
+        oldEndLine: Int,
+        newEndLine: Int
+    ) {
+        if (spec.localsDefinitionIndices.isEmpty()) {
+            return
+        }
+        val indexDelta = newEndIndex - oldEndIndex
+        val lineDelta = newEndLine - oldEndLine
+        fun shiftIndex(index: Int) = if (index >= oldEndIndex) index + indexDelta else if (index > startIndex) startIndex else index
+        fun shiftLine(line: Int) = if (line >= oldEndLine) line + lineDelta else if (line > startLine) startLine else line
+        fun shiftScope(scope: Scope) {
+            if (scope.endIndex < startIndex) {
+                return
+            }
+            scope.startIndex = shiftIndex(scope.startIndex)
+            scope.endIndex = shiftIndex(scope.endIndex)
+            scope.startLine = shiftLine(scope.startLine)
+            scope.endLine = shiftLine(scope.endLine)
+            for (variable in scope.variables) {
+                variable.scopeStartIndex = shiftIndex(variable.scopeStartIndex)
+                variable.scopeEndIndex = shiftIndex(variable.scopeEndIndex)
+            }
+            for (child in scope.childScopes) {
+                shiftScope(child)
+            }
+        }
+        shiftScope(rootScope)
+    }
+
+    /**
+     * Query again the innermost scope containing the given region of the new tree. Positions must
+     * have been shifted by [applyEdit] for all modifications since last update.
+     *
+     * @param startIndex Start of changed region in the new tree
+     * @param endIndex End of changed region in the new tree
+     * @return Lines where references may be resolved differently than before, or null if definitions
+     * in the re-queried scope are not changed
+     */
+    fun update(tree: TSTree, text: UTF16String, startIndex: Int, endIndex: Int): IntRange? {
+        if (spec.localsDefinitionIndices.isEmpty()) {
+            return null
+        }
+        val rootNode = tree.rootNode
+        rootScope.endIndex = rootNode.endByte / 2
+        rootScope.endLine = rootNode.endPoint.row
+        val target = findEnclosingScope(startIndex, endIndex)
+        val oldScope = target.copy(
+            variables = target.variables.toMutableList(),
+            childScopes = target.childScopes.toMutableList()
+        )
+        collectScope(tree, text, target)
+        if (target === rootScope) {
+            names.clear()
+            fillNames(rootScope)
+        }
+        return if (hasSameDefinitions(oldScope, target)) null else target.startLine..target.endLine
+    }
+
+    private fun fillNames(scope: Scope) {
+        for (variable in scope.variables) {
+            names[variable.name] = variable.name
+        }
+        for (child in scope.childScopes) {
+            fillNames(child)
+        }
+    }
+
+    /**
+     * Find the innermost scope containing the given region
+     */
+    private fun findEnclosingScope(startIndex: Int, endIndex: Int): Scope {
+        var scope = rootScope
+        while (true) {
+            val child = findChildScope(scope, startIndex) ?: break
+            if (child.endIndex < endIndex) {
+                break
+            }
+            scope = child
+        }
+        return scope
+    }
+
+    /**
+     * Find the last child scope starting at or before [index], which contains [index] if any child does.
+     * Child scopes are sorted and do not overlap.
+     */
+    private fun findChildScope(scope: Scope, index: Int): Scope? {
+        val children = scope.childScopes
+        var low = 0
+        var high = children.size - 1
+        var result: Scope? = null
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val child = children[mid]
+            if (child.startIndex <= index) {
+                result = child
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+        return if (result != null && result.endIndex >= index) result else null
+    }
+
+    /**
+     * Check if the two scopes define the same variables at the same positions in the same structure.
+     * Positions of the old scope must have been shifted by [applyEdit], so that a definition moved
+     * inside the scope is considered changed, as references around it may be resolved differently.
+     */
+    private fun hasSameDefinitions(a: Scope, b: Scope): Boolean {
+        if (a.forMembers != b.forMembers || a.startIndex != b.startIndex || a.endIndex != b.endIndex
+            || a.variables.size != b.variables.size || a.childScopes.size != b.childScopes.size
+        ) {
+            return false
+        }
+        for (i in a.variables.indices) {
+            val va = a.variables[i]
+            val vb = b.variables[i]
+            if (va.name != vb.name || va.matchedHighlightPattern != vb.matchedHighlightPattern
+                || va.scopeStartIndex != vb.scopeStartIndex || va.scopeEndIndex != vb.scopeEndIndex
+            ) {
+                return false
+            }
+        }
+        for (i in a.childScopes.indices) {
+            if (!hasSameDefinitions(a.childScopes[i], b.childScopes[i])) {
+                return false
+            }
+        }
+        return true
+    }
+
     fun findDefinition(startIndex: Int, endIndex: Int, name: String): ScopedVariable? {
+        return findDefinition(startIndex, endIndex) { name }
+    }
+
+    /**
+     * Find the definition for the reference in the given region. The name of the reference is only
+     * obtained from [nameProvider] if there is a candidate definition with the same name length.
+     */
+    fun findDefinition(startIndex: Int, endIndex: Int, nameProvider: () -> String): ScopedVariable? {
         var definition: ScopedVariable? = null
         var currentScope: Scope? = rootScope
+        val length = endIndex - startIndex
+        var name: String? = null
         while (currentScope != null) {
             for (variable in currentScope.variables) {
                 if (variable.scopeStartIndex > startIndex) {
                     break
                 }
-                if (variable.scopeStartIndex <= startIndex && variable.scopeEndIndex >= endIndex && variable.name == name) {
-                    definition = variable
-                    // Do not break here: name can be shadowed in some languages
+                if (variable.scopeEndIndex >= endIndex && variable.name.length == length) {
+                    if (name == null) {
+                        name = nameProvider()
+                    }
+                    if (variable.name == name) {
+                        definition = variable
+                        // Do not break here: name can be shadowed in some languages
+                    }
                 }
             }
-            currentScope =
-                currentScope.childScopes.firstOrNull { scope -> scope.startIndex <= startIndex && scope.endIndex >= endIndex }
+            currentScope = findChildScope(currentScope, startIndex)?.takeIf { it.endIndex >= endIndex }
         }
         return definition
     }
 
-}
\ No newline at end of file
+}
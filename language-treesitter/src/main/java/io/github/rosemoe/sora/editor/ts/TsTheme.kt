@@ -24,7 +24,6 @@
 
 package io.github.rosemoe.sora.editor.ts
 
-import android.util.SparseLongArray
 import com.itsaky.androidide.treesitter.TSQuery
 import io.github.rosemoe.sora.lang.styling.TextStyle
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
@@ -39,13 +38,20 @@ import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
  * The theme also provide a fallback. You may call [TsTheme.putStyleRule] with a rule of length 0 to
  *  set fallback color scheme.
  * Note that colors of 'locals.definition', 'locals.reference', etc. can not be set by this theme object.
+ * Styles can be resolved from multiple threads without locking, as injected regions are highlighted concurrently.
  *
  * @author Rosemoe
  */
 class TsTheme(private val tsQuery: TSQuery) {
 
     private val styles = mutableMapOf<String, Long>()
-    private val mapping = SparseLongArray()
+
+    /**
+     * Resolved styles of all captures, published as a whole and never modified. Null if rules are changed
+     * since last resolution.
+     */
+    @Volatile
+    private var resolvedStyles: LongArray? = null
 
     /**
      * The text style for normal texts
@@ -59,9 +65,10 @@ class TsTheme(private val tsQuery: TSQuery) {
      * @param style The style value for those nodes
      * @see io.github.rosemoe.sora.lang.styling.TextStyle
      */
+    @Synchronized
     fun putStyleRule(rule: String, style: Long) {
         styles[rule] = style
-        mapping.clear()
+        resolvedStyles = null
     }
 
     /**
@@ -71,19 +78,24 @@ class TsTheme(private val tsQuery: TSQuery) {
     fun eraseStyleRule(rule: String) = putStyleRule(rule, 0L)
 
     fun resolveStyleForPattern(pattern: Int): Long {
-        val index = mapping.indexOfKey(pattern)
-        return if (index >= 0) {
-            mapping.valueAt(index)
-        } else {
-            var mappedName = tsQuery.getCaptureNameForId(pattern)
+        val resolved = resolvedStyles ?: resolveStyles()
+        return if (pattern in resolved.indices) resolved[pattern] else 0L
+    }
+
+    @Synchronized
+    private fun resolveStyles(): LongArray {
+        resolvedStyles?.let { return it }
+        val resolved = LongArray(tsQuery.captureCount) { id ->
+            var mappedName = tsQuery.getCaptureNameForId(id)
             var style = styles[mappedName] ?: 0L
             while (style == 0L && mappedName.isNotEmpty()) {
                 mappedName = mappedName.substringBeforeLast('.', "")
                 style = styles[mappedName] ?: 0L
             }
-            mapping.put(pattern, style)
             style
         }
+        resolvedStyles = resolved
+        return resolved
     }
 
 }
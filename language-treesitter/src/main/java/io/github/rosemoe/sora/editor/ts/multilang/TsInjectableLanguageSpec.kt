@@ -44,6 +44,10 @@ class TsInjectableLanguageSpec(
     predicates: List<TsPredicate> = listOf(MatchPredicate)
 ) : TsLanguageSpec(language, highlightScmSource, codeBlocksScmSource, bracketsScmSource, localsScmSource, localsCaptureSpec, predicates) {
 
+    // Injected regions of the same language may be highlighted concurrently, and the
+    // theme is replaced as a whole when updated
+
+    @Volatile
     var theme = TsThemeBuilder(tsQuery).apply { themeDescription() }.theme
 
     fun updateTheme(themeDescription: TsThemeBuilder.() -> Unit) = run {
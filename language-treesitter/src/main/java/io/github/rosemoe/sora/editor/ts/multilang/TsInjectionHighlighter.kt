@@ -0,0 +1,379 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts.multilang
+
+import android.util.Log
+import com.itsaky.androidide.treesitter.TSParser
+import com.itsaky.androidide.treesitter.TSPoint
+import com.itsaky.androidide.treesitter.TSQueryCursor
+import com.itsaky.androidide.treesitter.TSTree
+import com.itsaky.androidide.treesitter.string.UTF16String
+import com.itsaky.androidide.treesitter.string.UTF16StringFactory
+import io.github.rosemoe.sora.editor.ts.LineSpansComputer
+import io.github.rosemoe.sora.editor.ts.TsLanguageSpec
+import io.github.rosemoe.sora.editor.ts.TsScopedVariables
+import io.github.rosemoe.sora.editor.ts.predicate.TsSyntheticCaptureContainer
+import io.github.rosemoe.sora.editor.ts.shiftLineOnDelete
+import io.github.rosemoe.sora.editor.ts.shiftLineOnInsert
+import io.github.rosemoe.sora.editor.ts.spans.TsSpanFactory
+import io.github.rosemoe.sora.lang.styling.Span
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Highlighter for regions of other languages in a document, found by the injection query of the host
+ * language.
+ *
+ * Each region is parsed as a separate document. Regions are shifted on text modifications, and the
+ * injection query only runs on changed lines, so moving a region does not parse it again. Changed regions
+ * are parsed and queried on a worker pool shared by all documents.
+ *
+ * This class is used by a single analysis thread.
+ *
+ * @author Rosemoe
+ */
+internal class TsInjectionHighlighter(private val hostSpec: TsLanguageSpec) {
+
+    companion object {
+
+        private const val CAPTURE_CONTENT = "injection.content"
+        private const val CAPTURE_LANGUAGE = "injection.language"
+
+        private val threadId = AtomicInteger()
+
+        /**
+         * Worker pool shared by all documents
+         */
+        private val executor: ExecutorService by lazy {
+            val threadCount = (Runtime.getRuntime().availableProcessors() - 1).coerceAtLeast(1)
+            ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS, LinkedBlockingQueue(), ThreadFactory {
+                Thread(it, "TsInjection-${threadId.incrementAndGet()}").apply {
+                    isDaemon = true
+                }
+            }).apply {
+                allowCoreThreadTimeOut(true)
+            }
+        }
+
+    }
+
+    /**
+     * A region of injected language. Positions are in the host document, and are shifted on text
+     * modifications. The text is only copied when the region is found by a query.
+     */
+    private class Region(
+        val spec: TsInjectableLanguageSpec,
+        val text: String,
+        var startLine: Int,
+        val startColumn: Int,
+        var endLine: Int,
+        val endColumn: Int
+    ) {
+
+        /**
+         * Spans of each line, relative to the start of the region. Null if the region is not highlighted yet.
+         */
+        var spans: List<MutableList<Span>>? = null
+
+        fun intersects(lines: IntRange) = startLine <= lines.last && endLine >= lines.first
+
+        fun hasSamePosition(other: Region) = startLine == other.startLine && startColumn == other.startColumn
+                && endLine == other.endLine && endColumn == other.endColumn
+
+        fun hasSameContent(other: Region) = spec === other.spec && text == other.text
+
+    }
+
+    /**
+     * Regions sorted by position, without overlapping
+     */
+    private var regions = listOf<Region>()
+
+    /**
+     * Whether the host language has injections
+     */
+    val isEnabled: Boolean
+        get() = hostSpec.injectionQuery.patternCount > 0 && hostSpec.injectableLanguages.isNotEmpty()
+
+    /**
+     * Find injected regions in the given lines of the host tree, or in the whole tree if [dirtyLines] is
+     * null. Regions outside the lines are kept. Regions found are highlighted by [highlight], unless their
+     * content is not changed.
+     *
+     * @param dirtyLines Lines whose text or syntax is changed since last update
+     */
+    fun update(tree: TSTree, text: UTF16String, dirtyLines: List<IntRange>?) {
+        if (!isEnabled || hostSpec.closed) {
+            regions = emptyList()
+            return
+        }
+        val found = if (dirtyLines == null) {
+            findRegions(tree, text, null)
+        } else {
+            dirtyLines.flatMap { findRegions(tree, text, it) }
+        }
+        val kept = mutableListOf<Region>()
+        val removed = mutableListOf<Region>()
+        for (region in regions) {
+            if (dirtyLines == null || dirtyLines.any { region.intersects(it) } || found.any { region.hasSamePosition(it) }) {
+                removed.add(region)
+            } else {
+                kept.add(region)
+            }
+        }
+        for (region in found) {
+            region.spans = removed.firstOrNull { it.spans != null && it.hasSameContent(region) }?.spans
+        }
+        kept.addAll(found)
+        kept.sortWith(compareBy({ it.startLine }, { it.startColumn }))
+        // Nested or duplicated regions are not supported
+        val result = mutableListOf<Region>()
+        for (region in kept) {
+            val last = result.lastOrNull()
+            if (last == null || region.startLine > last.endLine
+                || (region.startLine == last.endLine && region.startColumn >= last.endColumn)
+            ) {
+                result.add(region)
+            }
+        }
+        regions = result
+    }
+
+    /**
+     * Shift lines of regions for a modification from [startLine] to [endLine]. Regions on the modified
+     * lines are expected to be found again by [update].
+     */
+    fun shift(startLine: Int, endLine: Int, deletion: Boolean) {
+        if (startLine == endLine) {
+            return
+        }
+        for (region in regions) {
+            if (deletion) {
+                region.startLine = shiftLineOnDelete(region.startLine, startLine, endLine)
+                region.endLine = shiftLineOnDelete(region.endLine, startLine, endLine)
+            } else {
+                region.startLine = shiftLineOnInsert(region.startLine, startLine, endLine)
+                region.endLine = shiftLineOnInsert(region.endLine, startLine, endLine)
+            }
+        }
+    }
+
+    /**
+     * Highlight regions that are not highlighted yet
+     */
+    fun highlight(spanFactory: TsSpanFactory) {
+        val pending = regions.filter { it.spans == null }
+        if (pending.isEmpty()) {
+            return
+        }
+        val distinct = mutableListOf<Region>()
+        for (region in pending) {
+            if (distinct.none { it.hasSameContent(region) }) {
+                distinct.add(region)
+            }
+        }
+        val computed = if (distinct.size == 1) {
+            // No need to hand over a single region
+            listOf(computeSpans(distinct[0], spanFactory))
+        } else {
+            val futures = mutableListOf<Future<List<MutableList<Span>>>>()
+            try {
+                for (region in distinct) {
+                    futures.add(executor.submit(Callable { computeSpans(region, spanFactory) }))
+                }
+                futures.map { it.get() }
+            } finally {
+                futures.forEach { it.cancel(true) }
+            }
+        }
+        for (region in pending) {
+            region.spans = computed[distinct.indexOfFirst { it.hasSameContent(region) }]
+        }
+    }
+
+    /**
+     * Find regions intersecting the given lines, or all regions if [lines] is null
+     */
+    private fun findRegions(tree: TSTree, text: UTF16String, lines: IntRange?): List<Region> {
+        val regions = mutableListOf<Region>()
+        val query = hostSpec.injectionQuery
+        val syntheticCaptures = TsSyntheticCaptureContainer()
+        TSQueryCursor.create().use { cursor ->
+            if (lines != null) {
+                cursor.setPointRange(TSPoint.create(lines.first, 0), TSPoint.create(lines.last + 1, 0))
+            }
+            cursor.exec(query, tree.rootNode)
+            var match = cursor.nextMatch()
+            while (match != null) {
+                syntheticCaptures.clear()
+                if (hostSpec.injectionPredicator.doPredicate(hostSpec.injectionPredicates, text, match, syntheticCaptures)) {
+                    var languageName: String? = null
+                    for (i in syntheticCaptures.indices) {
+                        if (syntheticCaptures[i].captureName == CAPTURE_LANGUAGE) {
+                            languageName = syntheticCaptures[i].captureText
+                        }
+                    }
+                    for (capture in match.captures) {
+                        if (query.getCaptureNameForId(capture.index) == CAPTURE_LANGUAGE) {
+                            languageName = substring(text, capture.node.startByte / 2, capture.node.endByte / 2)
+                        }
+                    }
+                    val spec = languageName?.let { hostSpec.findInjectableLanguage(it) }
+                    if (spec != null) {
+                        for (capture in match.captures) {
+                            if (query.getCaptureNameForId(capture.index) != CAPTURE_CONTENT) {
+                                continue
+                            }
+                            val node = capture.node
+                            val startIndex = node.startByte / 2
+                            val endIndex = node.endByte / 2
+                            if (startIndex >= endIndex) {
+                                continue
+                            }
+                            val startPoint = node.startPoint
+                            val endPoint = node.endPoint
+                            regions.add(
+                                Region(
+                                    spec,
+                                    substring(text, startIndex, endIndex),
+                                    startPoint.row,
+                                    startPoint.column / 2,
+                                    endPoint.row,
+                                    endPoint.column / 2
+                                )
+                            )
+                        }
+                    }
+                }
+                match = cursor.nextMatch()
+            }
+        }
+        return regions
+    }
+
+    private fun substring(text: UTF16String, start: Int, end: Int): String {
+        val sub = text.subseqChars(start, end)
+        val str = sub.toString()
+        sub.close()
+        return str
+    }
+
+    /**
+     * Parse and highlight the text of a region. This can be called from any thread.
+     *
+     * @return spans of each line in the region, or an empty list if the region can not be highlighted
+     */
+    private fun computeSpans(region: Region, spanFactory: TsSpanFactory): List<MutableList<Span>> {
+        return try {
+            computeSpansUnsafe(region, spanFactory)
+        } catch (e: Exception) {
+            Log.w("TsInjectionHighlighter", "Failed to highlight injected region", e)
+            emptyList()
+        }
+    }
+
+    private fun computeSpansUnsafe(region: Region, spanFactory: TsSpanFactory): List<MutableList<Span>> {
+        val spec = region.spec
+        val text = UTF16StringFactory.newString(region.text)
+        val parser = TSParser.create()
+        try {
+            parser.language = spec.language
+            val tree = parser.parseString(text)
+            try {
+                val scopedVariables = TsScopedVariables(tree, text, spec)
+                val lineCount = region.text.count { it == '\n' } + 1
+                return LineSpansComputer(spec, spec.theme, spanFactory)
+                    .computeLines(tree, text, scopedVariables, 0, lineCount - 1)
+            } finally {
+                tree.close()
+            }
+        } finally {
+            parser.close()
+            text.close()
+        }
+    }
+
+    /**
+     * Create span lists of the host document with spans of injected regions merged. Lines without
+     * injected regions are shared with the given list.
+     */
+    fun merge(hostLines: List<MutableList<Span>>): ArrayList<MutableList<Span>> {
+        val result = ArrayList(hostLines)
+        for (region in regions) {
+            val spans = region.spans ?: continue
+            for (i in spans.indices) {
+                val line = region.startLine + i
+                if (line >= result.size || line > region.endLine) {
+                    break
+                }
+                val offset = if (i == 0) region.startColumn else 0
+                val endColumn = if (line == region.endLine) region.endColumn else Int.MAX_VALUE
+                result[line] = mergeLine(result[line], spans[i], offset, endColumn)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Replace the spans in `[startColumn, endColumn)` of a host line with the injected spans
+     */
+    private fun mergeLine(host: List<Span>, injected: List<Span>, startColumn: Int, endColumn: Int): MutableList<Span> {
+        val result = ArrayList<Span>(host.size + injected.size + 1)
+        var activeAtEnd: Span? = null
+        for (span in host) {
+            if (span.column < startColumn) {
+                result.add(span)
+            }
+            if (span.column <= endColumn) {
+                activeAtEnd = span
+            }
+        }
+        for (span in injected) {
+            val column = span.column + startColumn
+            if (column >= endColumn) {
+                break
+            }
+            result.add(span.copy().also { it.column = column })
+        }
+        if (endColumn != Int.MAX_VALUE) {
+            if (activeAtEnd != null) {
+                result.add(activeAtEnd.copy().also { it.column = endColumn })
+            }
+            for (span in host) {
+                if (span.column > endColumn) {
+                    result.add(span)
+                }
+            }
+        }
+        return result
+    }
+
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Line-indexed values shifted on random modifications, checked against values computed again
+ * from the whole text
+ */
+class LineShiftsTest {
+
+    private fun lineOf(text: String, index: Int): Int {
+        var line = 0
+        for (i in 0 until index) {
+            if (text[i] == '\n') {
+                line++
+            }
+        }
+        return line
+    }
+
+    private fun randomText(random: Random, length: Int) = buildString {
+        repeat(length) {
+            append("ab\n\n"[random.nextInt(4)])
+        }
+    }
+
+    @Test
+    fun `test lines inserted and deleted`() {
+        repeat(50) { seed ->
+            val random = Random(seed)
+            var text = randomText(random, 200)
+            val lines = text.split('\n').toMutableList()
+            repeat(200) {
+                val startLine: Int
+                val endLine: Int
+                if (text.isEmpty() || random.nextBoolean()) {
+                    val index = random.nextInt(text.length + 1)
+                    val inserted = randomText(random, random.nextInt(8) + 1)
+                    startLine = lineOf(text, index)
+                    text = text.substring(0, index) + inserted + text.substring(index)
+                    endLine = lineOf(text, index + inserted.length)
+                    lines.insertLines(startLine, endLine) { "" }
+                    val expected = text.split('\n')
+                    for (line in startLine..endLine) {
+                        lines[line] = expected[line]
+                    }
+                } else {
+                    val start = random.nextInt(text.length)
+                    val end = minOf(text.length, start + random.nextInt(10) + 1)
+                    startLine = lineOf(text, start)
+                    endLine = lineOf(text, end)
+                    text = text.substring(0, start) + text.substring(end)
+                    lines.deleteLines(startLine, endLine)
+                    lines[startLine] = text.split('\n')[startLine]
+                }
+                assertThat(lines).isEqualTo(text.split('\n'))
+            }
+        }
+    }
+
+    @Test
+    fun `test line shifting`() {
+        // Insertion from line 3 to 5
+        assertThat(shiftLineOnInsert(2, 3, 5)).isEqualTo(2)
+        assertThat(shiftLineOnInsert(3, 3, 5)).isEqualTo(3)
+        assertThat(shiftLineOnInsert(4, 3, 5)).isEqualTo(6)
+        // Deletion from line 3 to 5
+        assertThat(shiftLineOnDelete(2, 3, 5)).isEqualTo(2)
+        assertThat(shiftLineOnDelete(4, 3, 5)).isEqualTo(3)
+        assertThat(shiftLineOnDelete(5, 3, 5)).isEqualTo(3)
+        assertThat(shiftLineOnDelete(6, 3, 5)).isEqualTo(4)
+    }
+
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Random text modifications, checked against the state computed again from the whole text
+ */
+class ModificationBatchTest {
+
+    private fun lineOf(text: String, index: Int): Int {
+        var line = 0
+        for (i in 0 until index) {
+            if (text[i] == '\n') {
+                line++
+            }
+        }
+        return line
+    }
+
+    private fun randomText(random: Random, length: Int) = buildString {
+        repeat(length) {
+            append("ab{}\n\n\n"[random.nextInt(7)])
+        }
+    }
+
+    @Test
+    fun `test line shifting and dirty regions`() {
+        repeat(50) { seed ->
+            val random = Random(seed)
+            var text = randomText(random, 300)
+            // Line values are maintained like line spans in the analyzer, and lines are computed again only if dirty
+            val lines = text.split('\n').toMutableList()
+            repeat(200) {
+                val before = text
+                val batch = ModificationBatch()
+                repeat(random.nextInt(5) + 1) {
+                    if (text.isEmpty() || random.nextBoolean()) {
+                        val index = random.nextInt(text.length + 1)
+                        val inserted = randomText(random, random.nextInt(8) + 1)
+                        val startLine = lineOf(text, index)
+                        text = text.substring(0, index) + inserted + text.substring(index)
+                        val endLine = lineOf(text, index + inserted.length)
+                        lines.insertLines(startLine, endLine) { "" }
+                        batch.onModification(index, index + inserted.length, startLine, endLine, false)
+                    } else {
+                        val start = random.nextInt(text.length)
+                        val end = minOf(text.length, start + random.nextInt(10) + 1)
+                        val startLine = lineOf(text, start)
+                        val endLine = lineOf(text, end)
+                        text = text.substring(0, start) + text.substring(end)
+                        lines.deleteLines(startLine, endLine)
+                        batch.onModification(start, end, startLine, endLine, true)
+                    }
+                }
+                val expected = text.split('\n')
+                assertThat(lines.size).isEqualTo(expected.size)
+                for (range in batch.dirtyLines) {
+                    for (line in range) {
+                        lines[line] = expected[line]
+                    }
+                }
+                assertThat(lines).isEqualTo(expected)
+                // Text outside the dirty region is not changed
+                assertThat(batch.startIndex).isAtMost(batch.endIndex)
+                assertThat(batch.endIndex).isAtMost(text.length)
+                assertThat(text.substring(0, batch.startIndex)).isEqualTo(before.substring(0, batch.startIndex))
+                val suffixLength = text.length - batch.endIndex
+                assertThat(text.substring(batch.endIndex)).isEqualTo(before.substring(before.length - suffixLength))
+            }
+        }
+    }
+
+}
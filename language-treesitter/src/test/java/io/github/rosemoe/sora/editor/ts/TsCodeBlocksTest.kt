@@ -0,0 +1,141 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Random text modifications with code blocks updated only in changed lines, checked against the
+ * blocks computed again from the whole text
+ */
+class TsCodeBlocksTest {
+
+    private fun lineOf(text: String, index: Int): Int {
+        var line = 0
+        for (i in 0 until index) {
+            if (text[i] == '\n') {
+                line++
+            }
+        }
+        return line
+    }
+
+    private fun randomText(random: Random, length: Int) = buildString {
+        repeat(length) {
+            append("ab{}\n\n\n"[random.nextInt(7)])
+        }
+    }
+
+    private fun block(startLine: Int, startColumn: Int, endLine: Int, endColumn: Int) = CodeBlock().also {
+        it.startLine = startLine
+        it.startColumn = startColumn
+        it.endLine = endLine
+        it.endColumn = endColumn
+    }
+
+    /**
+     * Blocks of matched braces spanning more than two lines, like the ones queried from a tree
+     */
+    private fun computeBlocks(text: String): List<CodeBlock> {
+        val blocks = mutableListOf<CodeBlock>()
+        val stack = ArrayDeque<Pair<Int, Int>>()
+        text.split('\n').forEachIndexed { line, content ->
+            content.forEachIndexed { column, ch ->
+                if (ch == '{') {
+                    stack.addLast(line to column)
+                } else if (ch == '}' && stack.isNotEmpty()) {
+                    val (startLine, startColumn) = stack.removeLast()
+                    if (line - startLine > 1) {
+                        blocks.add(block(startLine, startColumn, line, column))
+                    }
+                }
+            }
+        }
+        return blocks
+    }
+
+    @Test
+    fun `test merge sorted`() {
+        val random = Random(0)
+        repeat(100) {
+            val a = List(random.nextInt(20)) { random.nextInt(50) }.sorted()
+            val b = List(random.nextInt(20)) { random.nextInt(50) }.sorted()
+            assertThat(TsCodeBlocks.mergeSorted(a, b, naturalOrder())).isEqualTo((a + b).sorted())
+        }
+    }
+
+    @Test
+    fun `test incremental code blocks`() {
+        repeat(50) { seed ->
+            val random = Random(seed)
+            var text = randomText(random, 300)
+            val codeBlocks = TsCodeBlocks()
+            codeBlocks.replaceAll(computeBlocks(text))
+            repeat(200) {
+                val oldBlocks = computeBlocks(text)
+                val batch = ModificationBatch()
+                val shift: (Int) -> Int
+                if (text.isEmpty() || random.nextBoolean()) {
+                    val index = random.nextInt(text.length + 1)
+                    val inserted = randomText(random, random.nextInt(8) + 1)
+                    val startLine = lineOf(text, index)
+                    text = text.substring(0, index) + inserted + text.substring(index)
+                    val endLine = lineOf(text, index + inserted.length)
+                    codeBlocks.shift(startLine, endLine, false)
+                    batch.onModification(index, index + inserted.length, startLine, endLine, false)
+                    shift = { shiftLineOnInsert(it, startLine, endLine) }
+                } else {
+                    val start = random.nextInt(text.length)
+                    val end = minOf(text.length, start + random.nextInt(10) + 1)
+                    val startLine = lineOf(text, start)
+                    val endLine = lineOf(text, end)
+                    text = text.substring(0, start) + text.substring(end)
+                    codeBlocks.shift(startLine, endLine, true)
+                    batch.onModification(start, end, startLine, endLine, true)
+                    shift = { shiftLineOnDelete(it, startLine, endLine) }
+                }
+                val newBlocks = computeBlocks(text)
+                // Blocks whose structure is changed are reported as changed ranges by tree-sitter
+                val shiftedOldBlocks = oldBlocks.map { block(shift(it.startLine), it.startColumn, shift(it.endLine), it.endColumn) }
+                val dirtyLines = batch.dirtyLines.toMutableList()
+                shiftedOldBlocks.filter { it !in newBlocks }.mapTo(dirtyLines) { it.startLine..it.endLine }
+                newBlocks.filter { it !in shiftedOldBlocks }.mapTo(dirtyLines) { it.startLine..it.endLine }
+                for (range in dirtyLines) {
+                    // The tree is queried with one more line on both sides
+                    codeBlocks.update(range) { lines ->
+                        newBlocks.filter { it.startLine <= lines.last + 1 && it.endLine >= lines.first - 1 }
+                            .map { block(it.startLine, it.startColumn, it.endLine, it.endColumn) }
+                    }
+                }
+                assertThat(codeBlocks.blocksByStart).isEqualTo(newBlocks.sortedWith(CodeBlock.COMPARATOR_START))
+                assertThat(codeBlocks.blocksByEnd).isEqualTo(newBlocks.sortedWith(CodeBlock.COMPARATOR_END))
+            }
+        }
+    }
+
+}
@@ -4,8 +4,10 @@
 
 #include "oniguruma.h"
 #include "jni.h"
+#include <algorithm>
 #include <string>
 #include <mutex>
+#include <vector>
 
 OnigErrorInfo lastOnigError;
 
@@ -22,6 +24,30 @@ struct OnigCachedRegex {
     std::mutex cacheLock{};
 };
 
+/**
+ * Copy of the last searched string on this thread. The tokenizer searches the same line many times
+ * with one cache key, so the string is only copied out of the Java heap once per line.
+ */
+struct OnigStringBuffer {
+    jlong cacheKey{};
+    std::vector<unsigned char> data{};
+};
+
+thread_local OnigStringBuffer stringBuffer;
+
+thread_local std::vector<jlong> pointersBuffer;
+
+const unsigned char *obtainStringBuffer(JNIEnv *env, jlong cacheKey, jbyteArray str) {
+    if (cacheKey == 0 || stringBuffer.cacheKey != cacheKey) {
+        auto length = env->GetArrayLength(str);
+        // Keep at least one byte so that data() is never null
+        stringBuffer.data.resize(std::max(length, 1));
+        env->GetByteArrayRegion(str, 0, length, reinterpret_cast<jbyte *>(stringBuffer.data.data()));
+        stringBuffer.cacheKey = cacheKey;
+    }
+    return stringBuffer.data.data();
+}
+
 bool checkGAnchor(const unsigned char *data, jsize length) {
     for (int i = 0; i < length - 1; i++) {
         if (data[i] == '\\' && data[i + 1] == 'G') {
@@ -119,16 +145,11 @@ Java_io_github_rosemoe_oniguruma_OnigNative_nRegexSearch(JNIEnv *env, jclass cla
                                                         jint end) {
     auto regex = reinterpret_cast<OnigCachedRegex *>(native_ptr);
 
-    auto content = env->GetByteArrayElements(str, nullptr);
-    if (content == nullptr) {
-        return nullptr;
-    }
+    auto buffer = obtainStringBuffer(env, cache_key, str);
 
     OnigRegion *region = onig_region_new();
 
-    auto buffer = reinterpret_cast<unsigned char *>(content);
     bool success = searchCached(regex, cache_key, buffer, start, end, region);
-    env->ReleaseByteArrayElements(str, content, JNI_ABORT);
 
     if (!success) {
         onig_region_free(region, 1);
@@ -165,22 +186,16 @@ Java_io_github_rosemoe_oniguruma_OnigNative_nRegexSearchBatch(JNIEnv *env, jclas
                                                              jlongArray native_ptrs,
                                                              jlong cache_key, jbyteArray str,
                                                              jint start, jint end) {
-    auto nativePtrs = env->GetLongArrayElements(native_ptrs, nullptr);
-    if (nativePtrs == nullptr) {
-        return nullptr;
-    }
+    auto regexCount = env->GetArrayLength(native_ptrs);
+    pointersBuffer.resize(regexCount);
+    env->GetLongArrayRegion(native_ptrs, 0, regexCount, pointersBuffer.data());
+    auto nativePtrs = pointersBuffer.data();
 
-    auto strData = env->GetByteArrayElements(str, nullptr);
-    if (strData == nullptr) {
-        env->ReleaseLongArrayElements(native_ptrs, nativePtrs, JNI_ABORT);
-        return nullptr;
-    }
-    auto buffer = reinterpret_cast<unsigned char *>(strData);
+    auto buffer = obtainStringBuffer(env, cache_key, str);
 
     OnigRegion *region = onig_region_new();
     OnigRegion *resultRegion = onig_region_new();
 
-    auto regexCount = env->GetArrayLength(native_ptrs);
     int bestIndex = -1;
     int bestLocation = -1;
     for (int i = 0; i < regexCount; i++) {
@@ -205,8 +220,6 @@ Java_io_github_rosemoe_oniguruma_OnigNative_nRegexSearchBatch(JNIEnv *env, jclas
         }
     }
 
-    env->ReleaseLongArrayElements(native_ptrs, nativePtrs, JNI_ABORT);
-    env->ReleaseByteArrayElements(str, strData, JNI_ABORT);
     onig_region_free(region, 1);
 
     if (bestIndex == -1) {